@@ -29,6 +29,7 @@
  */
 package it.geosolutions.imageio.compression;
 
+import java.util.Arrays;
 import java.util.zip.DataFormatException;
 
 /**
@@ -43,6 +44,19 @@ public interface Decompressor {
     /** Set the input source data buffer to be decompressed */
     void setInput(byte [] srcData);
 
+    /**
+     * Set the input source data buffer to be decompressed, limited to the specified region,
+     * allowing callers to reuse a larger buffer across decompressions. The default implementation
+     * copies the region when it does not cover the whole buffer.
+     */
+    default void setInput(byte[] srcData, int offset, int length) {
+        if (offset == 0 && length == srcData.length) {
+            setInput(srcData);
+        } else {
+            setInput(Arrays.copyOfRange(srcData, offset, offset + length));
+        }
+    }
+
     /**
      * Decompress the source data and put result in the dest data buffer, starting from offset
      * position, with a maximum number of uncompressed bytes
@@ -29,11 +29,46 @@ public class CogImageReadParam extends TIFFImageReadParam {
 
     protected int headerLength = DEFAULT_HEADER_LENGTH;
     protected Class<? extends RangeReader> rangeReaderClass;
+    protected long rangeMaxGap = DEFAULT_RANGE_MAX_GAP;
+    protected long rangeMaxLength = DEFAULT_RANGE_MAX_LENGTH;
+    protected int maxRangeRequests = DEFAULT_MAX_RANGE_REQUESTS;
+    protected boolean pipelined = DEFAULT_PIPELINED;
+    protected int readAheadRing = DEFAULT_READ_AHEAD_RING;
+    protected boolean readAheadOverview = DEFAULT_READ_AHEAD_OVERVIEW;
+    protected long readAheadBudget = DEFAULT_READ_AHEAD_BUDGET;
 
     public static final String DEFAULT_COG_HEADER_LENGTH_KEY = "it.geosolutions.cog.default.header.length";
+    public static final String DEFAULT_RANGE_MAX_GAP_KEY = "it.geosolutions.cog.range.maxgap";
+    public static final String DEFAULT_RANGE_MAX_LENGTH_KEY = "it.geosolutions.cog.range.maxlength";
+    public static final String DEFAULT_MAX_RANGE_REQUESTS_KEY = "it.geosolutions.cog.range.maxrequests";
+    public static final String DEFAULT_PIPELINED_KEY = "it.geosolutions.cog.pipelined";
+    public static final String DEFAULT_READ_AHEAD_RING_KEY = "it.geosolutions.cog.readahead.ring";
+    public static final String DEFAULT_READ_AHEAD_OVERVIEW_KEY = "it.geosolutions.cog.readahead.overview";
+    public static final String DEFAULT_READ_AHEAD_BUDGET_KEY = "it.geosolutions.cog.readahead.budget";
 
     public static final int DEFAULT_HEADER_LENGTH;
 
+    /** Ranges separated by less than this number of bytes are merged into a single request */
+    public static final long DEFAULT_RANGE_MAX_GAP = Long.getLong(DEFAULT_RANGE_MAX_GAP_KEY, 8192L);
+
+    /** Ranges longer than this number of bytes are split, on tile boundaries, into requests running in parallel */
+    public static final long DEFAULT_RANGE_MAX_LENGTH = Long.getLong(DEFAULT_RANGE_MAX_LENGTH_KEY, 4194304L);
+
+    /** Maximum number of range requests issued for a single read */
+    public static final int DEFAULT_MAX_RANGE_REQUESTS = Integer.getInteger(DEFAULT_MAX_RANGE_REQUESTS_KEY, 128);
+
+    /** Whether tiles are decoded as soon as the range holding them is available */
+    public static final boolean DEFAULT_PIPELINED = Boolean.getBoolean(DEFAULT_PIPELINED_KEY);
+
+    /** Number of rings of tiles around a read region fetched ahead of time, 0 to disable */
+    public static final int DEFAULT_READ_AHEAD_RING = Integer.getInteger(DEFAULT_READ_AHEAD_RING_KEY, 0);
+
+    /** Whether the tiles of the parent overview covering a read region are fetched ahead of time */
+    public static final boolean DEFAULT_READ_AHEAD_OVERVIEW = Boolean.getBoolean(DEFAULT_READ_AHEAD_OVERVIEW_KEY);
+
+    /** Maximum number of bytes fetched ahead of time after a single read */
+    public static final long DEFAULT_READ_AHEAD_BUDGET = Long.getLong(DEFAULT_READ_AHEAD_BUDGET_KEY, 4194304L);
+
     static {
         final String defaultHeaderLength= System.getProperty(DEFAULT_COG_HEADER_LENGTH_KEY);
         if (defaultHeaderLength != null) {
@@ -78,4 +113,121 @@ public class CogImageReadParam extends TIFFImageReadParam {
     public void setHeaderLength(int headerLength) {
         this.headerLength = headerLength;
     }
+
+    public long getRangeMaxGap() {
+        return rangeMaxGap;
+    }
+
+    /**
+     * Sets the maximum number of bytes separating two tiles for them to be read with a single range request.
+     * Reading the gap is worth as long as it takes less time than issuing a new request.
+     *
+     * @param rangeMaxGap the maximum gap in bytes, 0 to only merge contiguous tiles
+     */
+    public void setRangeMaxGap(long rangeMaxGap) {
+        this.rangeMaxGap = rangeMaxGap;
+    }
+
+    public long getRangeMaxLength() {
+        return rangeMaxLength;
+    }
+
+    /**
+     * Sets the maximum length of a range built by merging several tiles.  Longer reads are split into several
+     * requests that can run in parallel.  A single tile longer than this value is never split.
+     *
+     * @param rangeMaxLength the maximum length in bytes, 0 or a negative value for no limit
+     */
+    public void setRangeMaxLength(long rangeMaxLength) {
+        this.rangeMaxLength = rangeMaxLength;
+    }
+
+    public int getMaxRangeRequests() {
+        return maxRangeRequests;
+    }
+
+    /**
+     * Sets the maximum number of range requests issued for a single read.  When exceeded, the closest ranges are
+     * merged, over-fetching the bytes in between.
+     *
+     * @param maxRangeRequests the maximum number of requests, 0 or a negative value for no limit
+     */
+    public void setMaxRangeRequests(int maxRangeRequests) {
+        this.maxRangeRequests = maxRangeRequests;
+    }
+
+    public boolean isPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Enables decoding tiles as soon as the range holding them has been fetched, instead of waiting for all the
+     * ranges of the read to be available, so that the network transfer overlaps with the decoding.
+     *
+     * @param pipelined true to decode tiles while the following ranges are still being fetched
+     */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
+    public int getReadAheadRing() {
+        return readAheadRing;
+    }
+
+    /**
+     * Sets the number of rings of neighbouring tiles fetched into the tile cache once a read returns, so that a
+     * client panning across the image finds the next tiles already cached.  Read-ahead only applies to streams
+     * backed by a shared cache, such as the CachingCogImageInputStream.
+     *
+     * @param readAheadRing the number of rings around the read tiles, 0 to disable
+     */
+    public void setReadAheadRing(int readAheadRing) {
+        this.readAheadRing = readAheadRing;
+    }
+
+    public boolean isReadAheadOverview() {
+        return readAheadOverview;
+    }
+
+    /**
+     * Enables fetching into the tile cache, once a read returns, the tiles of the parent overview covering the read
+     * region, so that a client zooming out finds them already cached.
+     *
+     * @param readAheadOverview true to read ahead the tiles of the parent overview
+     */
+    public void setReadAheadOverview(boolean readAheadOverview) {
+        this.readAheadOverview = readAheadOverview;
+    }
+
+    public long getReadAheadBudget() {
+        return readAheadBudget;
+    }
+
+    /**
+     * Sets the maximum number of bytes fetched ahead of time after a single read.  Tiles are read ahead closest
+     * first, neighbouring rings before the parent overview, until the budget is exhausted.
+     *
+     * @param readAheadBudget the maximum number of bytes, 0 to disable read-ahead
+     */
+    public void setReadAheadBudget(long readAheadBudget) {
+        this.readAheadBudget = readAheadBudget;
+    }
+
+    /**
+     * Configures the maximum gap between merged ranges from the cost of a request: a gap is read whenever
+     * transferring it takes less than the latency of an additional request.  The gap saturates at
+     * {@link Long#MAX_VALUE} rather than overflowing.
+     *
+     * @param requestLatency the expected latency of a range request, in milliseconds
+     * @param bytesPerSecond the expected throughput of a range request, in bytes per second
+     */
+    public void setRangeCostModel(long requestLatency, long bytesPerSecond) {
+        long gap;
+        try {
+            gap = Math.multiplyExact(requestLatency, bytesPerSecond) / 1000;
+        } catch (ArithmeticException e) {
+            gap = Long.MAX_VALUE;
+        }
+        this.rangeMaxGap = gap;
+    }
 }
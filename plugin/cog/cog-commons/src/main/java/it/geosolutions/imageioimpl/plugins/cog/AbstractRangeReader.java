@@ -24,11 +24,28 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 /**
+ * Base class for the range readers.  Fetched ranges are kept in memory, so that later reads of the same bytes, or of
+ * any portion of them, are served without issuing new requests.
+ *
+ * Headers are cached along with the version of the resource (ETag, Last-Modified or generation).  When a
+ * revalidation interval is configured, through the <code>it.geosolutions.cog.revalidation.interval</code> system
+ * property (milliseconds) or {@link #setRevalidationInterval(long)}, a cached header older than the interval is only
+ * used after checking that the resource has not changed, which is much cheaper than reading the header again.
+ *
  * @author joshfix
  * Created on 2019-08-21
  */
@@ -40,9 +57,29 @@ public abstract class AbstractRangeReader implements RangeReader {
      * tileBytes/tileCount TAG which slow down the repeated accesses.
      */
     protected final static Map<String, byte[]> HEADERS_CACHE = new SoftValueHashMap<>();
-    
+
+    /**
+     * The versions of the resources whose header has been cached, so that they remain known when the header is
+     * served from cache.
+     */
+    protected final static Map<String, String> VERSIONS_CACHE = new SoftValueHashMap<>();
+
+    /**
+     * The last time, in milliseconds, the cached versions have been found to be current.
+     */
+    protected final static Map<String, Long> VALIDATION_TIMES = new ConcurrentHashMap<>();
+
+    public static final String REVALIDATION_INTERVAL_KEY = "it.geosolutions.cog.revalidation.interval";
+
+    /** Negative values disable revalidation, cached headers are then used until evicted */
+    public static final long DEFAULT_REVALIDATION_INTERVAL = Long.getLong(REVALIDATION_INTERVAL_KEY, -1L);
+
     static {
-        ExtCaches.addListener(() -> HEADERS_CACHE.clear());
+        ExtCaches.addListener(() -> {
+            HEADERS_CACHE.clear();
+            VERSIONS_CACHE.clear();
+            VALIDATION_TIMES.clear();
+        });
     }
 
     protected BasicAuthURI authUri;
@@ -50,6 +87,11 @@ public abstract class AbstractRangeReader implements RangeReader {
     protected SoftValueHashMap<Long, byte[]> data = new SoftValueHashMap<>(0);
     protected int headerLength;
     protected int headerOffset = 0;
+    protected RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+    protected long revalidationInterval = DEFAULT_REVALIDATION_INTERVAL;
+    protected RangeReadScheduler scheduler = RangeReadScheduler.getDefault();
+    protected HedgingPolicy hedgingPolicy = HedgingPolicy.DEFAULT;
+    protected RangeReadListener statistics = RangeReadStatistics.DEFAULT;
 
     private final static Logger LOGGER = Logger.getLogger(AbstractRangeReader.class.getName());
 
@@ -125,6 +167,259 @@ public abstract class AbstractRangeReader implements RangeReader {
         }
     }
 
+    @Override
+    public Map<Long, byte[]> read(Collection<long[]> ranges) {
+        return read(ranges.toArray(new long[][]{}));
+    }
+
+    /**
+     * Reads the provided ranges, serving the ones contained in previously fetched data from memory and fetching the
+     * others in parallel.
+     */
+    @Override
+    public Map<Long, byte[]> read(long[]... ranges) {
+        ranges = reconcileRanges(ranges);
+
+        long deadline = retryPolicy.deadline();
+        Map<Long, CompletableFuture<byte[]>> downloads = new HashMap<>(ranges.length);
+        Map<Long, byte[]> values = new HashMap<>();
+        for (long[] range : ranges) {
+            byte[] dataRange = getAvailable(range);
+            // check for available data
+            if (dataRange == null) {
+                statistics.cacheMiss(RangeReadStatistics.TIER_RANGES);
+                downloads.put(range[0], fetch(range, deadline, this::readAsync));
+            } else {
+                statistics.cacheHit(RangeReadStatistics.TIER_RANGES);
+                values.put(range[0], dataRange);
+            }
+        }
+        statistics.readCompleted(downloads.size());
+
+        awaitCompletion(values, downloads, deadline);
+        for (Long start : downloads.keySet()) {
+            data.put(start, values.get(start));
+        }
+        return values;
+    }
+
+    /**
+     * Returns the bytes of the provided range if they are contained in a range fetched earlier by this reader.
+     *
+     * @param range the start/end byte locations to be read
+     * @return the bytes of the range, or null if they are not all available
+     */
+    protected byte[] getAvailable(long[] range) {
+        long length = range[1] - range[0] + 1;
+        byte[] exact = data.get(range[0]);
+        if (exact != null && exact.length >= length) {
+            return exact.length == length ? exact : Arrays.copyOf(exact, (int) length);
+        }
+        for (Map.Entry<Long, byte[]> entry : data.entrySet()) {
+            byte[] bytes = entry.getValue();
+            long start = entry.getKey();
+            // values might have been garbage collected meanwhile
+            if (bytes != null && start <= range[0] && range[1] < start + bytes.length) {
+                int offset = (int) (range[0] - start);
+                return Arrays.copyOfRange(bytes, offset, offset + (int) length);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Extends the header bytes read with the configured header length so that they cover all the IFDs and their
+     * tag values, as computed by the {@link CogHeaderPlanner}.  The missing bytes are fetched with a single range
+     * request in most cases, instead of repeatedly calling {@link #fetchHeader()} in fixed increments.
+     *
+     * @param header the bytes read from the beginning of the file
+     * @return the complete header
+     */
+    protected byte[] completeHeader(byte[] header) {
+        return CogHeaderPlanner.completeHeader(header, range -> {
+            byte[] bytes = read(range).get(range[0]);
+            // the extension is kept as part of the header, no need to keep a copy of it
+            data.remove(range[0]);
+            return bytes;
+        });
+    }
+
+    /**
+     * Issues the requests for all the provided ranges without waiting for them to complete.  The fetched bytes are
+     * handed to the caller only, they are not kept by this reader.
+     */
+    @Override
+    public Map<Long, CompletableFuture<byte[]>> readAsync(Collection<long[]> ranges) {
+        long[][] reconciled = reconcileRanges(ranges.toArray(new long[][]{}));
+        long deadline = retryPolicy.deadline();
+        Map<Long, CompletableFuture<byte[]>> downloads = new HashMap<>(reconciled.length);
+        int requests = 0;
+        for (long[] range : reconciled) {
+            byte[] dataRange = getAvailable(range);
+            if (dataRange != null) {
+                statistics.cacheHit(RangeReadStatistics.TIER_RANGES);
+                downloads.put(range[0], CompletableFuture.completedFuture(dataRange));
+            } else {
+                statistics.cacheMiss(RangeReadStatistics.TIER_RANGES);
+                downloads.put(range[0], fetch(range, deadline, this::readAsync));
+                requests++;
+            }
+        }
+        statistics.readCompleted(requests);
+        return downloads;
+    }
+
+    /**
+     * Issues a single asynchronous request for the provided range.  Implementations don't need to handle retries,
+     * concurrency limits or reuse of fetched data, which are managed by this class.
+     *
+     * @param range the start/end byte locations to be read
+     * @return a future completing with the bytes of the range
+     */
+    protected abstract CompletableFuture<byte[]> readAsync(long[] range);
+
+    /**
+     * Asynchronously fetches the provided range, joining a concurrent request for the same bytes issued by any
+     * reader of the same source, or issuing a new request, retried according to the {@link RetryPolicy} of
+     * this reader, otherwise.
+     *
+     * @param range the start/end byte locations to be read
+     * @param deadline the deadline of the whole read, in {@link System#nanoTime()} units
+     * @param request issues a single asynchronous request for the provided range
+     * @return a future completing with the bytes of the range
+     */
+    protected CompletableFuture<byte[]> fetch(long[] range, long deadline,
+                                              Function<long[], CompletableFuture<byte[]>> request) {
+        return InFlightRanges.fetch(getSourceKey(), range, () -> fetchWithRetry(range, deadline, request));
+    }
+
+    /**
+     * Returns the key identifying the source of this reader when sharing requests with other readers. Includes the
+     * user, so that bytes fetched with some credentials are not shared with readers using other ones.
+     */
+    protected String getSourceKey() {
+        String user = authUri.getUser();
+        return user != null ? user + "@" + uri : uri.toString();
+    }
+
+    /**
+     * Asynchronously fetches the provided range, retrying the request according to the {@link RetryPolicy} of
+     * this reader. Each attempt is issued through the {@link RangeReadScheduler} of this reader, so that it's subject
+     * to the global and per host concurrency limits, and hedged according to the {@link HedgingPolicy} of this
+     * reader once running.  Hedges are issued through the scheduler too, taking their own slot.
+     *
+     * @param range the start/end byte locations to be read
+     * @param deadline the deadline of the whole read, in {@link System#nanoTime()} units
+     * @param request issues a single asynchronous request for the provided range
+     * @return a future completing with the bytes of the range
+     */
+    protected CompletableFuture<byte[]> fetchWithRetry(long[] range, long deadline,
+                                                     Function<long[], CompletableFuture<byte[]>> request) {
+        String host = uri.getHost();
+        long start = System.nanoTime();
+        CompletableFuture<byte[]> fetched = retryPolicy.execute(() -> scheduler.submit(host, this,
+                () -> hedgingPolicy.execute(host, range[1] - range[0] + 1, () -> request.apply(range),
+                        hedge -> scheduler.submit(host, this, hedge))),
+                deadline, "range " + range[0] + "-" + range[1] + " of " + uri);
+        fetched.thenAccept(bytes -> {
+            if (bytes != null) {
+                statistics.rangeFetched(host, bytes.length, System.nanoTime() - start);
+            }
+        });
+        return fetched;
+    }
+
+    /**
+     * Parks the calling thread until all the downloads have completed, putting their results in the values map.
+     * Fails as soon as one of the downloads fails or the deadline expires, cancelling the pending ones.
+     *
+     * @param values the map receiving the downloaded bytes, keyed by range start
+     * @param downloads the pending downloads, keyed by range start
+     * @param deadline the deadline of the whole read, in {@link System#nanoTime()} units
+     */
+    protected void awaitCompletion(Map<Long, byte[]> values, Map<Long, CompletableFuture<byte[]>> downloads,
+                                   long deadline) {
+        if (downloads.isEmpty()) {
+            return;
+        }
+        CompletableFuture<Void> all = CompletableFuture.allOf(downloads.values().toArray(new CompletableFuture[0]));
+        // fail fast, without waiting for the other downloads to complete
+        for (CompletableFuture<byte[]> download : downloads.values()) {
+            download.whenComplete((bytes, error) -> {
+                if (error != null) {
+                    all.completeExceptionally(error);
+                }
+            });
+        }
+        try {
+            all.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            cancel(downloads);
+            throw new RuntimeException("Timed out reading ranges from " + uri + " after "
+                    + retryPolicy.getTimeout() + "ms", e);
+        } catch (InterruptedException e) {
+            cancel(downloads);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading ranges from " + uri, e);
+        } catch (ExecutionException e) {
+            cancel(downloads);
+            throw new RuntimeException("Failed to read ranges from " + uri, RetryPolicy.unwrap(e));
+        }
+        for (Map.Entry<Long, CompletableFuture<byte[]>> entry : downloads.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().join());
+        }
+    }
+
+    private static void cancel(Map<Long, CompletableFuture<byte[]>> downloads) {
+        downloads.values().forEach(download -> download.cancel(true));
+    }
+
+    public RangeReadScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Sets the scheduler the range requests of this reader are issued through, the default one is used otherwise.
+     */
+    public void setScheduler(RangeReadScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy used to retry failed range requests, the default one is used otherwise.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Sets the policy used to hedge slow range requests, the default one is used otherwise.
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    public RangeReadListener getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Sets the listener receiving the events of this reader, the {@link RangeReadStatistics#DEFAULT} statistics by
+     * default.
+     */
+    public void setStatistics(RangeReadListener statistics) {
+        this.statistics = statistics;
+    }
+
     @Override
     public void setHeaderLength(int headerLength) {
         this.headerLength = headerLength;
@@ -135,8 +430,109 @@ public abstract class AbstractRangeReader implements RangeReader {
         return headerOffset + headerLength;
     }
 
+    @Override
+    public String getVersion() {
+        revalidateIfStale();
+        return VERSIONS_CACHE.get(uri.toString());
+    }
+
+    /**
+     * Records the version of the resource, as returned while reading its header.
+     *
+     * @param version the ETag or Last-Modified value of the resource, ignored if null
+     */
+    protected void setVersion(String version) {
+        if (version != null) {
+            VERSIONS_CACHE.put(uri.toString(), version);
+            VALIDATION_TIMES.put(uri.toString(), System.currentTimeMillis());
+        }
+    }
+
+    public long getRevalidationInterval() {
+        return revalidationInterval;
+    }
+
+    /**
+     * Sets how long a cached header is used before checking that the resource has not changed.
+     *
+     * @param revalidationInterval the interval in milliseconds, negative to never revalidate
+     */
+    public void setRevalidationInterval(long revalidationInterval) {
+        this.revalidationInterval = revalidationInterval;
+    }
+
+    /**
+     * Returns the cached header of the resource, revalidating it first if older than the revalidation interval.
+     *
+     * @return the cached header, or null if not cached or if the resource changed
+     */
+    protected byte[] getCachedHeader() {
+        revalidateIfStale();
+        byte[] header = HEADERS_CACHE.get(uri.toString());
+        if (header != null) {
+            statistics.cacheHit(RangeReadStatistics.TIER_HEADERS);
+        } else {
+            statistics.cacheMiss(RangeReadStatistics.TIER_HEADERS);
+        }
+        return header;
+    }
+
+    /**
+     * Checks that the resource has not changed if its version was last validated before the revalidation interval,
+     * dropping the cached header and version otherwise.
+     */
+    protected void revalidateIfStale() {
+        if (revalidationInterval < 0) {
+            return;
+        }
+        String key = uri.toString();
+        String version = VERSIONS_CACHE.get(key);
+        if (version == null) {
+            // nothing to compare with, the header will be read again if not cached
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Long validated = VALIDATION_TIMES.get(key);
+        if (validated != null && now - validated < revalidationInterval) {
+            return;
+        }
+        // a single reader revalidates, the others keep using the cached header meanwhile
+        boolean owner = validated == null ? VALIDATION_TIMES.putIfAbsent(key, now) == null
+                : VALIDATION_TIMES.replace(key, validated, now);
+        if (!owner) {
+            return;
+        }
+        String current;
+        try {
+            current = revalidate(version);
+        } catch (RuntimeException e) {
+            LOGGER.fine("Unable to revalidate " + uri + ", using the cached header: " + e);
+            return;
+        }
+        if (current != null && !current.equals(version)) {
+            LOGGER.fine(uri + " changed from version " + version + " to " + current + ", dropping the cached header");
+            HEADERS_CACHE.remove(key);
+            VERSIONS_CACHE.remove(key);
+            VALIDATION_TIMES.remove(key);
+            data.clear();
+        }
+    }
+
+    /**
+     * Returns the current version of the resource, possibly with a conditional request on the provided version.
+     * The default implementation can't tell, and returns null.
+     *
+     * @param version the cached version of the resource
+     * @return the current version of the resource, or null if unknown
+     */
+    protected String revalidate(String version) {
+        return null;
+    }
+
     public static void invalidateCache() {
         HEADERS_CACHE.clear();
+        VERSIONS_CACHE.clear();
+        VALIDATION_TIMES.clear();
     }
 }
 
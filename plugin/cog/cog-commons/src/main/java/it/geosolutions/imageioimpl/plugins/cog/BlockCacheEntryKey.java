@@ -0,0 +1,73 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.io.Serializable;
+
+/**
+ * A simple cache key for fixed size blocks of bytes requiring the image URL and the block index.
+ */
+public class BlockCacheEntryKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String url;
+    private long blockIndex;
+
+    public BlockCacheEntryKey(String url, long blockIndex) {
+        this.url = url;
+        this.blockIndex = blockIndex;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getBlockIndex() {
+        return blockIndex;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BlockCacheEntry[url: %s, block index: %d]", url, blockIndex);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        BlockCacheEntryKey that = (BlockCacheEntryKey) o;
+
+        if (!url.equals(that.url) || blockIndex != that.blockIndex) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = url.hashCode();
+        result = 31 * result + (int) (blockIndex ^ (blockIndex >>> 32));
+        return result;
+    }
+
+}
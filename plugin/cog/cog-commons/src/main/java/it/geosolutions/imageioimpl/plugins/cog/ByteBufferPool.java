@@ -0,0 +1,140 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of {@link ByteBuffer}s holding fetched ranges, so that busy readers recycle the same memory instead of
+ * allocating new arrays for each range.  Buffers are pooled by size class, in powers of two, and handed out as
+ * {@link RangeBuffer}s which return to the pool once released.  Buffers larger than the maximum pooled buffer size are
+ * allocated on demand and left to the garbage collector.
+ *
+ * The default pool can be configured through the following system properties:
+ * <ul>
+ *     <li>it.geosolutions.cog.buffer.direct: allocates direct buffers, outside of the heap (default false)</li>
+ *     <li>it.geosolutions.cog.buffer.pool.size: maximum number of bytes kept by the pool (default 64MB)</li>
+ *     <li>it.geosolutions.cog.buffer.pool.maxbuffer: maximum size of a pooled buffer (default 4MB)</li>
+ * </ul>
+ */
+public class ByteBufferPool {
+
+    public static final String DIRECT_KEY = "it.geosolutions.cog.buffer.direct";
+    public static final String POOL_SIZE_KEY = "it.geosolutions.cog.buffer.pool.size";
+    public static final String MAX_BUFFER_SIZE_KEY = "it.geosolutions.cog.buffer.pool.maxbuffer";
+
+    /** The smallest size class, smaller buffers are not worth pooling */
+    static final int MIN_SIZE_CLASS = 12;
+
+    public static final ByteBufferPool DEFAULT = new ByteBufferPool(
+            Boolean.getBoolean(DIRECT_KEY),
+            Long.getLong(POOL_SIZE_KEY, 64L * 1024 * 1024),
+            Integer.getInteger(MAX_BUFFER_SIZE_KEY, 4 * 1024 * 1024));
+
+    private final boolean direct;
+    private final long maxPooledBytes;
+    private final int maxBufferSize;
+    /** The free buffers, by size class */
+    private final List<ConcurrentLinkedDeque<ByteBuffer>> free;
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    /**
+     * @param direct true to allocate direct buffers
+     * @param maxPooledBytes the maximum number of bytes kept by the pool
+     * @param maxBufferSize the maximum size of a pooled buffer
+     */
+    public ByteBufferPool(boolean direct, long maxPooledBytes, int maxBufferSize) {
+        this.direct = direct;
+        this.maxPooledBytes = maxPooledBytes;
+        this.maxBufferSize = Math.max(1 << MIN_SIZE_CLASS, maxBufferSize);
+        this.free = new ArrayList<>(32);
+        for (int i = 0; i < 32; i++) {
+            free.add(new ConcurrentLinkedDeque<>());
+        }
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Returns the number of bytes currently kept by the pool, waiting to be reused.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Returns a buffer of the provided length, to be filled through {@link RangeBuffer#getWritableBuffer()}.  The
+     * content of a recycled buffer is not cleared.
+     *
+     * @param length the length of the buffer
+     * @return a buffer holding a single reference
+     */
+    public RangeBuffer acquire(int length) {
+        if (length > maxBufferSize) {
+            return new RangeBuffer(allocate(length), (ByteBufferPool) null);
+        }
+        int sizeClass = sizeClass(length);
+        ByteBuffer buffer = free.get(sizeClass).pollFirst();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            buffer.clear();
+        } else {
+            buffer = allocate(1 << sizeClass);
+        }
+        buffer.limit(length);
+        return new RangeBuffer(buffer, this);
+    }
+
+    /**
+     * Returns a released buffer to the pool, unless the pool is full.
+     */
+    void recycle(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+        free.get(sizeClass(capacity)).offerFirst(buffer);
+    }
+
+    /**
+     * Drops all the pooled buffers.
+     */
+    public void clear() {
+        for (ConcurrentLinkedDeque<ByteBuffer> buffers : free) {
+            ByteBuffer buffer;
+            while ((buffer = buffers.pollFirst()) != null) {
+                pooledBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int sizeClass(int length) {
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(1, length) - 1);
+        return Math.max(MIN_SIZE_CLASS, sizeClass);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Computes the exact number of bytes needed to parse all the IFDs of a (Big)TIFF, including the out of line tag
+ * values such as the TileOffsets and TileByteCounts arrays, from the first bytes of the file.  This allows fetching
+ * the whole COG header with one or two requests, instead of repeatedly extending a guessed header length.
+ *
+ * The GDAL_STRUCTURAL_METADATA ghost area written by GDAL after the TIFF header is inspected too: when it declares
+ * the IFDS_BEFORE_DATA layout, all the IFDs and their values are known to precede the imagery, so the computed span
+ * is fetched up to {@link #MAX_HEADER_LENGTH}.  For other layouts the values might be scattered across the file, so
+ * the header is only extended if the span doesn't exceed {@link #MAX_UNKNOWN_LAYOUT_HEADER_LENGTH}.
+ */
+public final class CogHeaderPlanner {
+
+    public static final String MAX_HEADER_LENGTH_KEY = "it.geosolutions.cog.header.maxlength";
+    public static final String MAX_UNKNOWN_LAYOUT_HEADER_LENGTH_KEY = "it.geosolutions.cog.header.unknownlayout.maxlength";
+
+    /** Maximum header length for COGs declaring the IFDS_BEFORE_DATA layout */
+    public static final long MAX_HEADER_LENGTH = Long.getLong(MAX_HEADER_LENGTH_KEY, 64L * 1024 * 1024);
+
+    /** Maximum header length for TIFFs without GDAL structural metadata */
+    public static final long MAX_UNKNOWN_LAYOUT_HEADER_LENGTH =
+            Long.getLong(MAX_UNKNOWN_LAYOUT_HEADER_LENGTH_KEY, 1024L * 1024);
+
+    static final String GHOST_AREA_KEY = "GDAL_STRUCTURAL_METADATA_SIZE=";
+    static final String IFDS_BEFORE_DATA = "LAYOUT=IFDS_BEFORE_DATA";
+
+    /** Number of entries assumed for an IFD whose entry count has not been read yet */
+    private static final int GUESSED_ENTRIES = 32;
+
+    /** Maximum number of extension requests */
+    private static final int MAX_ROUNDS = 8;
+
+    /** Maximum number of IFDs walked, guards against cycles in corrupted files */
+    private static final int MAX_IFDS = 65536;
+
+    // sizes of the TIFF field types, indexed by type
+    private static final int[] TYPE_SIZES = {0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4, 0, 0, 8, 8, 8};
+
+    private final static Logger LOGGER = Logger.getLogger(CogHeaderPlanner.class.getName());
+
+    private CogHeaderPlanner() {
+    }
+
+    /**
+     * Extends the provided header bytes until all the IFDs and their tag values are available.
+     *
+     * @param header the bytes read from the beginning of the file
+     * @param reader reads the bytes between the start and end (inclusive) positions of the provided range
+     * @return the complete header, or the provided one if it's already complete or can't be completed within the
+     *         configured limits
+     */
+    public static byte[] completeHeader(byte[] header, Function<long[], byte[]> reader) {
+        long maxLength = isIfdsBeforeData(header) ? MAX_HEADER_LENGTH : MAX_UNKNOWN_LAYOUT_HEADER_LENGTH;
+        for (int round = 0; round < MAX_ROUNDS; round++) {
+            long required = requiredLength(header);
+            if (required <= header.length) {
+                break;
+            }
+            if (required > maxLength) {
+                LOGGER.fine("Not extending the header to " + required + " bytes, exceeding the limit of "
+                        + maxLength + " bytes");
+                break;
+            }
+            LOGGER.fine("Extending the header from " + header.length + " to " + required + " bytes");
+            byte[] extension = reader.apply(new long[]{header.length, required - 1});
+            if (extension == null || extension.length == 0) {
+                break;
+            }
+            byte[] extended = new byte[header.length + extension.length];
+            System.arraycopy(header, 0, extended, 0, header.length);
+            System.arraycopy(extension, 0, extended, header.length, extension.length);
+            header = extended;
+            if (header.length < required) {
+                // end of file
+                break;
+            }
+        }
+        return header;
+    }
+
+    /**
+     * Returns true if the header holds a GDAL structural metadata ghost area declaring that all the IFDs are
+     * located before the imagery.
+     */
+    public static boolean isIfdsBeforeData(byte[] header) {
+        Boolean bigTiff = isBigTiff(header);
+        if (bigTiff == null) {
+            return false;
+        }
+        int start = bigTiff ? 16 : 8;
+        int keyLength = GHOST_AREA_KEY.length();
+        if (header.length < start + keyLength + 6) {
+            return false;
+        }
+        String key = new String(header, start, keyLength, StandardCharsets.US_ASCII);
+        if (!GHOST_AREA_KEY.equals(key)) {
+            return false;
+        }
+        int size;
+        try {
+            size = Integer.parseInt(new String(header, start + keyLength, 6, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        // skip the " bytes\n" suffix
+        int contentStart = start + keyLength + 6 + 7;
+        int contentLength = Math.min(size, header.length - contentStart);
+        if (contentLength <= 0) {
+            return false;
+        }
+        String content = new String(header, contentStart, contentLength, StandardCharsets.US_ASCII);
+        return content.contains(IFDS_BEFORE_DATA);
+    }
+
+    /**
+     * Walks the IFD chain and returns the number of bytes, from the beginning of the file, needed to parse all the
+     * IFDs and their out of line tag values.  If some IFDs can't be reached with the provided bytes, the returned
+     * length covers at least the next structure to be parsed, so that the computation can be refined once the
+     * missing bytes are available.
+     *
+     * @param header the bytes read from the beginning of the file
+     * @return the required length, or the length of the provided header if it's not a TIFF header
+     */
+    public static long requiredLength(byte[] header) {
+        Boolean bigTiff = isBigTiff(header);
+        if (bigTiff == null) {
+            return header.length;
+        }
+        boolean littleEndian = header[0] == 'I';
+        int countSize = bigTiff ? 8 : 2;
+        int entrySize = bigTiff ? 20 : 12;
+        int offsetSize = bigTiff ? 8 : 4;
+
+        long required = bigTiff ? 16 : 8;
+        if (header.length < required) {
+            return required;
+        }
+        long ifd = bigTiff ? readLong(header, 8, littleEndian) : readInt(header, 4, littleEndian);
+        Set<Long> visited = new HashSet<>();
+        while (ifd > 0 && visited.size() < MAX_IFDS && visited.add(ifd)) {
+            if (ifd + countSize > header.length) {
+                return Math.max(required, ifd + countSize + GUESSED_ENTRIES * entrySize + offsetSize);
+            }
+            long entries = bigTiff ? readLong(header, (int) ifd, littleEndian)
+                    : readShort(header, (int) ifd, littleEndian);
+            long ifdEnd = ifd + countSize + entries * entrySize + offsetSize;
+            required = Math.max(required, ifdEnd);
+            if (ifdEnd > header.length) {
+                return required;
+            }
+            for (int i = 0; i < entries; i++) {
+                int entry = (int) (ifd + countSize + i * entrySize);
+                int type = readShort(header, entry + 2, littleEndian);
+                long count = bigTiff ? readLong(header, entry + 4, littleEndian)
+                        : readInt(header, entry + 4, littleEndian);
+                int typeSize = type < TYPE_SIZES.length ? TYPE_SIZES[type] : 0;
+                long valueSize = count * typeSize;
+                if (valueSize > offsetSize) {
+                    long valueOffset = bigTiff ? readLong(header, entry + 4 + offsetSize, littleEndian)
+                            : readInt(header, entry + 4 + offsetSize, littleEndian);
+                    required = Math.max(required, valueOffset + valueSize);
+                }
+            }
+            int next = (int) (ifdEnd - offsetSize);
+            ifd = bigTiff ? readLong(header, next, littleEndian) : readInt(header, next, littleEndian);
+        }
+        return required;
+    }
+
+    /**
+     * Returns true for BigTIFF, false for classic TIFF, null if the bytes are not a TIFF header.
+     */
+    private static Boolean isBigTiff(byte[] header) {
+        if (header == null || header.length < 4) {
+            return null;
+        }
+        boolean littleEndian;
+        if (header[0] == 'I' && header[1] == 'I') {
+            littleEndian = true;
+        } else if (header[0] == 'M' && header[1] == 'M') {
+            littleEndian = false;
+        } else {
+            return null;
+        }
+        int magic = readShort(header, 2, littleEndian);
+        if (magic == 42) {
+            return false;
+        } else if (magic == 43) {
+            return true;
+        }
+        return null;
+    }
+
+    private static int readShort(byte[] b, int offset, boolean littleEndian) {
+        int b0 = b[offset] & 0xff;
+        int b1 = b[offset + 1] & 0xff;
+        return littleEndian ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static long readInt(byte[] b, int offset, boolean littleEndian) {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            int shift = littleEndian ? 8 * i : 8 * (3 - i);
+            value |= (long) (b[offset + i] & 0xff) << shift;
+        }
+        return value;
+    }
+
+    private static long readLong(byte[] b, int offset, boolean littleEndian) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            int shift = littleEndian ? 8 * i : 8 * (7 - i);
+            value |= (long) (b[offset + i] & 0xff) << shift;
+        }
+        return value;
+    }
+}
@@ -19,6 +19,8 @@ package it.geosolutions.imageioimpl.plugins.cog;
 import it.geosolutions.imageio.plugins.cog.CogImageReadParam;
 
 import javax.imageio.stream.ImageInputStream;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * This interface provides important methods for ImageInputStream implementations that wish to use the CogImageReader.
@@ -41,6 +43,40 @@ public interface CogImageInputStream extends ImageInputStream {
      */
     void readRanges(CogTileInfo cogTileInfo);
 
+    /**
+     * Instructs the input stream to read the ranges for the requested tiles, composing the range requests according
+     * to the settings of the provided `CogImageReadParam`.
+     */
+    default void readRanges(CogTileInfo cogTileInfo, CogImageReadParam param) {
+        readRanges(cogTileInfo);
+    }
+
+    /**
+     * Issues the reads of the ranges for the requested tiles without waiting for them.  Once the returned future
+     * completes, the tiles can be read from the stream without blocking on the network.
+     * <p>
+     * The default implementation performs a blocking {@link #readRanges(CogTileInfo, CogImageReadParam)}, returning a
+     * completed future.
+     *
+     * @return a future completing once the ranges of all the requested tiles are available
+     */
+    default CompletableFuture<Void> readRangesAsync(CogTileInfo cogTileInfo, CogImageReadParam param) {
+        readRanges(cogTileInfo, param);
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Asynchronously fetches the provided ranges, holding tiles likely to be read next, into the cache backing the
+     * stream.  The fetched bytes are not made available to the current read.  Streams not backed by a shared cache
+     * ignore the request.
+     *
+     * @param ranges the start/end byte locations of the tiles to be read ahead
+     * @return a future completing once the ranges have been cached, which can be cancelled to stop the read-ahead
+     */
+    default CompletableFuture<Void> prefetchRanges(Collection<long[]> ranges) {
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Makes available the `CogTileInfo` object, responsible for holding all location information for requested tiles.
      *
@@ -69,4 +105,14 @@ public interface CogImageInputStream extends ImageInputStream {
      */
     boolean isInitialized();
 
+    /**
+     * Returns a key identifying the content of the COG read by this stream, made of its URI and, when known, the
+     * version of the resource reported by the `RangeReader`.  Allows sharing the parsed COG metadata among readers.
+     *
+     * @return the content key, or null if the stream has not been initialized
+     */
+    default String getContentKey() {
+        return null;
+    }
+
 }
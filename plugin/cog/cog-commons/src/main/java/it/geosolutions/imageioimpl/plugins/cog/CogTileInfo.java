@@ -46,7 +46,8 @@ public class CogTileInfo {
     }
 
     /**
-     * Adds a new TileRange to the map.
+     * Adds a new TileRange to the map.  Empty tiles, having no bytes as in sparse COGs, are skipped since there is
+     * nothing to read for them.
      *
      * @param tileIndex The index of the tile
      * @param offset The byte offset of the tile
@@ -54,6 +55,9 @@ public class CogTileInfo {
      * @return The created TileRange
      */
     public TileRange addTileRange(int tileIndex, long offset, long byteLength) {
+        if (byteLength <= 0) {
+            return null;
+        }
         checkHeaderSize(offset);
         return tileRanges.put(tileIndex, new TileRange(tileIndex, offset, byteLength));
     }
@@ -16,14 +16,24 @@
  */
 package it.geosolutions.imageioimpl.plugins.cog;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 /**
  * Utility class to examine all COG tiles that need to be read for the current request and build a list of ranges
  * tiles that are in a contiguous sequence.
  *
+ * Tiles separated by a gap smaller than the configured maximum gap are merged too: reading a few unneeded bytes
+ * (e.g. padding or GDAL ghost leaders/trailers between tiles) is cheaper than paying the latency of an additional
+ * request.  Merged ranges are kept below a maximum length, so that large reads are split, on tile boundaries, into
+ * chunks that can be fetched in parallel.  Finally, if the number of ranges exceeds the maximum number of requests
+ * per read, the ranges separated by the smallest gaps are merged until the cap is honored, minimizing the amount
+ * of over-fetched bytes.
+ *
  * @author joshfix
  * Created on 2019-08-27
  */
@@ -32,54 +42,135 @@ public class ContiguousRangeComposer {
     protected long currentRangeStart;
     protected long currentRangeEnd;
     protected boolean tileAdded = false;
-    protected Set<long[]> ranges = new HashSet<>();
+    protected List<long[]> tileRanges = new ArrayList<>();
+    protected long maxGap;
+    protected long maxRangeLength;
+    protected int maxRequests;
 
     /**
-     * we don't add the initial start/end range immediately.  instead, we will wait until the next range is added
-     * and compare it's start position with the current end position.  if it's contiguous, we extend the end range
-     * by the byte count of the added tile.  if it's not, we add the current start/end as a range.
+     * Creates a composer merging only strictly contiguous ranges, without any limit on the range length or on the
+     * number of ranges.
      * @param initialRangeStart start byte location of the tile
      * @param initialRangeEnd end byte location of the tile
      */
     public ContiguousRangeComposer(long initialRangeStart, long initialRangeEnd) {
+        this(initialRangeStart, initialRangeEnd, 0, Long.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param initialRangeStart start byte location of the tile
+     * @param initialRangeEnd end byte location of the tile
+     * @param maxGap the maximum number of bytes between two ranges for them to be merged
+     * @param maxRangeLength the maximum length of a range built by merging several tiles
+     * @param maxRequests the maximum number of ranges to be returned
+     */
+    public ContiguousRangeComposer(long initialRangeStart, long initialRangeEnd, long maxGap, long maxRangeLength,
+                                   int maxRequests) {
         currentRangeStart = initialRangeStart;
         currentRangeEnd = initialRangeEnd;
+        this.maxGap = Math.max(0, maxGap);
+        this.maxRangeLength = maxRangeLength > 0 ? maxRangeLength : Long.MAX_VALUE;
+        this.maxRequests = maxRequests > 0 ? maxRequests : Integer.MAX_VALUE;
+        tileRanges.add(new long[]{initialRangeStart, initialRangeEnd});
     }
 
     /**
-     * Accepts a start and end byte position and determines if the start position directly follows the current range
-     * end position.  If true, the range end will be extended.  If false, the current range will be added to the list
-     * of ranges and a new current range start/end will be established.
+     * Accepts the start and end byte position of a tile to be read.  The tiles are merged into ranges once all of them
+     * have been collected, when {@link #getRanges()} is called.  Empty tiles, ending before their start position,
+     * are ignored.
      *
      * @param start the start byte position
      * @param end the end byte position
      */
     public void addTileRange(long start, long end) {
-        tileAdded = true;
-
-        if (start == currentRangeEnd + 1) {
-            // this tile starts where the last one left off
-            currentRangeEnd = end;
-        } else {
-            // this tile is in a new position.  add the current range and start a new one.
-            ranges.add(new long[]{currentRangeStart, currentRangeEnd});
-            currentRangeStart = start;
-            currentRangeEnd = end;
+        if (end < start) {
+            return;
         }
+        tileAdded = true;
+        tileRanges.add(new long[]{start, end});
     }
 
     /**
-     * Returns the set of ranges.  Note that the addTileRange method only adds a range to the list if the range was not
-     * contiguous
+     * Returns the set of ranges, sorted by start position.  Note that the initial range is returned only if at least
+     * one tile range has been added.
      * @return
      */
     public Set<long[]> getRanges() {
-        if (tileAdded) {
-            Set<long[]> rangeCopy = new HashSet<>(ranges);
-            rangeCopy.add(new long[]{currentRangeStart, currentRangeEnd});
-            return rangeCopy;
+        if (!tileAdded) {
+            return Collections.EMPTY_SET;
+        }
+
+        List<long[]> sorted = new ArrayList<>(tileRanges);
+        sorted.sort((r1, r2) -> Long.compare(r1[0], r2[0]));
+
+        List<long[]> ranges = new ArrayList<>();
+        currentRangeStart = sorted.get(0)[0];
+        currentRangeEnd = sorted.get(0)[1];
+        for (int i = 1; i < sorted.size(); i++) {
+            long start = sorted.get(i)[0];
+            long end = sorted.get(i)[1];
+            long mergedEnd = Math.max(currentRangeEnd, end);
+            if (start <= currentRangeEnd + 1 + maxGap && mergedEnd - currentRangeStart + 1 <= maxRangeLength) {
+                // this tile starts where the last one left off, or close enough to it
+                currentRangeEnd = mergedEnd;
+            } else {
+                // this tile is in a new position.  add the current range and start a new one.
+                ranges.add(new long[]{currentRangeStart, currentRangeEnd});
+                currentRangeStart = start;
+                currentRangeEnd = end;
+            }
         }
+        ranges.add(new long[]{currentRangeStart, currentRangeEnd});
+
+        capRequests(ranges);
+        return new LinkedHashSet<>(ranges);
+    }
 
-        return Collections.EMPTY_SET;
+    /**
+     * Merges the ranges separated by the smallest gaps until the number of ranges doesn't exceed the maximum number
+     * of requests.  Among equal gaps, the first one is merged first.
+     *
+     * @param ranges the ranges, sorted by start position
+     */
+    protected void capRequests(List<long[]> ranges) {
+        int count = ranges.size();
+        if (count <= maxRequests) {
+            return;
+        }
+        // the ranges still standing are linked in order, the gaps between them sorted in a heap of
+        // {gap, range, next range} entries, the ones referring to ranges merged in the meantime are skipped
+        int[] next = new int[count];
+        boolean[] merged = new boolean[count];
+        PriorityQueue<long[]> gaps = new PriorityQueue<>(count, (g1, g2) -> g1[0] != g2[0]
+                ? Long.compare(g1[0], g2[0]) : Long.compare(g1[1], g2[1]));
+        for (int i = 0; i < count - 1; i++) {
+            next[i] = i + 1;
+            gaps.add(new long[]{ranges.get(i + 1)[0] - ranges.get(i)[1], i, i + 1});
+        }
+        next[count - 1] = -1;
+        while (count > maxRequests) {
+            long[] gap = gaps.poll();
+            int merge = (int) gap[1];
+            int following = (int) gap[2];
+            if (merged[merge] || next[merge] != following) {
+                continue;
+            }
+            long[] range = ranges.get(merge);
+            range[1] = Math.max(range[1], ranges.get(following)[1]);
+            merged[following] = true;
+            next[merge] = next[following];
+            if (next[merge] >= 0) {
+                gaps.add(new long[]{ranges.get(next[merge])[0] - range[1], merge, next[merge]});
+            }
+            count--;
+        }
+        List<long[]> capped = new ArrayList<>(count);
+        for (int i = 0; i < merged.length; i++) {
+            if (!merged[i]) {
+                capped.add(ranges.get(i));
+            }
+        }
+        ranges.clear();
+        ranges.addAll(capped);
     }
 }
@@ -0,0 +1,347 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import it.geosolutions.imageio.core.BasicAuthURI;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * RangeReader implementation for COGs stored on a local (or network mounted) file system, addressed by file URIs.
+ * Ranges are served with positional reads on a {@link FileChannel}, which don't move any shared file pointer and can
+ * thus run concurrently, or copied from a memory mapping of the whole file when enabled through the
+ * <code>it.geosolutions.cog.file.mmap</code> system property or {@link #setMemoryMapped(boolean)}.
+ *
+ * When read as buffers, ranges are served as views over the memory mapping, or read into buffers recycled from a
+ * {@link ByteBufferPool}, without allocating new arrays.
+ *
+ * All the reads share a single channel, opened on the first read and released by {@link #close()}.  Reading again
+ * after closing reopens it.
+ */
+public class FileRangeReader extends AbstractRangeReader implements Closeable {
+
+    public static final String MEMORY_MAPPED_KEY = "it.geosolutions.cog.file.mmap";
+
+    public static final boolean DEFAULT_MEMORY_MAPPED = Boolean.getBoolean(MEMORY_MAPPED_KEY);
+
+    private final static Logger LOGGER = Logger.getLogger(FileRangeReader.class.getName());
+
+    protected final Path path;
+    protected boolean memoryMapped = DEFAULT_MEMORY_MAPPED;
+    protected ByteBufferPool bufferPool = ByteBufferPool.DEFAULT;
+    private volatile MappedByteBuffer mapping;
+    private volatile FileChannel sharedChannel;
+
+    /** A read performed on the channel of this reader */
+    private interface ChannelRead<T> {
+        T read(FileChannel channel) throws IOException;
+    }
+
+    public FileRangeReader(String url, int headerLength) {
+        this(URI.create(url), headerLength);
+    }
+
+    public FileRangeReader(URL url, int headerLength) {
+        this(URI.create(url.toString()), headerLength);
+    }
+
+    public FileRangeReader(URI uri, int headerLength) {
+        this(new BasicAuthURI(uri), headerLength);
+    }
+
+    public FileRangeReader(BasicAuthURI uri, int headerLength) {
+        super(uri, headerLength);
+        this.path = Paths.get(this.uri);
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Enables serving the ranges from a memory mapping of the whole file, avoiding a system call per range.  Files
+     * larger than 2GB are always read with positional reads.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    @Override
+    public Map<Long, byte[]> read(Collection<long[]> ranges) {
+        return read(ranges.toArray(new long[][]{}));
+    }
+
+    @Override
+    public Map<Long, byte[]> read(long[]... ranges) {
+        ranges = reconcileRanges(ranges);
+        Map<Long, byte[]> values = new HashMap<>(ranges.length);
+        if (ranges.length == 0) {
+            return values;
+        }
+        try {
+            for (long[] range : ranges) {
+                long start = System.nanoTime();
+                byte[] bytes = readChannel(channel -> read(channel, range[0], (int) (range[1] - range[0] + 1)));
+                statistics.rangeFetched(uri.getHost(), bytes.length, System.nanoTime() - start);
+                values.put(range[0], bytes);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read ranges from " + uri, e);
+        }
+        statistics.readCompleted(ranges.length);
+        return values;
+    }
+
+    /**
+     * Sets the pool the buffers returned by {@link #readBuffers(Collection)} are taken from.
+     */
+    public void setBufferPool(ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public Map<Long, RangeBuffer> readBuffers(Collection<long[]> ranges) {
+        long[][] reconciled = reconcileRanges(ranges.toArray(new long[][]{}));
+        Map<Long, RangeBuffer> values = new HashMap<>(reconciled.length);
+        if (reconciled.length == 0) {
+            return values;
+        }
+        try {
+            for (long[] range : reconciled) {
+                int length = (int) (range[1] - range[0] + 1);
+                values.put(range[0], readChannel(channel -> readBuffer(channel, range[0], length)));
+            }
+        } catch (IOException e) {
+            values.values().forEach(RangeBuffer::release);
+            throw new RuntimeException("Failed to read ranges from " + uri, e);
+        }
+        return values;
+    }
+
+    /**
+     * Reads up to length bytes at the provided position into a buffer, less if the end of the file is reached.
+     */
+    protected RangeBuffer readBuffer(FileChannel channel, long position, int length) throws IOException {
+        long size = channel.size();
+        if (position >= size) {
+            return RangeBuffer.wrap(new byte[0]);
+        }
+        length = (int) Math.min(length, size - position);
+        MappedByteBuffer mapped = getMapping(channel);
+        if (mapped != null) {
+            ByteBuffer slice = mapped.duplicate();
+            slice.position((int) position);
+            slice.limit((int) position + length);
+            return RangeBuffer.wrap(slice);
+        }
+        RangeBuffer range = bufferPool.acquire(length);
+        ByteBuffer buffer = range.getWritableBuffer();
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    // the file shrunk meanwhile
+                    RangeBuffer truncated = range.slice(0, buffer.position());
+                    range.release();
+                    return truncated;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            range.release();
+            throw e;
+        }
+        return range;
+    }
+
+    /**
+     * Local reads are fast enough not to be worth a thread hand-off, the returned future is already completed.
+     */
+    @Override
+    protected CompletableFuture<byte[]> readAsync(long[] range) {
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        try {
+            future.complete(readChannel(channel -> read(channel, range[0], (int) (range[1] - range[0] + 1))));
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Reads up to length bytes at the provided position, less if the end of the file is reached.
+     */
+    protected byte[] read(FileChannel channel, long position, int length) throws IOException {
+        long size = channel.size();
+        if (position >= size) {
+            return new byte[0];
+        }
+        length = (int) Math.min(length, size - position);
+        byte[] bytes = new byte[length];
+        MappedByteBuffer mapped = getMapping(channel);
+        if (mapped != null) {
+            ByteBuffer slice = mapped.duplicate();
+            slice.position((int) position);
+            slice.get(bytes);
+            return bytes;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.position() == length ? bytes : Arrays.copyOf(bytes, buffer.position());
+    }
+
+    /**
+     * Performs a read on the shared channel.  A read interrupted in another thread closes the channel for all the
+     * reads in flight: unless interrupted too, they are performed again on a new channel.
+     */
+    private <T> T readChannel(ChannelRead<T> read) throws IOException {
+        try {
+            return read.read(getChannel());
+        } catch (ClosedChannelException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw e;
+            }
+            return read.read(getChannel());
+        }
+    }
+
+    /**
+     * Returns the channel shared by the reads of this reader, opening it if needed.
+     */
+    protected FileChannel getChannel() throws IOException {
+        FileChannel current = sharedChannel;
+        if (current == null || !current.isOpen()) {
+            synchronized (this) {
+                current = sharedChannel;
+                if (current == null || !current.isOpen()) {
+                    sharedChannel = current = FileChannel.open(path, StandardOpenOption.READ);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Closes the channel shared by the reads, the reads in flight are performed again on a new channel.
+     */
+    @Override
+    public void close() throws IOException {
+        FileChannel current;
+        synchronized (this) {
+            current = sharedChannel;
+            sharedChannel = null;
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    private MappedByteBuffer getMapping(FileChannel channel) throws IOException {
+        if (!memoryMapped) {
+            return null;
+        }
+        MappedByteBuffer mapped = mapping;
+        long size = channel.size();
+        if (mapped == null || mapped.capacity() != size) {
+            if (size > Integer.MAX_VALUE) {
+                return null;
+            }
+            synchronized (this) {
+                mapped = mapping;
+                if (mapped == null || mapped.capacity() != size) {
+                    LOGGER.fine("Mapping " + size + " bytes of " + path);
+                    mapping = mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                }
+            }
+        }
+        return mapped;
+    }
+
+    @Override
+    public byte[] readHeader() {
+        LOGGER.fine("reading header");
+        byte[] currentHeader = getCachedHeader();
+
+        if (currentHeader != null) {
+            return currentHeader;
+        }
+        try {
+            byte[] headerBytes = readChannel(channel -> read(channel, headerOffset, headerLength));
+            setVersion(getFileVersion());
+            headerBytes = completeHeader(headerBytes);
+            data.put(0L, headerBytes);
+            HEADERS_CACHE.put(uri.toString(), headerBytes);
+            return headerBytes;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read header for " + uri, e);
+        }
+    }
+
+    /**
+     * Local files are revalidated by checking their size and last modification time.
+     */
+    @Override
+    protected String revalidate(String version) {
+        return getFileVersion();
+    }
+
+    private String getFileVersion() {
+        File file = path.toFile();
+        return file.length() + "-" + file.lastModified();
+    }
+
+    @Override
+    public byte[] fetchHeader() {
+        LOGGER.fine("Fetching header");
+        byte[] currentHeader = data.get(0L);
+        if (currentHeader != null) {
+            headerOffset = currentHeader.length;
+        }
+        try {
+            byte[] headerBytes = readChannel(channel -> read(channel, headerOffset, headerLength));
+            if (headerOffset != 0) {
+                byte[] newHeader = new byte[headerBytes.length + currentHeader.length];
+                System.arraycopy(currentHeader, 0, newHeader, 0, currentHeader.length);
+                System.arraycopy(headerBytes, 0, newHeader, currentHeader.length, headerBytes.length);
+                headerBytes = newHeader;
+            }
+            data.put(0L, headerBytes);
+            return headerBytes;
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to read header for " + uri, e);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Hedges asynchronous range requests to cut the tail latency of object stores: when a request takes longer than
+ * a percentile of the latencies recently observed for the same host, a duplicate request is issued, the first
+ * response is taken and the other request is cancelled.  Since the latency grows with the size of the range, the
+ * latencies are tracked separately for each size class (powers of 4 bytes), so that a large range isn't hedged
+ * for taking longer than the small ones, nor a small one left waiting as long as the large ones.
+ *
+ * The number of hedged requests is bounded by a token bucket: each request earns a fraction of a hedge (the
+ * hedge rate), each hedge spends a whole one, and no more than the hedge budget can be accumulated.  Requests
+ * are hedged only once enough latencies have been observed for their host and size class to estimate the
+ * percentile.
+ *
+ * The defaults can be configured through the following system properties:
+ * <ul>
+ *     <li>it.geosolutions.cog.hedge.enabled: enables hedging (default false)</li>
+ *     <li>it.geosolutions.cog.hedge.percentile: latency percentile past which a request is hedged (default 95)</li>
+ *     <li>it.geosolutions.cog.hedge.rate: fraction of the requests that can be hedged (default 0.05)</li>
+ *     <li>it.geosolutions.cog.hedge.budget: maximum number of hedges available in a burst (default 10)</li>
+ * </ul>
+ */
+public class HedgingPolicy {
+
+    public static final String ENABLED_KEY = "it.geosolutions.cog.hedge.enabled";
+    public static final String PERCENTILE_KEY = "it.geosolutions.cog.hedge.percentile";
+    public static final String RATE_KEY = "it.geosolutions.cog.hedge.rate";
+    public static final String BUDGET_KEY = "it.geosolutions.cog.hedge.budget";
+
+    /** The number of latencies observed before the requests of a host and size class get hedged */
+    public static final int MIN_SAMPLES = 20;
+
+    /** The number of most recent latencies the percentile is computed on */
+    static final int WINDOW = 256;
+
+    private static final ScheduledExecutorService HEDGE_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cog-range-hedge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static final HedgingPolicy DEFAULT = new HedgingPolicy(
+            Boolean.getBoolean(ENABLED_KEY),
+            Integer.getInteger(PERCENTILE_KEY, 95),
+            Double.parseDouble(System.getProperty(RATE_KEY, "0.05")),
+            Integer.getInteger(BUDGET_KEY, 10));
+
+    private final static Logger LOGGER = Logger.getLogger(HedgingPolicy.class.getName());
+
+    private final boolean enabled;
+    private final int percentile;
+    private final double rate;
+    private final int budget;
+    private final HedgeTimer timer;
+    private final LongSupplier clock;
+
+    /** The latency trackers, by host and size class */
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    private final AtomicInteger hedged = new AtomicInteger();
+    private double tokens;
+
+    /**
+     * @param enabled false to issue the requests as they are
+     * @param percentile the latency percentile, between 1 and 100, past which a request is hedged
+     * @param rate the fraction of the requests that can be hedged, between 0 and 1
+     * @param budget the maximum number of hedges that can be issued in a burst
+     */
+    public HedgingPolicy(boolean enabled, int percentile, double rate, int budget) {
+        this(enabled, percentile, rate, budget, HEDGE_TIMER::schedule, System::nanoTime);
+    }
+
+    /**
+     * @param enabled false to issue the requests as they are
+     * @param percentile the latency percentile, between 1 and 100, past which a request is hedged
+     * @param rate the fraction of the requests that can be hedged, between 0 and 1
+     * @param budget the maximum number of hedges that can be issued in a burst
+     * @param timer schedules the hedges of the slow requests
+     * @param clock the time source the latencies are measured with, in nanoseconds
+     */
+    public HedgingPolicy(boolean enabled, int percentile, double rate, int budget, HedgeTimer timer,
+                         LongSupplier clock) {
+        this.enabled = enabled;
+        this.percentile = Math.max(1, Math.min(100, percentile));
+        this.rate = Math.max(0, Math.min(1, rate));
+        this.budget = Math.max(0, budget);
+        this.tokens = this.budget;
+        this.timer = timer;
+        this.clock = clock;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getPercentile() {
+        return percentile;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the number of hedged requests issued so far.
+     */
+    public int getHedgedCount() {
+        return hedged.get();
+    }
+
+    /**
+     * Returns the delay, in milliseconds, after which a request of unknown size to the given host gets hedged, or
+     * -1 if not enough latencies have been observed yet.
+     */
+    public long getHedgeDelay(String host) {
+        return getHedgeDelay(host, -1);
+    }
+
+    /**
+     * Returns the delay, in milliseconds, after which a request of the given size to the given host gets hedged,
+     * or -1 if not enough latencies have been observed yet for its size class.
+     *
+     * @param host the host the request is issued to
+     * @param length the number of bytes requested, zero or negative if unknown
+     */
+    public long getHedgeDelay(String host, long length) {
+        LatencyTracker tracker = latencies.get(trackerKey(host, length));
+        return tracker != null ? tracker.percentile(percentile) : -1;
+    }
+
+    /**
+     * Executes the provided asynchronous request of unknown size.
+     *
+     * @see #execute(String, long, Supplier)
+     */
+    public <T> CompletableFuture<T> execute(String host, Supplier<CompletableFuture<T>> request) {
+        return execute(host, -1, request);
+    }
+
+    /**
+     * Executes the provided asynchronous request, issuing its hedge, if any, directly rather than through a scheduler.
+     *
+     * @see #execute(String, long, Supplier, Function)
+     */
+    public <T> CompletableFuture<T> execute(String host, long length, Supplier<CompletableFuture<T>> request) {
+        return execute(host, length, request, Supplier::get);
+    }
+
+    /**
+     * Executes the provided asynchronous request, hedging it if it takes longer than the configured latency
+     * percentile of the requests of the same size class to the host.  The returned future completes with the first
+     * successful response, or exceptionally once all the issued requests have failed.  Cancelling the returned
+     * future cancels all the requests in flight.
+     *
+     * @param host the host the request is issued to
+     * @param length the number of bytes requested, zero or negative if unknown
+     * @param request supplies a new request each time it's invoked
+     * @param hedgeSubmitter issues the hedge, e.g. through a {@link RangeReadScheduler} so that it's subject to the
+     *                       same concurrency limits as the request it duplicates
+     * @return a future completing with the request result
+     */
+    public <T> CompletableFuture<T> execute(String host, long length, Supplier<CompletableFuture<T>> request,
+            Function<Supplier<CompletableFuture<T>>, CompletableFuture<T>> hedgeSubmitter) {
+        if (!enabled) {
+            return request.get();
+        }
+        LatencyTracker tracker = latencies.computeIfAbsent(trackerKey(host, length), k -> new LatencyTracker());
+        earnToken();
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(1);
+        issue(request, Supplier::get, tracker, pending, result);
+        long delay = tracker.percentile(percentile);
+        if (delay >= 0 && !result.isDone()) {
+            Future<?> hedge = timer.schedule(() -> {
+                if (!result.isDone() && spendToken()) {
+                    LOGGER.fine("Hedging a request to " + host + " running for more than " + delay + "ms");
+                    hedged.incrementAndGet();
+                    pending.incrementAndGet();
+                    issue(request, hedgeSubmitter, tracker, pending, result);
+                }
+            }, Math.max(1, delay), TimeUnit.MILLISECONDS);
+            // no hedge is needed once the request completed
+            result.whenComplete((value, error) -> hedge.cancel(false));
+        }
+        return result;
+    }
+
+    private <T> void issue(Supplier<CompletableFuture<T>> request,
+                           Function<Supplier<CompletableFuture<T>>, CompletableFuture<T>> submitter,
+                           LatencyTracker tracker, AtomicInteger pending, CompletableFuture<T> result) {
+        // the latency is measured once the request is actually issued, not while waiting to be submitted
+        Supplier<CompletableFuture<T>> timed = () -> {
+            long start = clock.getAsLong();
+            CompletableFuture<T> issued = request.get();
+            issued.thenAccept(value -> tracker.add(TimeUnit.NANOSECONDS.toMillis(clock.getAsLong() - start)));
+            return issued;
+        };
+        CompletableFuture<T> attempt;
+        try {
+            attempt = submitter.apply(timed);
+        } catch (RuntimeException e) {
+            attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(e);
+        }
+        // the first response wins, the other request gets cancelled
+        final CompletableFuture<T> inFlight = attempt;
+        result.whenComplete((value, error) -> inFlight.cancel(true));
+        attempt.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(RetryPolicy.unwrap(error));
+            }
+        });
+    }
+
+    /**
+     * Returns the key of the latencies of the given host and size class.  Sizes are classed by powers of 4, so
+     * that the latencies compared differ mostly by the network conditions rather than by the transfer time.
+     */
+    private static String trackerKey(String host, long length) {
+        int sizeClass = length > 0 ? (63 - Long.numberOfLeadingZeros(length)) / 2 : -1;
+        return (host != null ? host : "") + "#" + sizeClass;
+    }
+
+    private synchronized void earnToken() {
+        tokens = Math.min(budget, tokens + rate);
+    }
+
+    private synchronized boolean spendToken() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Schedules the hedges, {@link ScheduledExecutorService#schedule(Runnable, long, TimeUnit)} being the default
+     * implementation.
+     */
+    public interface HedgeTimer {
+
+        /**
+         * Runs the hedge after the provided delay, unless the returned future gets cancelled first.
+         */
+        Future<?> schedule(Runnable hedge, long delay, TimeUnit unit);
+    }
+
+    /**
+     * Keeps the most recent latencies observed for a host and size class.
+     */
+    private static class LatencyTracker {
+
+        private final long[] samples = new long[WINDOW];
+        private int count;
+        private int next;
+
+        synchronized void add(long latency) {
+            samples[next] = latency;
+            next = (next + 1) % WINDOW;
+            count = Math.min(count + 1, WINDOW);
+        }
+
+        synchronized long percentile(int percentile) {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100d * count) - 1;
+            return sorted[Math.max(0, index)];
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Process wide registry of the range requests in flight, keyed by source and range, used to de-duplicate concurrent
+ * requests for the same bytes: a range fully contained in a range already being fetched for the same source joins the
+ * pending request instead of issuing a new one.
+ */
+public final class InFlightRanges {
+
+    private static final Map<String, NavigableMap<Long, InFlightRange>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private final static Logger LOGGER = Logger.getLogger(InFlightRanges.class.getName());
+
+    private InFlightRanges() {
+    }
+
+    private static class InFlightRange {
+        final long end;
+        final CompletableFuture<byte[]> future;
+
+        InFlightRange(long end, CompletableFuture<byte[]> future) {
+            this.end = end;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Returns the bytes of the requested range, joining a pending request for a range containing it, or issuing a new
+     * request otherwise.  If the joined request gets cancelled by its owner, the range is requested again.
+     *
+     * @param source the key identifying the source, e.g. its URI
+     * @param range the start/end byte locations to be read
+     * @param request issues the request for the range
+     * @return a future completing with the bytes of the range
+     */
+    public static CompletableFuture<byte[]> fetch(String source, long[] range,
+                                                  Supplier<CompletableFuture<byte[]>> request) {
+        // registered before issuing the request, so that the request is issued outside of the lock
+        CompletableFuture<byte[]> placeholder = new CompletableFuture<>();
+        NavigableMap<Long, InFlightRange> ranges;
+        Map.Entry<Long, InFlightRange> pending;
+        while (true) {
+            ranges = IN_FLIGHT.computeIfAbsent(source, k -> new TreeMap<>());
+            synchronized (ranges) {
+                if (IN_FLIGHT.get(source) != ranges) {
+                    // concurrently removed as it got empty, try again
+                    continue;
+                }
+                pending = findContaining(ranges, range);
+                if (pending == null) {
+                    ranges.put(range[0], new InFlightRange(range[1], placeholder));
+                }
+                break;
+            }
+        }
+        if (pending != null) {
+            LOGGER.fine("Joining the pending request for range " + pending.getKey() + "-"
+                    + pending.getValue().end + " of " + source);
+            return join(pending.getValue().future, range[0] - pending.getKey(), range, request);
+        }
+        final NavigableMap<Long, InFlightRange> sourceRanges = ranges;
+        placeholder.whenComplete((bytes, error) -> {
+            synchronized (sourceRanges) {
+                InFlightRange inFlight = sourceRanges.get(range[0]);
+                if (inFlight != null && inFlight.future == placeholder) {
+                    sourceRanges.remove(range[0]);
+                }
+                if (sourceRanges.isEmpty()) {
+                    IN_FLIGHT.remove(source, sourceRanges);
+                }
+            }
+        });
+        CompletableFuture<byte[]> future;
+        try {
+            future = request.get();
+        } catch (RuntimeException e) {
+            placeholder.completeExceptionally(e);
+            throw e;
+        }
+        relay(future, placeholder);
+        return placeholder;
+    }
+
+    /**
+     * Completes the target with the outcome of the source, and cancels the source if the target gets cancelled.
+     */
+    private static void relay(CompletableFuture<byte[]> source, CompletableFuture<byte[]> target) {
+        target.whenComplete((bytes, error) -> {
+            if (target.isCancelled()) {
+                source.cancel(true);
+            }
+        });
+        source.whenComplete((bytes, error) -> {
+            if (error == null) {
+                target.complete(bytes);
+            } else {
+                target.completeExceptionally(RetryPolicy.unwrap(error));
+            }
+        });
+    }
+
+    /**
+     * Returns the number of requests in flight for the given source.
+     */
+    public static int size(String source) {
+        NavigableMap<Long, InFlightRange> ranges = IN_FLIGHT.get(source);
+        if (ranges == null) {
+            return 0;
+        }
+        synchronized (ranges) {
+            return ranges.size();
+        }
+    }
+
+    private static Map.Entry<Long, InFlightRange> findContaining(NavigableMap<Long, InFlightRange> ranges,
+                                                                 long[] range) {
+        for (Map.Entry<Long, InFlightRange> entry : ranges.headMap(range[0], true).descendingMap().entrySet()) {
+            if (entry.getValue().end >= range[1] && !entry.getValue().future.isCancelled()) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static CompletableFuture<byte[]> join(CompletableFuture<byte[]> pending, long offset, long[] range,
+                                                  Supplier<CompletableFuture<byte[]>> request) {
+        CompletableFuture<byte[]> joined = new CompletableFuture<>();
+        pending.whenComplete((bytes, error) -> {
+            if (error == null) {
+                int start = (int) Math.min(offset, bytes.length);
+                int end = (int) Math.min(offset + range[1] - range[0] + 1, bytes.length);
+                joined.complete(Arrays.copyOfRange(bytes, start, end));
+            } else if (RetryPolicy.unwrap(error) instanceof CancellationException) {
+                // the owner gave up on the request, we still need the bytes
+                request.get().whenComplete((ownBytes, ownError) -> {
+                    if (ownError == null) {
+                        joined.complete(ownBytes);
+                    } else {
+                        joined.completeExceptionally(RetryPolicy.unwrap(ownError));
+                    }
+                });
+            } else {
+                joined.completeExceptionally(RetryPolicy.unwrap(error));
+            }
+        });
+        return joined;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A read-only view over the bytes of a range, backed by a {@link ByteBuffer} which may be pooled, direct, or shared
+ * with other views (e.g. a cached block or a memory mapped file), so that the bytes can be handed from range readers
+ * to streams and caches without copying them.
+ * <p>
+ * Views are reference counted: the owner of a view must {@link #release()} it once done, and each {@link #retain()}
+ * or {@link #slice(int, int)} adds a reference to be released.  When the last reference is released, a pooled buffer
+ * is returned to its pool and must no longer be accessed.  Views wrapping arrays or buffers not coming from a pool
+ * can be safely left to the garbage collector.
+ */
+public final class RangeBuffer {
+
+    private final ByteBuffer buffer;
+    private final Owner owner;
+
+    RangeBuffer(ByteBuffer buffer, ByteBufferPool pool) {
+        this(buffer, new Owner(buffer, pool));
+    }
+
+    private RangeBuffer(ByteBuffer buffer, Owner owner) {
+        this.buffer = buffer;
+        this.owner = owner;
+    }
+
+    /**
+     * Wraps an array, without copying it.
+     */
+    public static RangeBuffer wrap(byte[] bytes) {
+        return wrap(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Wraps a portion of an array, without copying it.
+     */
+    public static RangeBuffer wrap(byte[] bytes, int offset, int length) {
+        return wrap(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Wraps the bytes between the position and the limit of the provided buffer, without copying them.
+     */
+    public static RangeBuffer wrap(ByteBuffer buffer) {
+        return new RangeBuffer(buffer.slice(), (ByteBufferPool) null);
+    }
+
+    /**
+     * Returns the number of bytes of the range.
+     */
+    public int length() {
+        return buffer.limit();
+    }
+
+    /**
+     * Returns the byte at the provided offset.
+     */
+    public byte get(int offset) {
+        return buffer.get(offset);
+    }
+
+    /**
+     * Copies length bytes starting at the provided offset into the destination array.
+     */
+    public void get(int offset, byte[] dst, int dstOffset, int length) {
+        ByteBuffer source = buffer.duplicate();
+        source.position(offset);
+        source.get(dst, dstOffset, length);
+    }
+
+    /**
+     * Returns a read-only buffer over the bytes of the range, positioned at its start.  The buffer is valid as long
+     * as this view is not released.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns a writable buffer over the bytes of the range, to fill a buffer just acquired from a
+     * {@link ByteBufferPool} before handing it out.
+     */
+    public ByteBuffer getWritableBuffer() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * Returns a view over a portion of this range, sharing its bytes and holding a reference to them.
+     */
+    public RangeBuffer slice(int offset, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(offset);
+        slice.limit(offset + length);
+        owner.retain();
+        return new RangeBuffer(slice.slice(), owner);
+    }
+
+    /**
+     * Adds a reference to the bytes of this range.
+     */
+    public RangeBuffer retain() {
+        owner.retain();
+        return this;
+    }
+
+    /**
+     * Releases a reference to the bytes of this range, returning them to their pool once no longer referenced.
+     */
+    public void release() {
+        owner.release();
+    }
+
+    /**
+     * Returns true if the bytes of this range come from a pool.
+     */
+    public boolean isPooled() {
+        return owner.pool != null;
+    }
+
+    /**
+     * Returns a copy of the bytes of the range.
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[length()];
+        get(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    /**
+     * The buffer shared by a range and its slices, with its reference count.
+     */
+    private static class Owner {
+
+        private final ByteBuffer buffer;
+        private final ByteBufferPool pool;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Owner(ByteBuffer buffer, ByteBufferPool pool) {
+            this.buffer = buffer;
+            this.pool = pool;
+        }
+
+        void retain() {
+            if (references.getAndIncrement() <= 0) {
+                references.decrementAndGet();
+                throw new IllegalStateException("The buffer has already been released");
+            }
+        }
+
+        void release() {
+            int remaining = references.decrementAndGet();
+            if (remaining == 0 && pool != null) {
+                pool.recycle(buffer);
+            } else if (remaining < 0) {
+                references.incrementAndGet();
+                throw new IllegalStateException("The buffer has already been released");
+            }
+        }
+    }
+}
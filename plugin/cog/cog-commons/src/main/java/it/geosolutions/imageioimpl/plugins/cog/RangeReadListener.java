@@ -0,0 +1,78 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+/**
+ * Receives the events of the COG range readers and caches, to monitor how effective they are.  Listeners are
+ * registered with {@link RangeReadStatistics#addListener(RangeReadListener)}, or discovered as services declared in
+ * <code>META-INF/services/it.geosolutions.imageioimpl.plugins.cog.RangeReadListener</code>.
+ * <p>
+ * Events are notified on the threads reading and fetching the ranges, listeners should return quickly.
+ */
+public interface RangeReadListener {
+
+    /**
+     * Notifies that the requested bytes have been found in a cache.
+     *
+     * @param tier the name of the cache, see the <code>TIER</code> constants of {@link RangeReadStatistics}
+     */
+    default void cacheHit(String tier) {
+    }
+
+    /**
+     * Notifies that the requested bytes have not been found in a cache.
+     *
+     * @param tier the name of the cache, see the <code>TIER</code> constants of {@link RangeReadStatistics}
+     */
+    default void cacheMiss(String tier) {
+    }
+
+    /**
+     * Notifies that a cache evicted an entry to make room for new ones.
+     *
+     * @param tier the name of the cache, see the <code>TIER</code> constants of {@link RangeReadStatistics}
+     */
+    default void cacheEviction(String tier) {
+    }
+
+    /**
+     * Notifies that a range has been fetched from the source.
+     *
+     * @param host the host the range has been fetched from, null for local files
+     * @param bytes the number of bytes fetched
+     * @param latency the time taken to fetch the range, retries included, in nanoseconds
+     */
+    default void rangeFetched(String host, long bytes, long latency) {
+    }
+
+    /**
+     * Notifies the number of range requests issued to serve a single read, the ranges served from memory excluded.
+     *
+     * @param requests the number of range requests
+     */
+    default void readCompleted(int requests) {
+    }
+
+    /**
+     * Notifies the ranges planned to read a set of tiles, larger than the tiles when merging ranges across gaps.
+     *
+     * @param tileBytes the number of bytes of the requested tiles
+     * @param rangeBytes the number of bytes of the planned ranges
+     */
+    default void readPlanned(long tileBytes, long rangeBytes) {
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Bounds the number of concurrent remote range requests issued by the range readers, globally and per host, so that
+ * a burst of reads on one layer doesn't starve the others or trip the provider throttling.  Requests exceeding the
+ * limits are queued, and queued requests are dispatched round robin among the requesters (usually the range reader
+ * serving a single read), so that a read made of many ranges doesn't delay the smaller ones issued after it.
+ *
+ * The number of queued requests is a back-pressure signal: when it exceeds the congestion threshold,
+ * {@link #isCongested()} returns true and readers should issue fewer, larger requests.
+ *
+ * The default instance, shared by all the range readers, can be configured through the following system properties:
+ * <ul>
+ *     <li>it.geosolutions.cog.scheduler.maxconcurrency: maximum number of concurrent requests (default 64)</li>
+ *     <li>it.geosolutions.cog.scheduler.maxperhost: maximum number of concurrent requests per host (default 16)</li>
+ *     <li>it.geosolutions.cog.scheduler.congestion: number of queued requests signaling congestion (default equal
+ *     to the maximum number of concurrent requests)</li>
+ * </ul>
+ * or replaced with {@link #setDefault(RangeReadScheduler)}.
+ */
+public class RangeReadScheduler {
+
+    public static final String MAX_CONCURRENCY_KEY = "it.geosolutions.cog.scheduler.maxconcurrency";
+    public static final String MAX_PER_HOST_KEY = "it.geosolutions.cog.scheduler.maxperhost";
+    public static final String CONGESTION_KEY = "it.geosolutions.cog.scheduler.congestion";
+
+    private static volatile RangeReadScheduler DEFAULT = new RangeReadScheduler(
+            Integer.getInteger(MAX_CONCURRENCY_KEY, 64),
+            Integer.getInteger(MAX_PER_HOST_KEY, 16),
+            Integer.getInteger(CONGESTION_KEY, Integer.getInteger(MAX_CONCURRENCY_KEY, 64)));
+
+    private final int maxConcurrency;
+    private final int maxPerHost;
+    private final int congestionThreshold;
+
+    // all the state below is guarded by this
+    private int running;
+    private int queued;
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    /** The queued requests of each requester, in round robin order */
+    private final LinkedHashMap<Object, ArrayDeque<Task<?>>> queues = new LinkedHashMap<>();
+    /** Whether a thread is draining the queues */
+    private boolean dispatching;
+
+    /**
+     * @param maxConcurrency the maximum number of concurrent requests
+     * @param maxPerHost the maximum number of concurrent requests to a single host
+     * @param congestionThreshold the number of queued requests above which the scheduler is congested
+     */
+    public RangeReadScheduler(int maxConcurrency, int maxPerHost, int congestionThreshold) {
+        if (maxConcurrency <= 0 || maxPerHost <= 0) {
+            throw new IllegalArgumentException("The concurrency limits must be positive");
+        }
+        this.maxConcurrency = maxConcurrency;
+        this.maxPerHost = maxPerHost;
+        this.congestionThreshold = congestionThreshold;
+    }
+
+    public static RangeReadScheduler getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Replaces the scheduler used by the range readers created from now on.
+     */
+    public static void setDefault(RangeReadScheduler scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("The scheduler cannot be null");
+        }
+        DEFAULT = scheduler;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    public synchronized int getRunning() {
+        return running;
+    }
+
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * Returns true if requests are queueing up past the congestion threshold.
+     */
+    public synchronized boolean isCongested() {
+        return queued > congestionThreshold;
+    }
+
+    /**
+     * Submits a request, issuing it as soon as the concurrency limits allow.  Cancelling the returned future removes
+     * the request from the queue, or cancels it if already issued.
+     *
+     * @param host the host the request is issued to, null if not relevant
+     * @param requester the entity issuing the request, queued requests are dispatched round robin among requesters
+     * @param request issues the request
+     * @return a future completing with the request result
+     */
+    public <T> CompletableFuture<T> submit(String host, Object requester, Supplier<CompletableFuture<T>> request) {
+        Task<T> task = new Task<>(host != null ? host : "", requester, request);
+        synchronized (this) {
+            queues.computeIfAbsent(requester, k -> new ArrayDeque<>()).add(task);
+            queued++;
+        }
+        task.result.whenComplete((value, error) -> {
+            if (task.result.isCancelled()) {
+                dequeue(task);
+            }
+        });
+        dispatch();
+        return task.result;
+    }
+
+    /**
+     * Starts the queued requests the limits allow.  Requests may complete while being started (e.g., local reads), and
+     * their completion dispatches again: a single thread at a time drains the queues, polling until nothing can be
+     * started, so that a long run of completed requests is started in a loop instead of a recursion.
+     */
+    private void dispatch() {
+        synchronized (this) {
+            if (dispatching) {
+                // the dispatching thread polls again before giving up
+                return;
+            }
+            dispatching = true;
+        }
+        while (true) {
+            List<Task<?>> ready = new ArrayList<>();
+            synchronized (this) {
+                Task<?> task;
+                while (running < maxConcurrency && (task = poll()) != null) {
+                    running++;
+                    runningPerHost.merge(task.host, 1, Integer::sum);
+                    ready.add(task);
+                }
+                if (ready.isEmpty()) {
+                    dispatching = false;
+                    return;
+                }
+            }
+            // start the requests outside of the lock
+            ready.forEach(Task::start);
+        }
+    }
+
+    /**
+     * Returns the first queued request, taking the requesters in turn, whose host has not reached its limit.
+     */
+    private Task<?> poll() {
+        Iterator<Map.Entry<Object, ArrayDeque<Task<?>>>> requesters = queues.entrySet().iterator();
+        while (requesters.hasNext()) {
+            Map.Entry<Object, ArrayDeque<Task<?>>> entry = requesters.next();
+            ArrayDeque<Task<?>> tasks = entry.getValue();
+            for (Iterator<Task<?>> it = tasks.iterator(); it.hasNext(); ) {
+                Task<?> task = it.next();
+                if (runningPerHost.getOrDefault(task.host, 0) < maxPerHost) {
+                    it.remove();
+                    queued--;
+                    // move the requester to the end of the round
+                    requesters.remove();
+                    if (!tasks.isEmpty()) {
+                        queues.put(entry.getKey(), tasks);
+                    }
+                    return task;
+                }
+            }
+        }
+        return null;
+    }
+
+    private synchronized void dequeue(Task<?> task) {
+        ArrayDeque<Task<?>> tasks = queues.get(task.requester);
+        if (tasks != null && tasks.remove(task)) {
+            queued--;
+            if (tasks.isEmpty()) {
+                queues.remove(task.requester);
+            }
+        }
+    }
+
+    private void release(Task<?> task) {
+        synchronized (this) {
+            running--;
+            runningPerHost.computeIfPresent(task.host, (host, count) -> count > 1 ? count - 1 : null);
+        }
+        dispatch();
+    }
+
+    private class Task<T> {
+
+        final String host;
+        final Object requester;
+        final Supplier<CompletableFuture<T>> request;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Task(String host, Object requester, Supplier<CompletableFuture<T>> request) {
+            this.host = host;
+            this.requester = requester;
+            this.request = request;
+        }
+
+        void start() {
+            if (result.isDone()) {
+                release(this);
+                return;
+            }
+            CompletableFuture<T> attempt;
+            try {
+                attempt = request.get();
+            } catch (RuntimeException e) {
+                attempt = new CompletableFuture<>();
+                attempt.completeExceptionally(e);
+            }
+            final CompletableFuture<T> inFlight = attempt;
+            result.whenComplete((value, error) -> inFlight.cancel(true));
+            inFlight.whenComplete((value, error) -> {
+                release(this);
+                if (error == null) {
+                    result.complete(value);
+                } else {
+                    result.completeExceptionally(RetryPolicy.unwrap(error));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects the events of the COG range readers and caches into counters and histograms, to tell how effective the
+ * caches are and to tune the {@link CacheManagement} configuration and the range planning: hits, misses and
+ * evictions per cache tier, requests and bytes fetched, requests per read, range size and fetch latency
+ * distributions, and the ratio of bytes over-fetched to merge ranges.
+ * <p>
+ * The events are forwarded to the registered {@link RangeReadListener}s.  The statistics are exposed through JMX,
+ * under the {@value #OBJECT_NAME} name, when the <code>it.geosolutions.cog.jmx</code> system property is set to true
+ * or once {@link #registerMBean()} is called.
+ */
+public class RangeReadStatistics implements RangeReadListener, RangeReadStatisticsMXBean {
+
+    private final static Logger LOGGER = Logger.getLogger(RangeReadStatistics.class.getName());
+
+    public static final String JMX_KEY = "it.geosolutions.cog.jmx";
+
+    public static final String OBJECT_NAME = "it.geosolutions.imageio.cog:type=RangeReadStatistics";
+
+    /** The ranges fetched earlier by a range reader, kept in memory */
+    public static final String TIER_RANGES = "ranges";
+
+    /** The COG headers, kept in memory and shared by the range readers */
+    public static final String TIER_HEADERS = "headers";
+
+    /** The blocks shared by the caching streams, see the CacheManagement class */
+    public static final String TIER_BLOCKS = "blocks";
+
+    /** The tiles cached through the CacheManagement class */
+    public static final String TIER_TILES = "tiles";
+
+    public static final RangeReadStatistics DEFAULT = new RangeReadStatistics();
+
+    static {
+        for (RangeReadListener listener : ServiceLoader.load(RangeReadListener.class)) {
+            DEFAULT.addListener(listener);
+        }
+        if (Boolean.getBoolean(JMX_KEY)) {
+            DEFAULT.registerMBean();
+        }
+    }
+
+    private final List<RangeReadListener> listeners = new CopyOnWriteArrayList<>();
+    private final Map<String, LongAdder> hits = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> misses = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> evictions = new ConcurrentHashMap<>();
+    private final LongAdder bytesFetched = new LongAdder();
+    private final LongAdder tileBytes = new LongAdder();
+    private final LongAdder rangeBytes = new LongAdder();
+    private final Histogram rangeSizes = new Histogram();
+    /** In microseconds */
+    private final Histogram fetchLatencies = new Histogram();
+    private final Histogram requestsPerRead = new Histogram();
+
+    public void addListener(RangeReadListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(RangeReadListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers these statistics with the platform MBean server, unless already registered.
+     */
+    public void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Unable to register the range read statistics with JMX", e);
+        }
+    }
+
+    @Override
+    public void cacheHit(String tier) {
+        hits.computeIfAbsent(tier, k -> new LongAdder()).increment();
+        for (RangeReadListener listener : listeners) {
+            listener.cacheHit(tier);
+        }
+    }
+
+    @Override
+    public void cacheMiss(String tier) {
+        misses.computeIfAbsent(tier, k -> new LongAdder()).increment();
+        for (RangeReadListener listener : listeners) {
+            listener.cacheMiss(tier);
+        }
+    }
+
+    @Override
+    public void cacheEviction(String tier) {
+        evictions.computeIfAbsent(tier, k -> new LongAdder()).increment();
+        for (RangeReadListener listener : listeners) {
+            listener.cacheEviction(tier);
+        }
+    }
+
+    @Override
+    public void rangeFetched(String host, long bytes, long latency) {
+        bytesFetched.add(bytes);
+        rangeSizes.record(bytes);
+        fetchLatencies.record(latency / 1000);
+        for (RangeReadListener listener : listeners) {
+            listener.rangeFetched(host, bytes, latency);
+        }
+    }
+
+    @Override
+    public void readCompleted(int requests) {
+        requestsPerRead.record(requests);
+        for (RangeReadListener listener : listeners) {
+            listener.readCompleted(requests);
+        }
+    }
+
+    @Override
+    public void readPlanned(long tileBytes, long rangeBytes) {
+        this.tileBytes.add(tileBytes);
+        this.rangeBytes.add(rangeBytes);
+        for (RangeReadListener listener : listeners) {
+            listener.readPlanned(tileBytes, rangeBytes);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getHits() {
+        return snapshot(hits);
+    }
+
+    @Override
+    public Map<String, Long> getMisses() {
+        return snapshot(misses);
+    }
+
+    @Override
+    public Map<String, Long> getEvictions() {
+        return snapshot(evictions);
+    }
+
+    private static Map<String, Long> snapshot(Map<String, LongAdder> counters) {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((tier, counter) -> values.put(tier, counter.sum()));
+        return values;
+    }
+
+    /**
+     * Returns the ratio of hits over the lookups of a cache tier.
+     *
+     * @return the hit ratio, or NaN if the tier has not been looked up
+     */
+    public double getHitRatio(String tier) {
+        LongAdder hit = hits.get(tier);
+        LongAdder miss = misses.get(tier);
+        long hitCount = hit != null ? hit.sum() : 0;
+        long lookups = hitCount + (miss != null ? miss.sum() : 0);
+        return lookups > 0 ? (double) hitCount / lookups : Double.NaN;
+    }
+
+    @Override
+    public long getRequests() {
+        return rangeSizes.getCount();
+    }
+
+    @Override
+    public long getBytesFetched() {
+        return bytesFetched.sum();
+    }
+
+    @Override
+    public long getReads() {
+        return requestsPerRead.getCount();
+    }
+
+    @Override
+    public double getRequestsPerReadMean() {
+        return requestsPerRead.getMean();
+    }
+
+    @Override
+    public long getRequestsPerRead95th() {
+        return requestsPerRead.getPercentile(95);
+    }
+
+    @Override
+    public long getRangeSizeMedian() {
+        return rangeSizes.getPercentile(50);
+    }
+
+    @Override
+    public long getRangeSize95th() {
+        return rangeSizes.getPercentile(95);
+    }
+
+    @Override
+    public double getFetchLatencyMedian() {
+        return fetchLatencies.getPercentile(50) / 1000d;
+    }
+
+    @Override
+    public double getFetchLatency95th() {
+        return fetchLatencies.getPercentile(95) / 1000d;
+    }
+
+    @Override
+    public double getFetchLatency99th() {
+        return fetchLatencies.getPercentile(99) / 1000d;
+    }
+
+    @Override
+    public double getOverFetchRatio() {
+        long planned = rangeBytes.sum();
+        return planned > 0 ? (double) (planned - tileBytes.sum()) / planned : 0;
+    }
+
+    /**
+     * Returns the requested percentile of the range sizes, in bytes.
+     */
+    public long getRangeSizePercentile(double percentile) {
+        return rangeSizes.getPercentile(percentile);
+    }
+
+    /**
+     * Returns the requested percentile of the fetch latencies, in milliseconds.
+     */
+    public double getFetchLatencyPercentile(double percentile) {
+        return fetchLatencies.getPercentile(percentile) / 1000d;
+    }
+
+    @Override
+    public void reset() {
+        hits.clear();
+        misses.clear();
+        evictions.clear();
+        bytesFetched.reset();
+        tileBytes.reset();
+        rangeBytes.reset();
+        rangeSizes.reset();
+        fetchLatencies.reset();
+        requestsPerRead.reset();
+    }
+
+    /**
+     * Counts values in power of two buckets, estimating percentiles within a factor of two with constant memory and
+     * no locking.
+     */
+    static final class Histogram {
+
+        /** Bucket i holds the values between 2^(i-1) and 2^i - 1, bucket 0 the values up to 0 */
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        void record(long value) {
+            buckets.incrementAndGet(value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value));
+            count.increment();
+            sum.add(value);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMean() {
+            long values = count.sum();
+            return values > 0 ? (double) sum.sum() / values : 0;
+        }
+
+        /**
+         * Returns the upper bound of the bucket holding the requested percentile, 0 if no value has been recorded.
+         */
+        long getPercentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            long rank = (long) Math.ceil(total * percentile / 100);
+            long cumulated = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                cumulated += buckets.get(i);
+                if (cumulated >= rank && cumulated > 0) {
+                    return i == 0 ? 0 : (1L << i) - 1;
+                }
+            }
+            return 0;
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            sum.reset();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link RangeReadStatistics}.  Sizes are in bytes, latencies in milliseconds.
+ */
+public interface RangeReadStatisticsMXBean {
+
+    /** Cache hits, keyed by cache tier */
+    Map<String, Long> getHits();
+
+    /** Cache misses, keyed by cache tier */
+    Map<String, Long> getMisses();
+
+    /** Cache evictions, keyed by cache tier */
+    Map<String, Long> getEvictions();
+
+    /** Number of ranges fetched from the sources */
+    long getRequests();
+
+    /** Number of bytes fetched from the sources */
+    long getBytesFetched();
+
+    /** Number of reads served by the range readers */
+    long getReads();
+
+    double getRequestsPerReadMean();
+
+    long getRequestsPerRead95th();
+
+    long getRangeSizeMedian();
+
+    long getRangeSize95th();
+
+    double getFetchLatencyMedian();
+
+    double getFetchLatency95th();
+
+    double getFetchLatency99th();
+
+    /** Fraction of the planned bytes not belonging to the requested tiles, read to merge ranges across gaps */
+    double getOverFetchRatio();
+
+    /** Resets all the counters and histograms */
+    void reset();
+}
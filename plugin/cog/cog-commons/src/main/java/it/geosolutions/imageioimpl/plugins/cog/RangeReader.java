@@ -20,7 +20,9 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Defines methods that should be implemented by classes that support remotely reading tile ranges.
@@ -71,6 +73,42 @@ public interface RangeReader {
      */
     Map<Long, byte[]> read(Collection<long[]> ranges);
 
+    /**
+     * Asynchronously reads the byte ranges specified in the parameter, returning as soon as the reads have been
+     * issued.  Ranges lying within the header already read may be omitted from the result, and ranges starting within
+     * it may be keyed by the end of the header instead.
+     * <p>
+     * The default implementation performs a blocking {@link #read(Collection)}, returning completed futures.
+     *
+     * @param ranges a collection of long arrays containing the start/end byte locations to be read
+     * @return Map of start range positions to futures completing with the byte arrays for the provided range
+     */
+    default Map<Long, CompletableFuture<byte[]>> readAsync(Collection<long[]> ranges) {
+        Map<Long, CompletableFuture<byte[]>> futures = new HashMap<>();
+        read(ranges).forEach((start, bytes) -> futures.put(start, CompletableFuture.completedFuture(bytes)));
+        return futures;
+    }
+
+    /**
+     * Reads the byte ranges specified in the parameter as buffers, which may be pooled or shared with other readers
+     * and caches instead of being copied into new arrays.  The caller owns a reference to each returned buffer and
+     * should {@link RangeBuffer#release()} it once done, so that pooled buffers can be reused.
+     * <p>
+     * The default implementation wraps the byte arrays returned by {@link #read(Collection)}, without copying them.
+     *
+     * @param ranges a collection of long arrays containing the start/end byte locations to be read
+     * @return Map of start range positions to buffers holding the bytes of the provided range
+     */
+    default Map<Long, RangeBuffer> readBuffers(Collection<long[]> ranges) {
+        Map<Long, RangeBuffer> buffers = new HashMap<>();
+        read(ranges).forEach((start, bytes) -> {
+            if (bytes != null) {
+                buffers.put(start, RangeBuffer.wrap(bytes));
+            }
+        });
+        return buffers;
+    }
+
     /**
      * read the first piece of a COG header given the provided header length.
      *
@@ -84,4 +122,24 @@ public interface RangeReader {
      * @return They byte data of the header
      */
     byte[] fetchHeader();
+
+    /**
+     * Returns a value identifying the version of the remote resource, such as its ETag or Last-Modified value, as
+     * returned when reading the header.
+     *
+     * @return the version of the resource, or null if unknown
+     */
+    default String getVersion() {
+        return null;
+    }
+
+    /**
+     * Returns the policy the range requests of this reader are retried with, whose timeout also bounds the time spent
+     * waiting for the ranges of a read.
+     *
+     * @return the retry policy of this reader
+     */
+    default RetryPolicy getRetryPolicy() {
+        return RetryPolicy.DEFAULT;
+    }
 }
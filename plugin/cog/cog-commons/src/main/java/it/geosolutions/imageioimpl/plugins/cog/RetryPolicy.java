@@ -0,0 +1,219 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Retries asynchronous range requests with an exponential backoff, bounded by a maximum number of
+ * retries and by a total deadline shared by all the ranges of a single read.  Retries are scheduled
+ * on a timer thread, so no thread is ever blocked while waiting for the next attempt.  Only transient
+ * failures are retried, see {@link #isRetryable(Throwable)}.
+ *
+ * The defaults can be configured through the following system properties:
+ * <ul>
+ *     <li>it.geosolutions.cog.maxretries: maximum number of retries per range (default 5)</li>
+ *     <li>it.geosolutions.cog.retry.backoff: initial backoff in milliseconds (default 100)</li>
+ *     <li>it.geosolutions.cog.retry.maxbackoff: maximum backoff in milliseconds (default 5000)</li>
+ *     <li>it.geosolutions.cog.read.timeout: total deadline of a read in milliseconds (default 120000)</li>
+ * </ul>
+ */
+public class RetryPolicy {
+
+    public static final String MAX_RETRIES_KEY = "it.geosolutions.cog.maxretries";
+    public static final String BACKOFF_KEY = "it.geosolutions.cog.retry.backoff";
+    public static final String MAX_BACKOFF_KEY = "it.geosolutions.cog.retry.maxbackoff";
+    public static final String TIMEOUT_KEY = "it.geosolutions.cog.read.timeout";
+
+    public static final RetryPolicy DEFAULT = new RetryPolicy(
+            Integer.getInteger(MAX_RETRIES_KEY, 5),
+            Long.getLong(BACKOFF_KEY, 100L),
+            Long.getLong(MAX_BACKOFF_KEY, 5000L),
+            Long.getLong(TIMEOUT_KEY, 120000L));
+
+    private static final ScheduledExecutorService RETRY_TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cog-range-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final static Logger LOGGER = Logger.getLogger(RetryPolicy.class.getName());
+
+    private final int maxRetries;
+    private final long backoff;
+    private final long maxBackoff;
+    private final long timeout;
+
+    /**
+     * @param maxRetries the maximum number of retries for a single range, 0 disables retries
+     * @param backoff the delay before the first retry, in milliseconds. Doubles at each further retry.
+     * @param maxBackoff the maximum delay between two retries, in milliseconds
+     * @param timeout the total time allowed for a read, in milliseconds
+     */
+    public RetryPolicy(int maxRetries, long backoff, long maxBackoff, long timeout) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.backoff = Math.max(0, backoff);
+        this.maxBackoff = Math.max(this.backoff, maxBackoff);
+        this.timeout = timeout;
+    }
+
+    public RetryPolicy withMaxRetries(int maxRetries) {
+        return new RetryPolicy(maxRetries, backoff, maxBackoff, timeout);
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public long getBackoff() {
+        return backoff;
+    }
+
+    public long getMaxBackoff() {
+        return maxBackoff;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the deadline, expressed in {@link System#nanoTime()} units, for a read starting now.
+     */
+    public long deadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Computes the delay to wait before the given retry (1 based), using an exponential backoff with a
+     * random jitter in the upper half of the delay, so that concurrent readers failing together do not
+     * retry in lockstep.
+     *
+     * @param retry the retry number, starting from 1
+     * @return the delay in milliseconds
+     */
+    public long backoff(int retry) {
+        long delay = backoff;
+        for (int i = 1; i < retry && delay < maxBackoff; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, maxBackoff);
+        if (delay <= 1) {
+            return delay;
+        }
+        long half = delay >> 1;
+        return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+    }
+
+    /**
+     * Executes the provided asynchronous request, retrying it on failure.  The returned future completes
+     * with the first successful result, or exceptionally with the last failure once the retries are
+     * exhausted or the next retry would end past the deadline.  Cancelling the returned future cancels the
+     * attempt in flight and prevents any further retry.
+     *
+     * @param request supplies a new attempt of the request each time it's invoked
+     * @param deadline the deadline, in {@link System#nanoTime()} units
+     * @param description a description of the request, used for logging
+     * @return a future completing with the request result
+     */
+    public <T> CompletableFuture<T> execute(Supplier<CompletableFuture<T>> request, long deadline,
+                                            String description) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(request, 0, deadline, description, result);
+        return result;
+    }
+
+    private <T> void attempt(Supplier<CompletableFuture<T>> request, int retry, long deadline,
+                             String description, CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return;
+        }
+        CompletableFuture<T> attempt;
+        try {
+            attempt = request.get();
+        } catch (RuntimeException e) {
+            attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(e);
+        }
+        // propagate cancellation of the overall request to the attempt in flight
+        final CompletableFuture<T> inFlight = attempt;
+        result.whenComplete((value, error) -> inFlight.cancel(true));
+
+        attempt.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = unwrap(error);
+            if (result.isDone() || !isRetryable(cause) || retry >= maxRetries) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            long delay = backoff(retry + 1);
+            if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) - deadline >= 0) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            LOGGER.fine("Retrying " + description + " in " + delay + "ms (retry " + (retry + 1)
+                    + " of " + maxRetries + "): " + cause);
+            RETRY_TIMER.schedule(() -> attempt(request, retry + 1, deadline, description, result),
+                    delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * Returns true if a request failing with the given error should be retried.  Requests answered with
+     * an {@link HttpStatusException} are retried only for server errors (5xx), throttling (429) and
+     * request timeouts (408), other failures only if they are I/O errors, such as connection errors, or
+     * timeouts.  Cancellations are never retried.
+     */
+    protected boolean isRetryable(Throwable error) {
+        if (error instanceof CancellationException) {
+            return false;
+        }
+        if (error instanceof HttpStatusException) {
+            return isRetryable(((HttpStatusException) error).getStatusCode());
+        }
+        return error instanceof IOException || error instanceof TimeoutException;
+    }
+
+    /**
+     * Returns true if a request answered with the given HTTP status code should be retried.
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode >= 500 || statusCode == 429 || statusCode == 408;
+    }
+
+    static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageio.core.BasicAuthURI;
+import it.geosolutions.imageioimpl.plugins.cog.AbstractRangeReader;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Testing the reuse of the ranges fetched by the range readers.
+ */
+public class AbstractRangeReaderTest {
+
+    @Test
+    public void reuseContainedRanges() {
+        byte[] content = new byte[10000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        CountingRangeReader reader = new CountingRangeReader("http://test.url.com/reuse.tif", content);
+
+        Map<Long, byte[]> values = reader.read(new long[]{1000, 1999}, new long[]{5000, 5999});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), values.get(1000L));
+        Assert.assertEquals(2, reader.requests.size());
+
+        // same start, shorter, and fully contained ranges are served from memory
+        values = reader.read(new long[]{1000, 1499}, new long[]{5100, 5199}, new long[]{5000, 5999});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1000, 1500), values.get(1000L));
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 5100, 5200), values.get(5100L));
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 5000, 6000), values.get(5000L));
+        Assert.assertEquals(2, reader.requests.size());
+
+        // a range going past the fetched data is fetched again
+        values = reader.read(new long[]{1500, 2499});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1500, 2500), values.get(1500L));
+        Assert.assertEquals(3, reader.requests.size());
+        Assert.assertArrayEquals(new long[]{1500, 2499}, reader.requests.get(2));
+    }
+
+    /**
+     * A range reader serving ranges from a byte array, keeping track of the requests.
+     */
+    private static class CountingRangeReader extends AbstractRangeReader {
+
+        private final byte[] content;
+        final List<long[]> requests = new ArrayList<>();
+
+        CountingRangeReader(String uri, byte[] content) {
+            super(new BasicAuthURI(URI.create(uri)), 0);
+            this.content = content;
+        }
+
+        @Override
+        protected synchronized CompletableFuture<byte[]> readAsync(long[] range) {
+            requests.add(range);
+            int end = (int) Math.min(range[1] + 1, content.length);
+            return CompletableFuture.completedFuture(Arrays.copyOfRange(content, (int) range[0], end));
+        }
+
+        @Override
+        public byte[] readHeader() {
+            return new byte[0];
+        }
+
+        @Override
+        public byte[] fetchHeader() {
+            return new byte[0];
+        }
+    }
+}
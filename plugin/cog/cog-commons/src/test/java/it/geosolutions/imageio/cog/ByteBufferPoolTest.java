@@ -0,0 +1,103 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageioimpl.plugins.cog.ByteBufferPool;
+import it.geosolutions.imageioimpl.plugins.cog.RangeBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Testing the pooling and reference counting of range buffers.
+ */
+public class ByteBufferPoolTest {
+
+    @Test
+    public void recycleBySizeClass() {
+        ByteBufferPool pool = new ByteBufferPool(false, 1024 * 1024, 64 * 1024);
+        RangeBuffer buffer = pool.acquire(5000);
+        Assert.assertEquals(5000, buffer.length());
+        buffer.getWritableBuffer().put((byte) 42);
+        buffer.release();
+        // rounded up to the next power of two
+        Assert.assertEquals(8192, pool.getPooledBytes());
+
+        RangeBuffer smaller = pool.acquire(4097);
+        Assert.assertEquals(0, pool.getPooledBytes());
+        Assert.assertEquals(4097, smaller.length());
+        Assert.assertEquals(42, smaller.get(0));
+        smaller.release();
+    }
+
+    @Test
+    public void largeBuffersNotPooled() {
+        ByteBufferPool pool = new ByteBufferPool(false, 1024 * 1024, 64 * 1024);
+        RangeBuffer buffer = pool.acquire(100000);
+        Assert.assertFalse(buffer.isPooled());
+        buffer.release();
+        Assert.assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void poolSizeBounded() {
+        ByteBufferPool pool = new ByteBufferPool(false, 8192, 64 * 1024);
+        RangeBuffer first = pool.acquire(8192);
+        RangeBuffer second = pool.acquire(8192);
+        first.release();
+        second.release();
+        Assert.assertEquals(8192, pool.getPooledBytes());
+    }
+
+    @Test
+    public void slicesHoldReferences() {
+        ByteBufferPool pool = new ByteBufferPool(true, 1024 * 1024, 64 * 1024);
+        RangeBuffer buffer = pool.acquire(100);
+        ByteBuffer writable = buffer.getWritableBuffer();
+        for (int i = 0; i < 100; i++) {
+            writable.put((byte) i);
+        }
+        RangeBuffer slice = buffer.slice(10, 20);
+        buffer.release();
+        // still referenced by the slice
+        Assert.assertEquals(0, pool.getPooledBytes());
+        Assert.assertEquals(20, slice.length());
+        byte[] bytes = new byte[5];
+        slice.get(2, bytes, 0, 5);
+        Assert.assertArrayEquals(new byte[]{12, 13, 14, 15, 16}, bytes);
+        Assert.assertTrue(slice.getBuffer().isReadOnly());
+
+        slice.release();
+        Assert.assertEquals(4096, pool.getPooledBytes());
+        try {
+            slice.release();
+            Assert.fail("Should have failed releasing twice");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void wrapWithoutCopying() {
+        byte[] bytes = new byte[]{1, 2, 3, 4, 5};
+        RangeBuffer buffer = RangeBuffer.wrap(bytes, 1, 3);
+        bytes[2] = 42;
+        Assert.assertEquals(3, buffer.length());
+        Assert.assertArrayEquals(new byte[]{2, 42, 4}, buffer.toByteArray());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageioimpl.plugins.cog.CogHeaderPlanner;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Testing the computation of the exact header length of (Big)TIFF files.
+ */
+public class CogHeaderPlannerTest {
+
+    private static final String GHOST_AREA = "GDAL_STRUCTURAL_METADATA_SIZE=000140 bytes\n"
+            + "LAYOUT=IFDS_BEFORE_DATA\nBLOCK_ORDER=ROW_MAJOR\nBLOCK_LEADER=SIZE_AS_UINT4\n"
+            + "BLOCK_TRAILER=LAST_4_BYTES_REPEATED\nKNOWN_INCOMPATIBLE_EDITION=NO\n ";
+
+    @Test
+    public void classicTiff() {
+        // two IFDs, with tile offsets and byte counts arrays of 5000 elements each
+        byte[] tiff = tiff(false, ByteOrder.LITTLE_ENDIAN, 5000);
+        Assert.assertTrue(CogHeaderPlanner.isIfdsBeforeData(tiff));
+        long required = CogHeaderPlanner.requiredLength(tiff);
+        Assert.assertEquals(headerLength(tiff), required);
+        assertCompleted(tiff, 1024, 1);
+    }
+
+    @Test
+    public void bigTiff() {
+        byte[] tiff = tiff(true, ByteOrder.BIG_ENDIAN, 5000);
+        Assert.assertTrue(CogHeaderPlanner.isIfdsBeforeData(tiff));
+        Assert.assertEquals(headerLength(tiff), CogHeaderPlanner.requiredLength(tiff));
+        assertCompleted(tiff, 1024, 1);
+    }
+
+    @Test
+    public void ifdsOutsideOfInitialBytes() {
+        // the initial bytes truncate the first IFD: the IFDs have to be discovered one request at a time
+        byte[] tiff = tiff(false, ByteOrder.LITTLE_ENDIAN, 5000);
+        assertCompleted(tiff, 200, 3);
+    }
+
+    @Test
+    public void alreadyComplete() {
+        byte[] tiff = tiff(false, ByteOrder.LITTLE_ENDIAN, 10);
+        assertCompleted(tiff, tiff.length, 0);
+    }
+
+    @Test
+    public void notATiff() {
+        byte[] bytes = new byte[1024];
+        Assert.assertFalse(CogHeaderPlanner.isIfdsBeforeData(bytes));
+        Assert.assertEquals(bytes.length, CogHeaderPlanner.requiredLength(bytes));
+        Assert.assertSame(bytes, CogHeaderPlanner.completeHeader(bytes, range -> {
+            throw new AssertionError("No further bytes should be requested");
+        }));
+    }
+
+    private static void assertCompleted(byte[] tiff, int initialLength, int expectedRequests) {
+        List<long[]> requests = new ArrayList<>();
+        byte[] header = CogHeaderPlanner.completeHeader(Arrays.copyOf(tiff, initialLength), range -> {
+            requests.add(range);
+            return Arrays.copyOfRange(tiff, (int) range[0], (int) Math.min(range[1] + 1, tiff.length));
+        });
+        Assert.assertEquals(expectedRequests, requests.size());
+        int expectedLength = Math.max(initialLength, headerLength(tiff));
+        Assert.assertArrayEquals(Arrays.copyOf(tiff, expectedLength), header);
+    }
+
+    /**
+     * The header of the test files ends where the image data, filled with ones, begins.
+     */
+    private static int headerLength(byte[] tiff) {
+        int i = tiff.length;
+        while (i > 0 && tiff[i - 1] == 1) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Writes a COG like file with two IFDs, each having their tile offsets and byte counts after the IFDs, followed
+     * by the image data.
+     */
+    private static byte[] tiff(boolean bigTiff, ByteOrder order, int tiles) {
+        int offsetSize = bigTiff ? 8 : 4;
+        int entrySize = bigTiff ? 20 : 12;
+        int countSize = bigTiff ? 8 : 2;
+        int entries = 4;
+        int ifdSize = countSize + entries * entrySize + offsetSize;
+        int headerSize = bigTiff ? 16 : 8;
+        int firstIfd = headerSize + GHOST_AREA.length();
+        int arrays = firstIfd + 2 * ifdSize;
+        int arraySize = tiles * offsetSize;
+        int dataStart = arrays + 4 * arraySize;
+        int dataLength = 4096;
+
+        ByteBuffer buffer = ByteBuffer.allocate(dataStart + dataLength).order(order);
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? new byte[]{'I', 'I'} : new byte[]{'M', 'M'});
+        if (bigTiff) {
+            buffer.putShort((short) 43).putShort((short) 8).putShort((short) 0).putLong(firstIfd);
+        } else {
+            buffer.putShort((short) 42).putInt(firstIfd);
+        }
+        buffer.put(GHOST_AREA.getBytes(StandardCharsets.US_ASCII));
+        for (int ifd = 0; ifd < 2; ifd++) {
+            if (bigTiff) {
+                buffer.putLong(entries);
+            } else {
+                buffer.putShort((short) entries);
+            }
+            // ImageWidth and ImageLength, inline
+            entry(buffer, bigTiff, 256, 3, 1, 512);
+            entry(buffer, bigTiff, 257, 3, 1, 512);
+            // TileOffsets and TileByteCounts, out of line
+            int type = bigTiff ? 16 : 4;
+            entry(buffer, bigTiff, 324, type, tiles, arrays + (2 * ifd) * arraySize);
+            entry(buffer, bigTiff, 325, type, tiles, arrays + (2 * ifd + 1) * arraySize);
+            long next = ifd == 0 ? firstIfd + ifdSize : 0;
+            if (bigTiff) {
+                buffer.putLong(next);
+            } else {
+                buffer.putInt((int) next);
+            }
+        }
+        // the arrays content is not relevant
+        buffer.position(dataStart);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte) 1);
+        }
+        return buffer.array();
+    }
+
+    private static void entry(ByteBuffer buffer, boolean bigTiff, int tag, int type, long count, long value) {
+        buffer.putShort((short) tag).putShort((short) type);
+        if (bigTiff) {
+            buffer.putLong(count).putLong(value);
+        } else {
+            buffer.putInt((int) count);
+            if (type == 3 && count == 1) {
+                // inline short values are left aligned
+                buffer.putShort((short) value).putShort((short) 0);
+            } else {
+                buffer.putInt((int) value);
+            }
+        }
+    }
+}
@@ -50,4 +50,15 @@ public class CogTileInfoTest {
         Assert.assertEquals(tileRange1, tileRange2);
 
     }
+
+    @Test
+    public void skipSparseTiles() {
+        CogTileInfo info = new CogTileInfo(CogImageReadParam.DEFAULT_HEADER_LENGTH);
+        // empty tiles of sparse COGs have no offset and no bytes
+        Assert.assertNull(info.addTileRange(0, 0, 0));
+        info.addTileRange(1, 20000, 100);
+        Assert.assertNull(info.getTileRange(0));
+        Assert.assertEquals(CogImageReadParam.DEFAULT_HEADER_LENGTH, info.getHeaderLength());
+        Assert.assertEquals(1, info.getTileIndex(20050));
+    }
 }
@@ -0,0 +1,196 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageioimpl.plugins.cog.AbstractRangeReader;
+import it.geosolutions.imageioimpl.plugins.cog.ByteBufferPool;
+import it.geosolutions.imageioimpl.plugins.cog.FileRangeReader;
+import it.geosolutions.imageioimpl.plugins.cog.RangeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.Arrays.asList;
+
+/**
+ * Testing the range reader serving COGs from the local file system.
+ */
+public class FileRangeReaderTest {
+
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        file = File.createTempFile("cog", ".tif");
+        Files.write(file.toPath(), content);
+        AbstractRangeReader.invalidateCache();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        AbstractRangeReader.invalidateCache();
+    }
+
+    @Test
+    public void positionalReads() {
+        assertReads(new FileRangeReader(file.toURI(), 1024));
+    }
+
+    @Test
+    public void memoryMappedReads() {
+        FileRangeReader reader = new FileRangeReader(file.toURI(), 1024);
+        reader.setMemoryMapped(true);
+        assertReads(reader);
+    }
+
+    @Test
+    public void pooledBufferReads() {
+        ByteBufferPool pool = new ByteBufferPool(true, 1024 * 1024, 64 * 1024);
+        FileRangeReader reader = new FileRangeReader(file.toURI(), 1024);
+        reader.setBufferPool(pool);
+        reader.readHeader();
+
+        Map<Long, RangeBuffer> buffers = reader.readBuffers(asList(new long[]{2000, 2999}, new long[]{99990, 100100}));
+        Assert.assertTrue(buffers.get(2000L).isPooled());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 2000, 3000), buffers.get(2000L).toByteArray());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 99990, 100000), buffers.get(99990L).toByteArray());
+
+        // released buffers get recycled
+        buffers.values().forEach(RangeBuffer::release);
+        Assert.assertEquals(2 * 4096, pool.getPooledBytes());
+        RangeBuffer recycled = reader.readBuffers(asList(new long[]{50000, 50009})).get(50000L);
+        Assert.assertEquals(4096, pool.getPooledBytes());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 50000, 50010), recycled.toByteArray());
+        recycled.release();
+    }
+
+    @Test
+    public void memoryMappedBufferReads() {
+        FileRangeReader reader = new FileRangeReader(file.toURI(), 1024);
+        reader.setMemoryMapped(true);
+        reader.readHeader();
+
+        RangeBuffer buffer = reader.readBuffers(asList(new long[][]{{2000, 2999}})).get(2000L);
+        // a view over the mapping, not a copy
+        Assert.assertFalse(buffer.isPooled());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 2000, 3000), buffer.toByteArray());
+        RangeBuffer slice = buffer.slice(10, 10);
+        Assert.assertEquals(content[2015], slice.get(5));
+        slice.release();
+        buffer.release();
+    }
+
+    @Test
+    public void sharedChannel() throws Exception {
+        AtomicReference<FileChannel> opened = new AtomicReference<>();
+        FileRangeReader reader = new FileRangeReader(file.toURI(), 1024) {
+            @Override
+            protected FileChannel getChannel() throws IOException {
+                FileChannel channel = super.getChannel();
+                FileChannel previous = opened.getAndSet(channel);
+                Assert.assertTrue(previous == null || previous == channel || !previous.isOpen());
+                return channel;
+            }
+        };
+        assertReads(reader);
+        FileChannel channel = opened.get();
+        Assert.assertTrue(channel.isOpen());
+
+        // a read interrupted in another thread closes the channel, the next reads open a new one
+        Thread interrupted = new Thread(() -> {
+            Thread.currentThread().interrupt();
+            try {
+                reader.read(new long[]{2000, 2999});
+            } catch (RuntimeException e) {
+                // expected
+            }
+        });
+        interrupted.start();
+        interrupted.join();
+        Assert.assertFalse(channel.isOpen());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 2000, 3000),
+                reader.read(new long[]{2000, 2999}).get(2000L));
+
+        // closing releases the channel, reading again reopens it
+        reader.close();
+        Assert.assertFalse(opened.get().isOpen());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 5000, 5010),
+                reader.read(new long[]{5000, 5009}).get(5000L));
+        Assert.assertTrue(opened.get().isOpen());
+        reader.close();
+    }
+
+    @Test
+    public void revalidation() throws IOException {
+        FileRangeReader reader = new FileRangeReader(file.toURI(), 1024);
+        Assert.assertArrayEquals(Arrays.copyOf(content, 1024), reader.readHeader());
+        String version = reader.getVersion();
+
+        // rewrite the file, with a different size so that the version changes whatever the timestamp resolution
+        byte[] changed = Arrays.copyOf(content, 90000);
+        Arrays.fill(changed, 0, 1024, (byte) 7);
+        Files.write(file.toPath(), changed);
+
+        // without revalidation the cached header is used
+        reader = new FileRangeReader(file.toURI(), 1024);
+        Assert.assertArrayEquals(Arrays.copyOf(content, 1024), reader.readHeader());
+        Assert.assertEquals(version, reader.getVersion());
+
+        // revalidating notices the change and reads the header again
+        reader = new FileRangeReader(file.toURI(), 1024);
+        reader.setRevalidationInterval(0);
+        Assert.assertArrayEquals(Arrays.copyOf(changed, 1024), reader.readHeader());
+        Assert.assertNotEquals(version, reader.getVersion());
+
+        // the header is trusted within the revalidation interval
+        Files.write(file.toPath(), content);
+        reader = new FileRangeReader(file.toURI(), 1024);
+        reader.setRevalidationInterval(60000);
+        Assert.assertArrayEquals(Arrays.copyOf(changed, 1024), reader.readHeader());
+    }
+
+    private void assertReads(FileRangeReader reader) {
+        byte[] header = reader.readHeader();
+        Assert.assertArrayEquals(Arrays.copyOf(content, 1024), header);
+        Assert.assertNotNull(reader.getVersion());
+
+        Map<Long, byte[]> values = reader.read(new long[]{2000, 2999}, new long[]{50000, 50009},
+                new long[]{99990, 100100});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 2000, 3000), values.get(2000L));
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 50000, 50010), values.get(50000L));
+        // reads past the end of the file are truncated
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 99990, 100000), values.get(99990L));
+
+        // header extension
+        Assert.assertArrayEquals(Arrays.copyOf(content, 2048), reader.fetchHeader());
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageioimpl.plugins.cog.HedgingPolicy;
+import it.geosolutions.imageioimpl.plugins.cog.RangeReadScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Testing the hedging of slow range requests.  The hedges are scheduled on a timer fired by the tests, and the
+ * latencies measured on a clock they advance, so that no test depends on actual timings.
+ */
+public class HedgingPolicyTest {
+
+    private static final String HOST = "test.url.com";
+
+    private final ManualTimer timer = new ManualTimer();
+    private final AtomicLong clock = new AtomicLong();
+
+    @Test
+    public void disabled() {
+        HedgingPolicy policy = policy(false, 1, 10);
+        CompletableFuture<byte[]> request = new CompletableFuture<>();
+        Assert.assertSame(request, policy.execute(HOST, () -> request));
+    }
+
+    @Test
+    public void noHedgeBeforeLearningLatencies() {
+        HedgingPolicy policy = policy(true, 1, 10);
+        Assert.assertEquals(-1, policy.getHedgeDelay(HOST));
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        policy.execute(HOST, () -> issue(requests));
+        Assert.assertTrue(timer.hedges.isEmpty());
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(0, policy.getHedgedCount());
+    }
+
+    @Test
+    public void hedgeSlowRequest() throws Exception {
+        HedgingPolicy policy = policy(true, 1, 10);
+        warmUp(policy, 10);
+        Assert.assertEquals(10, policy.getHedgeDelay(HOST));
+
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        CompletableFuture<byte[]> result = policy.execute(HOST, () -> issue(requests));
+        Assert.assertEquals(10, timer.delays.get(0).longValue());
+        timer.fire();
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals(1, policy.getHedgedCount());
+
+        // the hedge wins, the straggler gets cancelled
+        byte[] bytes = new byte[]{1, 2, 3};
+        requests.get(1).complete(bytes);
+        Assert.assertSame(bytes, result.get(1, TimeUnit.SECONDS));
+        Assert.assertTrue(requests.get(0).isCancelled());
+    }
+
+    @Test
+    public void hedgeCancelledOnCompletion() {
+        HedgingPolicy policy = policy(true, 1, 10);
+        warmUp(policy, 10);
+
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        policy.execute(HOST, () -> issue(requests));
+        requests.get(0).complete(new byte[0]);
+        Assert.assertTrue(timer.hedges.get(0).isCancelled());
+        timer.fire();
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(0, policy.getHedgedCount());
+    }
+
+    @Test
+    public void hedgeTakesSchedulerSlot() throws Exception {
+        HedgingPolicy policy = policy(true, 1, 10);
+        warmUp(policy, 10);
+        RangeReadScheduler scheduler = new RangeReadScheduler(1, 1, 1);
+
+        // the request runs in the only slot, its hedge waits for one
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        CompletableFuture<byte[]> result = scheduler.submit(HOST, this, () -> policy.execute(HOST, -1,
+                () -> issue(requests), hedge -> scheduler.submit(HOST, this, hedge)));
+        timer.fire();
+        Assert.assertEquals(1, policy.getHedgedCount());
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(1, scheduler.getRunning());
+        Assert.assertEquals(1, scheduler.getQueued());
+
+        // the queued hedge is dropped once the request completes
+        byte[] bytes = new byte[]{1, 2, 3};
+        requests.get(0).complete(bytes);
+        Assert.assertSame(bytes, result.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(0, scheduler.getRunning());
+        Assert.assertEquals(0, scheduler.getQueued());
+    }
+
+    @Test
+    public void failsOnlyWhenAllRequestsFail() throws Exception {
+        HedgingPolicy policy = policy(true, 1, 10);
+        warmUp(policy, 10);
+
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        CompletableFuture<byte[]> result = policy.execute(HOST, () -> issue(requests));
+        timer.fire();
+        Assert.assertEquals(2, requests.size());
+        requests.get(0).completeExceptionally(new RuntimeException("first"));
+        Assert.assertFalse(result.isDone());
+        requests.get(1).completeExceptionally(new RuntimeException("second"));
+        try {
+            result.get(1, TimeUnit.SECONDS);
+            Assert.fail("Should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("second", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void budgetExhausted() {
+        HedgingPolicy policy = policy(true, 0, 1);
+        warmUp(policy, 10);
+
+        List<CompletableFuture<byte[]>> first = new ArrayList<>();
+        policy.execute(HOST, () -> issue(first));
+        timer.fire();
+        Assert.assertEquals(2, first.size());
+
+        // no rate, the single hedge of the budget has been spent
+        List<CompletableFuture<byte[]>> second = new ArrayList<>();
+        policy.execute(HOST, () -> issue(second));
+        timer.fire();
+        Assert.assertEquals(1, second.size());
+        Assert.assertEquals(1, policy.getHedgedCount());
+    }
+
+    @Test
+    public void latenciesBySizeClass() {
+        HedgingPolicy policy = policy(true, 1, 10);
+        long small = 1024;
+        long large = 4 * 1024 * 1024;
+        for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+            policy.execute(HOST, small, () -> CompletableFuture.completedFuture(new byte[0]));
+        }
+        Assert.assertEquals(0, policy.getHedgeDelay(HOST, small));
+        // the latencies of the small ranges don't tell how long a large one takes
+        Assert.assertEquals(-1, policy.getHedgeDelay(HOST, large));
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+            policy.execute(HOST, large, () -> issue(requests));
+        }
+        advance(100);
+        requests.forEach(r -> r.complete(new byte[0]));
+        Assert.assertTrue(timer.hedges.isEmpty());
+        Assert.assertEquals(0, policy.getHedgedCount());
+
+        // and the large ranges don't slow down the hedging of the small ones
+        Assert.assertEquals(100, policy.getHedgeDelay(HOST, large));
+        Assert.assertEquals(0, policy.getHedgeDelay(HOST, small));
+        Assert.assertEquals(0, policy.getHedgeDelay(HOST, small + 1));
+    }
+
+    private HedgingPolicy policy(boolean enabled, double rate, int budget) {
+        return new HedgingPolicy(enabled, 95, rate, budget, timer, clock::get);
+    }
+
+    /**
+     * Executes enough requests taking the provided latency for the policy to start hedging.
+     */
+    private void warmUp(HedgingPolicy policy, long latency) {
+        for (int i = 0; i < HedgingPolicy.MIN_SAMPLES; i++) {
+            CompletableFuture<byte[]> request = new CompletableFuture<>();
+            policy.execute(HOST, () -> request);
+            advance(latency);
+            request.complete(new byte[0]);
+        }
+        // the hedges scheduled while warming up are cancelled, the requests having completed
+        timer.hedges.clear();
+        timer.delays.clear();
+    }
+
+    private void advance(long millis) {
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    private static CompletableFuture<byte[]> issue(List<CompletableFuture<byte[]>> requests) {
+        CompletableFuture<byte[]> request = new CompletableFuture<>();
+        requests.add(request);
+        return request;
+    }
+
+    /**
+     * Keeps the scheduled hedges until the test fires them.
+     */
+    private static class ManualTimer implements HedgingPolicy.HedgeTimer {
+
+        final List<FutureTask<?>> hedges = new ArrayList<>();
+        final List<Long> delays = new ArrayList<>();
+
+        @Override
+        public Future<?> schedule(Runnable hedge, long delay, TimeUnit unit) {
+            FutureTask<?> task = new FutureTask<>(hedge, null);
+            hedges.add(task);
+            delays.add(unit.toMillis(delay));
+            return task;
+        }
+
+        /**
+         * Runs the hedges scheduled so far, as if their delay had elapsed.
+         */
+        void fire() {
+            List<FutureTask<?>> scheduled = new ArrayList<>(hedges);
+            hedges.clear();
+            delays.clear();
+            scheduled.forEach(FutureTask::run);
+        }
+    }
+}
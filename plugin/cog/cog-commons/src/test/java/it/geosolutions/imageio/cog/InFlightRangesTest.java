@@ -0,0 +1,136 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageioimpl.plugins.cog.InFlightRanges;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Testing the de-duplication of concurrent range requests.
+ */
+public class InFlightRangesTest {
+
+    @Test
+    public void joinContainedRange() throws Exception {
+        String source = "http://test.url.com/join.tif";
+        AtomicInteger requests = new AtomicInteger();
+        CompletableFuture<byte[]> pending = new CompletableFuture<>();
+
+        CompletableFuture<byte[]> owner = InFlightRanges.fetch(source, new long[]{100, 199}, () -> {
+            requests.incrementAndGet();
+            return pending;
+        });
+        CompletableFuture<byte[]> joined = InFlightRanges.fetch(source, new long[]{150, 159}, () -> {
+            requests.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        Assert.assertEquals(1, requests.get());
+        Assert.assertEquals(1, InFlightRanges.size(source));
+
+        byte[] bytes = new byte[100];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        pending.complete(bytes);
+        Assert.assertSame(bytes, owner.get());
+        byte[] joinedBytes = joined.get();
+        Assert.assertEquals(10, joinedBytes.length);
+        Assert.assertEquals(50, joinedBytes[0]);
+        Assert.assertEquals(59, joinedBytes[9]);
+        Assert.assertEquals(0, InFlightRanges.size(source));
+    }
+
+    @Test
+    public void doNotJoinOtherRangesOrSources() {
+        String source = "http://test.url.com/other.tif";
+        AtomicInteger requests = new AtomicInteger();
+        InFlightRanges.fetch(source, new long[]{100, 199}, () -> {
+            requests.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        // overlapping, but not contained
+        InFlightRanges.fetch(source, new long[]{150, 250}, () -> {
+            requests.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        // same range, different source
+        InFlightRanges.fetch("user@" + source, new long[]{100, 199}, () -> {
+            requests.incrementAndGet();
+            return new CompletableFuture<>();
+        });
+        Assert.assertEquals(3, requests.get());
+    }
+
+    @Test
+    public void requestIssuedOutsideOfTheLock() throws Exception {
+        String source = "http://test.url.com/blocking.tif";
+        AtomicInteger requests = new AtomicInteger();
+        CompletableFuture<byte[]> owner = InFlightRanges.fetch(source, new long[]{0, 99}, () -> {
+            requests.incrementAndGet();
+            // a slow request, e.g. a blocking file read, does not hold back other requests of the same source
+            CompletableFuture<CompletableFuture<byte[]>> other = CompletableFuture.supplyAsync(() -> {
+                InFlightRanges.fetch(source, new long[]{200, 299}, () -> {
+                    requests.incrementAndGet();
+                    return CompletableFuture.completedFuture(new byte[100]);
+                });
+                // a contained range joins the request being issued
+                return InFlightRanges.fetch(source, new long[]{10, 19}, () -> {
+                    requests.incrementAndGet();
+                    return new CompletableFuture<>();
+                });
+            });
+            try {
+                CompletableFuture<byte[]> joined = other.get(5, TimeUnit.SECONDS);
+                Assert.assertFalse(joined.isDone());
+            } catch (Exception e) {
+                throw new AssertionError(e);
+            }
+            return CompletableFuture.completedFuture(new byte[100]);
+        });
+        Assert.assertEquals(100, owner.get().length);
+        Assert.assertEquals(2, requests.get());
+        Assert.assertEquals(0, InFlightRanges.size(source));
+    }
+
+    @Test
+    public void cancellationReachesTheRequest() {
+        String source = "http://test.url.com/cancelled.tif";
+        CompletableFuture<byte[]> request = new CompletableFuture<>();
+        CompletableFuture<byte[]> owner = InFlightRanges.fetch(source, new long[]{0, 9}, () -> request);
+
+        owner.cancel(true);
+        Assert.assertTrue(request.isCancelled());
+        Assert.assertEquals(0, InFlightRanges.size(source));
+    }
+
+    @Test
+    public void refetchWhenOwnerCancels() throws Exception {
+        String source = "http://test.url.com/cancel.tif";
+        CompletableFuture<byte[]> owner = InFlightRanges.fetch(source, new long[]{0, 9},
+                CompletableFuture::new);
+        CompletableFuture<byte[]> joined = InFlightRanges.fetch(source, new long[]{0, 4},
+                () -> CompletableFuture.completedFuture(new byte[5]));
+
+        owner.cancel(true);
+        Assert.assertEquals(5, joined.get().length);
+    }
+}
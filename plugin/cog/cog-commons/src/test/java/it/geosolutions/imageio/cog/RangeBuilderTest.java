@@ -62,4 +62,69 @@ public class RangeBuilderTest {
         // verify the byte length of the range
         Assert.assertEquals(tileRange2End - initialRangeStart, ranges.get(0)[1] - ranges.get(0)[0]);
     }
+
+    @Test
+    public void mergeSmallGaps() {
+        // tiles separated by a 4 bytes ghost leader are merged when the gap is tolerated
+        ContiguousRangeComposer rangeBuilder = new ContiguousRangeComposer(0, 99, 16, Long.MAX_VALUE, 0);
+        rangeBuilder.addTileRange(104, 199);
+        rangeBuilder.addTileRange(204, 299);
+        rangeBuilder.addTileRange(1000, 1099);
+        List<long[]> ranges = new ArrayList<>(rangeBuilder.getRanges());
+        Assert.assertEquals(2, ranges.size());
+        Assert.assertArrayEquals(new long[]{0, 299}, ranges.get(0));
+        Assert.assertArrayEquals(new long[]{1000, 1099}, ranges.get(1));
+
+        // but not without a gap tolerance
+        rangeBuilder = new ContiguousRangeComposer(0, 99);
+        rangeBuilder.addTileRange(104, 199);
+        rangeBuilder.addTileRange(204, 299);
+        Assert.assertEquals(3, rangeBuilder.getRanges().size());
+    }
+
+    @Test
+    public void splitLongRanges() {
+        // contiguous tiles are split on tile boundaries when exceeding the max range length
+        ContiguousRangeComposer rangeBuilder = new ContiguousRangeComposer(0, 99, 0, 250, 0);
+        rangeBuilder.addTileRange(100, 199);
+        rangeBuilder.addTileRange(200, 299);
+        rangeBuilder.addTileRange(300, 399);
+        rangeBuilder.addTileRange(400, 799);
+        List<long[]> ranges = new ArrayList<>(rangeBuilder.getRanges());
+        Assert.assertEquals(3, ranges.size());
+        Assert.assertArrayEquals(new long[]{0, 199}, ranges.get(0));
+        Assert.assertArrayEquals(new long[]{200, 399}, ranges.get(1));
+        // a single tile longer than the max length is not split
+        Assert.assertArrayEquals(new long[]{400, 799}, ranges.get(2));
+    }
+
+    @Test
+    public void capRequests() {
+        // the ranges separated by the smallest gaps are merged first
+        ContiguousRangeComposer rangeBuilder = new ContiguousRangeComposer(0, 99, 0, Long.MAX_VALUE, 2);
+        rangeBuilder.addTileRange(1000, 1099);
+        rangeBuilder.addTileRange(200, 299);
+        rangeBuilder.addTileRange(5000, 5099);
+        List<long[]> ranges = new ArrayList<>(rangeBuilder.getRanges());
+        Assert.assertEquals(2, ranges.size());
+        Assert.assertArrayEquals(new long[]{0, 1099}, ranges.get(0));
+        Assert.assertArrayEquals(new long[]{5000, 5099}, ranges.get(1));
+    }
+
+    @Test
+    public void capManyRequests() {
+        // many ranges with growing gaps, the last ones are kept apart
+        ContiguousRangeComposer rangeBuilder = new ContiguousRangeComposer(0, 99, 0, Long.MAX_VALUE, 3);
+        long start = 0;
+        for (int i = 1; i < 10000; i++) {
+            start += 100 + i;
+            rangeBuilder.addTileRange(start, start + 99);
+        }
+        List<long[]> ranges = new ArrayList<>(rangeBuilder.getRanges());
+        Assert.assertEquals(3, ranges.size());
+        Assert.assertEquals(0, ranges.get(0)[0]);
+        Assert.assertEquals(start - 100 - 9999, ranges.get(1)[0]);
+        Assert.assertEquals(start, ranges.get(2)[0]);
+        Assert.assertEquals(start + 99, ranges.get(2)[1]);
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageioimpl.plugins.cog.RangeReadScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Testing the concurrency limits and the queuing of the range requests.
+ */
+public class RangeReadSchedulerTest {
+
+    @Test
+    public void globalLimit() throws Exception {
+        RangeReadScheduler scheduler = new RangeReadScheduler(2, 2, 10);
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        List<CompletableFuture<byte[]>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            results.add(scheduler.submit("host" + i, this, () -> issue(requests)));
+        }
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals(2, scheduler.getRunning());
+        Assert.assertEquals(1, scheduler.getQueued());
+
+        byte[] bytes = new byte[]{1, 2, 3};
+        requests.get(0).complete(bytes);
+        Assert.assertSame(bytes, results.get(0).get());
+        // the queued request has been issued
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals(0, scheduler.getQueued());
+
+        requests.get(1).complete(bytes);
+        requests.get(2).complete(bytes);
+        Assert.assertEquals(0, scheduler.getRunning());
+    }
+
+    @Test
+    public void perHostLimit() {
+        RangeReadScheduler scheduler = new RangeReadScheduler(10, 1, 10);
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        scheduler.submit("a", this, () -> issue(requests));
+        scheduler.submit("a", this, () -> issue(requests));
+        // another host is not held back by the first one
+        scheduler.submit("b", this, () -> issue(requests));
+        Assert.assertEquals(2, requests.size());
+        Assert.assertEquals(1, scheduler.getQueued());
+
+        requests.get(0).complete(new byte[0]);
+        Assert.assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void roundRobinAmongRequesters() {
+        RangeReadScheduler scheduler = new RangeReadScheduler(1, 1, 10);
+        List<String> issued = new ArrayList<>();
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        Object large = new Object();
+        Object small = new Object();
+        for (int i = 0; i < 3; i++) {
+            String name = "large" + i;
+            scheduler.submit("host", large, () -> {
+                issued.add(name);
+                return issue(requests);
+            });
+        }
+        scheduler.submit("host", small, () -> {
+            issued.add("small");
+            return issue(requests);
+        });
+        for (int i = 0; i < 4; i++) {
+            requests.get(i).complete(new byte[0]);
+        }
+        // the small read doesn't wait for the whole large one
+        Assert.assertEquals("large0", issued.get(0));
+        Assert.assertEquals("small", issued.get(2));
+    }
+
+    @Test
+    public void cancelQueued() {
+        RangeReadScheduler scheduler = new RangeReadScheduler(1, 1, 10);
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        CompletableFuture<byte[]> running = scheduler.submit("host", this, () -> issue(requests));
+        CompletableFuture<byte[]> queued = scheduler.submit("host", this, () -> issue(requests));
+        Assert.assertEquals(1, scheduler.getQueued());
+
+        queued.cancel(true);
+        Assert.assertEquals(0, scheduler.getQueued());
+        running.cancel(true);
+        // cancellation propagates to the issued request and releases its slot
+        Assert.assertTrue(requests.get(0).isCancelled());
+        Assert.assertEquals(0, scheduler.getRunning());
+        Assert.assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void congestion() {
+        RangeReadScheduler scheduler = new RangeReadScheduler(1, 1, 1);
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        scheduler.submit("host", this, () -> issue(requests));
+        scheduler.submit("host", this, () -> issue(requests));
+        Assert.assertFalse(scheduler.isCongested());
+        scheduler.submit("host", this, () -> issue(requests));
+        Assert.assertTrue(scheduler.isCongested());
+
+        requests.get(0).complete(new byte[0]);
+        Assert.assertFalse(scheduler.isCongested());
+    }
+
+    @Test
+    public void completedRequests() throws Exception {
+        RangeReadScheduler scheduler = new RangeReadScheduler(1, 1, Integer.MAX_VALUE);
+        List<CompletableFuture<byte[]>> requests = new ArrayList<>();
+        scheduler.submit("host", this, () -> issue(requests));
+        // local reads complete while being issued, the queue must be drained without recursing on each of them
+        byte[] bytes = new byte[0];
+        List<CompletableFuture<byte[]>> results = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            results.add(scheduler.submit("host", this, () -> CompletableFuture.completedFuture(bytes)));
+        }
+        Assert.assertEquals(20000, scheduler.getQueued());
+
+        requests.get(0).complete(bytes);
+        for (CompletableFuture<byte[]> result : results) {
+            Assert.assertSame(bytes, result.get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(0, scheduler.getQueued());
+        Assert.assertEquals(0, scheduler.getRunning());
+    }
+
+    private static CompletableFuture<byte[]> issue(List<CompletableFuture<byte[]>> requests) {
+        CompletableFuture<byte[]> request = new CompletableFuture<>();
+        requests.add(request);
+        return request;
+    }
+}
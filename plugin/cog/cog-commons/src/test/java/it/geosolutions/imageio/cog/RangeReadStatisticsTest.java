@@ -0,0 +1,138 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageioimpl.plugins.cog.AbstractRangeReader;
+import it.geosolutions.imageioimpl.plugins.cog.FileRangeReader;
+import it.geosolutions.imageioimpl.plugins.cog.RangeReadListener;
+import it.geosolutions.imageioimpl.plugins.cog.RangeReadStatistics;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Testing the collection of range read and cache statistics.
+ */
+public class RangeReadStatisticsTest {
+
+    private static final double DELTA = 1e-9;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("cog", ".tif");
+        Files.write(file.toPath(), new byte[10000]);
+        AbstractRangeReader.invalidateCache();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        AbstractRangeReader.invalidateCache();
+    }
+
+    @Test
+    public void hitRatio() {
+        RangeReadStatistics statistics = new RangeReadStatistics();
+        Assert.assertTrue(Double.isNaN(statistics.getHitRatio(RangeReadStatistics.TIER_BLOCKS)));
+        statistics.cacheHit(RangeReadStatistics.TIER_BLOCKS);
+        statistics.cacheHit(RangeReadStatistics.TIER_BLOCKS);
+        statistics.cacheHit(RangeReadStatistics.TIER_BLOCKS);
+        statistics.cacheMiss(RangeReadStatistics.TIER_BLOCKS);
+        statistics.cacheEviction(RangeReadStatistics.TIER_TILES);
+        Assert.assertEquals(0.75, statistics.getHitRatio(RangeReadStatistics.TIER_BLOCKS), DELTA);
+        Assert.assertEquals(Long.valueOf(3), statistics.getHits().get(RangeReadStatistics.TIER_BLOCKS));
+        Assert.assertEquals(Long.valueOf(1), statistics.getMisses().get(RangeReadStatistics.TIER_BLOCKS));
+        Assert.assertEquals(Long.valueOf(1), statistics.getEvictions().get(RangeReadStatistics.TIER_TILES));
+    }
+
+    @Test
+    public void percentiles() {
+        RangeReadStatistics statistics = new RangeReadStatistics();
+        for (int i = 0; i < 90; i++) {
+            statistics.rangeFetched("host", 1000, 2000000);
+        }
+        for (int i = 0; i < 10; i++) {
+            statistics.rangeFetched("host", 100000, 50000000);
+        }
+        Assert.assertEquals(100, statistics.getRequests());
+        Assert.assertEquals(1090000, statistics.getBytesFetched());
+        // percentiles are the upper bounds of power of two buckets
+        Assert.assertEquals(1023, statistics.getRangeSizeMedian());
+        Assert.assertEquals(131071, statistics.getRangeSize95th());
+        Assert.assertEquals(2.047, statistics.getFetchLatencyMedian(), DELTA);
+        Assert.assertEquals(65.535, statistics.getFetchLatency99th(), DELTA);
+    }
+
+    @Test
+    public void requestsAndOverFetch() {
+        RangeReadStatistics statistics = new RangeReadStatistics();
+        statistics.readCompleted(1);
+        statistics.readCompleted(3);
+        statistics.readPlanned(600, 1000);
+        statistics.readPlanned(200, 200);
+        Assert.assertEquals(2, statistics.getReads());
+        Assert.assertEquals(2, statistics.getRequestsPerReadMean(), DELTA);
+        Assert.assertEquals(3, statistics.getRequestsPerRead95th());
+        Assert.assertEquals(0.2 / 0.6, statistics.getOverFetchRatio(), DELTA);
+
+        statistics.reset();
+        Assert.assertEquals(0, statistics.getReads());
+        Assert.assertEquals(0, statistics.getOverFetchRatio(), DELTA);
+        Assert.assertTrue(statistics.getHits().isEmpty());
+    }
+
+    @Test
+    public void listeners() {
+        RangeReadStatistics statistics = new RangeReadStatistics();
+        AtomicInteger hits = new AtomicInteger();
+        RangeReadListener listener = new RangeReadListener() {
+            @Override
+            public void cacheHit(String tier) {
+                hits.incrementAndGet();
+            }
+        };
+        statistics.addListener(listener);
+        statistics.cacheHit(RangeReadStatistics.TIER_HEADERS);
+        statistics.removeListener(listener);
+        statistics.cacheHit(RangeReadStatistics.TIER_HEADERS);
+        Assert.assertEquals(1, hits.get());
+    }
+
+    @Test
+    public void rangeReader() {
+        RangeReadStatistics statistics = new RangeReadStatistics();
+        FileRangeReader reader = new FileRangeReader(file.toURI(), 1024);
+        reader.setStatistics(statistics);
+        reader.readHeader();
+        reader.read(new long[]{2000, 2999}, new long[]{5000, 5999});
+        reader.read(new long[]{2000, 2999});
+
+        Assert.assertEquals(Long.valueOf(1), statistics.getMisses().get(RangeReadStatistics.TIER_HEADERS));
+        Assert.assertEquals(3, statistics.getRequests());
+        Assert.assertEquals(3000, statistics.getBytesFetched());
+        Assert.assertEquals(2, statistics.getReads());
+        Assert.assertEquals(1.5, statistics.getRequestsPerReadMean(), DELTA);
+    }
+}
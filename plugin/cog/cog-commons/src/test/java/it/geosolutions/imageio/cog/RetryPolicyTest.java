@@ -0,0 +1,143 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageioimpl.plugins.cog.HttpStatusException;
+import it.geosolutions.imageioimpl.plugins.cog.RetryPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Testing the retry policy used by the asynchronous range readers.
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void retriesUntilSuccess() throws Exception {
+        RetryPolicy policy = new RetryPolicy(3, 1, 5, 10000);
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = policy.execute(() -> {
+            CompletableFuture<String> attempt = new CompletableFuture<>();
+            if (attempts.incrementAndGet() < 3) {
+                attempt.completeExceptionally(new IOException("failure " + attempts.get()));
+            } else {
+                attempt.complete("done");
+            }
+            return attempt;
+        }, policy.deadline(), "test");
+
+        Assert.assertEquals("done", result.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws Exception {
+        RetryPolicy policy = new RetryPolicy(2, 1, 5, 10000);
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = policy.execute(() -> {
+            CompletableFuture<String> attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(new IOException("failure " + attempts.incrementAndGet()));
+            return attempt;
+        }, policy.deadline(), "test");
+
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail("The request should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+            Assert.assertEquals("failure 3", e.getCause().getMessage());
+        }
+        Assert.assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryPastDeadline() throws Exception {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 1000, 100);
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = policy.execute(() -> {
+            attempts.incrementAndGet();
+            CompletableFuture<String> attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(new IOException("failure"));
+            return attempt;
+        }, policy.deadline(), "test");
+
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail("The request should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+        Assert.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void retriesOnlyTransientFailures() throws Exception {
+        Assert.assertEquals(3, countAttempts(new HttpStatusException(503, "unavailable")));
+        Assert.assertEquals(3, countAttempts(new HttpStatusException(429, "too many requests")));
+        Assert.assertEquals(1, countAttempts(new HttpStatusException(404, "not found")));
+        Assert.assertEquals(1, countAttempts(new HttpStatusException(416, "range not satisfiable")));
+        Assert.assertEquals(1, countAttempts(new IllegalArgumentException("bad request")));
+    }
+
+    private static int countAttempts(Throwable failure) throws Exception {
+        RetryPolicy policy = new RetryPolicy(2, 1, 5, 10000);
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = policy.execute(() -> {
+            attempts.incrementAndGet();
+            CompletableFuture<String> attempt = new CompletableFuture<>();
+            attempt.completeExceptionally(failure);
+            return attempt;
+        }, policy.deadline(), "test");
+
+        try {
+            result.get(5, TimeUnit.SECONDS);
+            Assert.fail("The request should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertSame(failure, e.getCause());
+        }
+        return attempts.get();
+    }
+
+    @Test
+    public void cancellationPropagatesToAttempt() {
+        RetryPolicy policy = new RetryPolicy(3, 1, 5, 10000);
+        CompletableFuture<String> attempt = new CompletableFuture<>();
+        CompletableFuture<String> result = policy.execute(() -> attempt, policy.deadline(), "test");
+
+        result.cancel(true);
+        Assert.assertTrue(attempt.isCancelled());
+    }
+
+    @Test
+    public void exponentialBackoff() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000, 10000);
+        for (int i = 0; i < 20; i++) {
+            long first = policy.backoff(1);
+            Assert.assertTrue(first >= 50 && first <= 100);
+            long third = policy.backoff(3);
+            Assert.assertTrue(third >= 200 && third <= 400);
+            long capped = policy.backoff(8);
+            Assert.assertTrue(capped >= 500 && capped <= 1000);
+        }
+    }
+}
@@ -53,6 +53,7 @@ import io.reactivex.Single;
 import java.io.Closeable;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.util.function.Consumer;
 
 /**
  * AzureClient class has been adapted from GWC Azure blob module.
@@ -160,10 +161,18 @@ class AzureClient implements Closeable {
     }
 
     public byte[] getBytes(String key, BlobRange range) {
+        return getBytes(key, range, eTag -> {});
+    }
+
+    /**
+     * Downloads the provided range, passing the ETag of the blob the bytes have been read from to the consumer.
+     */
+    public byte[] getBytes(String key, BlobRange range, Consumer<String> eTagConsumer) {
         BlockBlobURL blob = container.createBlockBlobURL(key);
         try {
             Single<DownloadResponse> download = blob.download(range, null, false, null);
             DownloadResponse response = download.blockingGet();
+            eTagConsumer.accept(response.headers().eTag());
 
             ByteBuffer buffer =
                     FlowableUtil.collectBytesInBuffer(response.body(null)).blockingGet();
@@ -178,6 +187,18 @@ class AzureClient implements Closeable {
         }
     }
 
+    /**
+     * Returns the current ETag of the blob, reading its properties without downloading any content.
+     */
+    public String getETag(String key) {
+        BlockBlobURL blob = container.createBlockBlobURL(key);
+        try {
+            return blob.getProperties(null, null).blockingGet().headers().eTag();
+        } catch (RestException e) {
+            throw new RuntimeException("Failed to retrieve properties for " + key, e);
+        }
+    }
+
     @Override
     public void close() {
         factory.close();
@@ -19,16 +19,16 @@ package it.geosolutions.imageioimpl.plugins.cog;
 import com.microsoft.azure.storage.blob.BlobRange;
 import com.microsoft.azure.storage.blob.BlobURLParts;
 import com.microsoft.azure.storage.blob.URLParser;
+import com.microsoft.rest.v2.RestException;
 import it.geosolutions.imageio.core.BasicAuthURI;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -120,22 +120,17 @@ public class AzureRangeReader extends AbstractRangeReader {
         return new BlobRange().withOffset(rangeStart).withCount(rangeLength);
     }
 
-    @Override
-    public Map<Long, byte[]> read(Collection<long[]> ranges) {
-        return read(ranges.toArray(new long[][]{}));
-    }
-
     @Override
     public byte[] readHeader() {
         LOGGER.fine("reading header");
-        byte[] currentHeader  = HEADERS_CACHE.get(uri.toString());
+        byte[] currentHeader  = getCachedHeader();
 
         if (currentHeader != null) {
             return currentHeader;
         }
         BlobRange range = buildRange(headerOffset, headerLength);
         try {
-            byte[] headerBytes = client.getBytes(blobKey, range);
+            byte[] headerBytes = completeHeader(client.getBytes(blobKey, range, this::setVersion));
             data.put(0L, headerBytes);
             HEADERS_CACHE.put(uri.toString(), headerBytes);
             return headerBytes;
@@ -146,38 +141,46 @@ public class AzureRangeReader extends AbstractRangeReader {
 
     }
 
+    /**
+     * Revalidates by reading the blob properties, comparing the ETag, which changes on every blob update.
+     */
     @Override
-    public Map<Long, byte[]> read(long[]... ranges) {
-        ranges = reconcileRanges(ranges);
-        Map<Long, CompletableFuture<byte[]>> downloads = new HashMap<>(ranges.length);
-
-        Map<Long, byte[]> values = new ConcurrentHashMap<>();
-        List<Future<?>> futures = new ArrayList<>();
-        for (int i = 0; i < ranges.length; i++) {
-            long[] range = ranges[i];
-            final byte[] dataRange = data.get(range);
-            // Check for available data.
-            if (dataRange == null) {
-                Future<?> future = EXECUTORS.submit(() -> {
-                    int length = (int) (range[1] - range[0]) + 1;
-                    byte[] bytes = readInternal(range[0], length);
-                    data.put(range[0], bytes);
-                    values.put(range[0], bytes);
-                });
-                futures.add(future);
-            } else {
-                values.put(range[0], dataRange);
-            }
-        }
-        for (Future<?> future : futures) {
+    protected String revalidate(String version) {
+        return client.getETag(blobKey);
+    }
+
+    /**
+     * Issues a single asynchronous request for the provided range, running on the reader thread pool.
+     *
+     * @param range the start/end byte locations to be read
+     * @return a future completing with the bytes of the range
+     */
+    protected CompletableFuture<byte[]> readAsync(long[] range) {
+        int length = (int) (range[1] - range[0]) + 1;
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                future.get();
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to read data from Google Storage", e);
+                return readInternal(range[0], length);
+            } catch (RuntimeException e) {
+                throw new CompletionException(translate(e));
             }
-        }
+        }, EXECUTORS);
+    }
 
-        return values;
+    /**
+     * Translates the client failures into the exceptions the {@link RetryPolicy} knows about: errors
+     * answered by the service carry their HTTP status code, wrapped I/O errors are exposed as such.
+     */
+    static Throwable translate(RuntimeException error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RestException && ((RestException) cause).response() != null) {
+                return new HttpStatusException(((RestException) cause).response().statusCode(),
+                        error.getMessage(), error);
+            }
+            if (cause instanceof IOException) {
+                return new IOException(error.getMessage(), error);
+            }
+        }
+        return error;
     }
 
     private byte[] readInternal(long readOffset, int readLength) {
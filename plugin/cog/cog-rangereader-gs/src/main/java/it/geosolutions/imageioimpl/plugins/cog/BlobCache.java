@@ -119,4 +119,18 @@ class BlobCache {
             throw new RuntimeException("Failed to look up blob in cache: " + blobId, e);
         }
     }
+
+    /**
+     * Drops the cached blob and looks it up again, to get its latest generation.
+     */
+    static Blob reloadBlob(String auth, BlobId blobId) {
+        try {
+            Storage storage = auth != null ? STORAGE_CACHE.get(auth) : DEFAULT_STORAGE;
+            BlobKey key = new BlobKey(storage, blobId);
+            BLOB_CACHE.invalidate(key);
+            return BLOB_CACHE.get(key).orElse(null);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to look up blob in cache: " + blobId, e);
+        }
+    }
 }
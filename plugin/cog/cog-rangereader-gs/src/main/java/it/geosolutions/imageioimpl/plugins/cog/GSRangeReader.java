@@ -19,21 +19,16 @@ package it.geosolutions.imageioimpl.plugins.cog;
 import com.google.cloud.ReadChannel;
 import com.google.cloud.storage.Blob;
 import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.StorageException;
 import it.geosolutions.imageio.core.BasicAuthURI;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.ByteBuffer;
-import java.time.Instant;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -145,6 +140,22 @@ public class GSRangeReader extends AbstractRangeReader {
         }
     }
 
+    /**
+     * Revalidates by reloading the blob metadata, comparing its ETag, which changes with the generation.
+     */
+    @Override
+    protected String revalidate(String version) {
+        Blob latest = BlobCache.reloadBlob(authUri.getUser(), id);
+        if (latest == null) {
+            throw new IllegalArgumentException("No blob exist at " + id);
+        }
+        synchronized (this) {
+            // the blob identifies a generation, the old one may no longer be readable
+            this.blob = latest;
+        }
+        return latest.getEtag();
+    }
+
     private Blob getBlob() {
         if (this.blob == null) {
             synchronized (this) {
@@ -158,95 +169,52 @@ public class GSRangeReader extends AbstractRangeReader {
         return this.blob;
     }
 
-    @Override
-    public Map<Long, byte[]> read(Collection<long[]> ranges) {
-        return read(ranges.toArray(new long[][]{}));
-    }
-
     @Override
     public byte[] readHeader() {
         LOGGER.fine("reading header");
-        byte[] currentHeader = HEADERS_CACHE.get(uri.toString());
+        byte[] currentHeader = getCachedHeader();
 
         if (currentHeader != null) {
             return currentHeader;
         }
 
         byte[] headerBytes = readInternal(headerOffset, headerLength);
+        setVersion(getBlob().getEtag());
+        headerBytes = completeHeader(headerBytes);
         data.put(0L, headerBytes);
         HEADERS_CACHE.put(uri.toString(), headerBytes);
         return headerBytes;
     }
 
-    @Override
-    public Map<Long, byte[]> read(long[]... ranges) {
-        ranges = reconcileRanges(ranges);
-
-        Instant start = Instant.now();
-        Map<Long, CompletableFuture<byte[]>> downloads = new HashMap<>(ranges.length);
-
-        Map<Long, byte[]> values = new ConcurrentHashMap<>();
-        List<Future<?>> futures = new ArrayList<>();
-        for (int i = 0; i < ranges.length; i++) {
-            long[] range = ranges[i];
-            final byte[] dataRange = data.get(range);
-            // Check for available data.
-            if (dataRange == null) {
-                Future<?> future = EXECUTORS.submit(() -> {
-                    int length = (int) (range[1] - range[0]) + 1;
-                    byte[] bytes = readInternal(range[0], length);
-                    data.put(range[0], bytes);
-                    values.put(range[0], bytes);
-                });
-                futures.add(future);
-            } else {
-                values.put(range[0], dataRange);
-            }
-        }
-        for (Future<?> future : futures) {
+    /**
+     * Issues a single asynchronous request for the provided range, running on the reader thread pool.
+     *
+     * @param range the start/end byte locations to be read
+     * @return a future completing with the bytes of the range
+     */
+    protected CompletableFuture<byte[]> readAsync(long[] range) {
+        int length = (int) (range[1] - range[0]) + 1;
+        return CompletableFuture.supplyAsync(() -> {
             try {
-                future.get();
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to read data from Google Storage", e);
+                return readInternal(range[0], length);
+            } catch (RuntimeException e) {
+                throw new CompletionException(translate(e));
             }
-        }
-
-        return values;
+        }, EXECUTORS);
     }
 
     /**
-     * Blocks until all ranges have been read and written to the ByteBuffer
-     *
-     * @param data
-     * @param downloads
+     * Translates storage failures into the exceptions the {@link RetryPolicy} knows about: errors
+     * answered by the service carry their HTTP status code, the ones without a code are I/O errors.
      */
-    protected void awaitCompletion(Map<Long, byte[]>
-                                           data, Map<Long,
-            CompletableFuture<byte[]>> downloads) {
-        boolean stillWaiting = true;
-        List<Long> completed = new ArrayList<>(downloads.size());
-        while (stillWaiting) {
-            boolean allDone = true;
-            for (Map.Entry<Long, CompletableFuture<byte[]>> entry :
-                    downloads.entrySet()) {
-                long key = entry.getKey();
-                CompletableFuture<byte[]> future = entry.getValue();
-                if (future.isDone()) {
-                    if (!completed.contains(key)) {
-                        try {
-                            data.put(key, future.get());
-                            completed.add(key);
-                        } catch (Exception e) {
-                            LOGGER.warning("Unable to write data from S3 to the destination " +
-                                    "ByteBuffer. "
-                                    + e.getMessage());
-                        }
-                    }
-                } else {
-                    allDone = false;
-                }
+    static Throwable translate(RuntimeException error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StorageException) {
+                int code = ((StorageException) cause).getCode();
+                return code > 0 ? new HttpStatusException(code, error.getMessage(), error)
+                        : new IOException(error.getMessage(), error);
             }
-            stillWaiting = !allDone;
         }
+        return error;
     }
 }
@@ -19,54 +19,64 @@ package it.geosolutions.imageioimpl.plugins.cog;
 import okhttp3.Call;
 import okhttp3.Callback;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 /**
- * Callback for asynchronous HTTP requests for OkHttp
+ * Callback for asynchronous HTTP requests for OkHttp, exposing the outcome of the request as a
+ * {@link CompletableFuture}.  Cancelling the future cancels the underlying call.
  *
  * @author joshfix
  * Created on 2019-09-24
  */
 public class AsyncHttpCallback implements Callback {
 
-    enum Status {
-        DONE,
-        FAILED,
-        IN_PROGRESS;
-    }
-
-    private Status status = Status.IN_PROGRESS;
+    private final CompletableFuture<byte[]> future = new CompletableFuture<>();
     private long startPosition;
     private long endPosition;
-    private byte[] bytes;
     private final static Logger LOGGER = Logger.getLogger(AsyncHttpCallback.class.getName());
 
     @Override
     public void onFailure(@NotNull Call call, @NotNull IOException e) {
-        LOGGER.severe("Error executing HTTP request. " + e);
-        status = Status.FAILED;
+        if (!call.isCanceled()) {
+            LOGGER.fine("Error executing HTTP request for range " + startPosition + "-" + endPosition + ". " + e);
+        }
+        future.completeExceptionally(e);
     }
 
     @Override
-    public void onResponse(@NotNull Call call, @NotNull Response response) throws IOException {
-        try {
-            bytes = response.body().bytes();
-            status = Status.DONE;
+    public void onResponse(@NotNull Call call, @NotNull Response response) {
+        try (ResponseBody body = response.body()) {
+            if (!response.isSuccessful()) {
+                future.completeExceptionally(new HttpStatusException(response.code(), "Unable to read range "
+                        + startPosition + "-" + endPosition + " from " + call.request().url() + ". Code: " + response.code()
+                        + ". Reason: " + response.message()));
+                return;
+            }
+            future.complete(body.bytes());
         } catch (IOException ioe) {
-            status = Status.FAILED;
-            throw ioe;
+            future.completeExceptionally(ioe);
         }
     }
 
-    public Status getStatus() {
-        return status;
-    }
-
-    public void resetStatus() {
-        status = Status.IN_PROGRESS;
+    /**
+     * Enqueues the call, completing the returned future with the bytes of the response body.
+     *
+     * @param call the call to be executed
+     * @return the future completing with the response bytes
+     */
+    public CompletableFuture<byte[]> enqueue(Call call) {
+        future.whenComplete((bytes, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(this);
+        return future;
     }
 
     public AsyncHttpCallback initRange(long[] range) {
@@ -83,7 +93,7 @@ public class AsyncHttpCallback implements Callback {
         return endPosition;
     }
 
-    public byte[] getBytes() {
-        return bytes;
+    public CompletableFuture<byte[]> getFuture() {
+        return future;
     }
 }
@@ -0,0 +1,183 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Callback for asynchronous HTTP requests asking for multiple ranges at once, exposing the outcome of the request
+ * as a {@link CompletableFuture} of the bytes of each range, keyed by range start.  The body of a
+ * <code>multipart/byteranges</code> response is parsed while streamed.  A single part response, returned when the
+ * server merges the requested ranges, is sliced into the requested ranges.
+ *
+ * The future completes with null if the server ignored the ranges and returned the whole resource, without reading
+ * it.  Cancelling the future cancels the underlying call.
+ */
+public class AsyncMultipartHttpCallback implements Callback {
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private final CompletableFuture<Map<Long, byte[]>> future = new CompletableFuture<>();
+    private final List<long[]> ranges;
+    private final static Logger LOGGER = Logger.getLogger(AsyncMultipartHttpCallback.class.getName());
+
+    /**
+     * @param ranges the start/end byte locations requested
+     */
+    public AsyncMultipartHttpCallback(List<long[]> ranges) {
+        this.ranges = ranges;
+    }
+
+    @Override
+    public void onFailure(@NotNull Call call, @NotNull IOException e) {
+        if (!call.isCanceled()) {
+            LOGGER.fine("Error executing HTTP request for " + ranges.size() + " ranges. " + e);
+        }
+        future.completeExceptionally(e);
+    }
+
+    @Override
+    public void onResponse(@NotNull Call call, @NotNull Response response) {
+        try (ResponseBody body = response.body()) {
+            if (response.code() == 200) {
+                // ranges not supported, don't download the whole resource
+                future.complete(null);
+                return;
+            }
+            if (response.code() != 206) {
+                future.completeExceptionally(new HttpStatusException(response.code(), "Unable to read "
+                        + ranges.size() + " ranges from " + call.request().url() + ". Code: " + response.code()
+                        + ". Reason: " + response.message()));
+                return;
+            }
+            NavigableMap<Long, byte[]> parts = new TreeMap<>();
+            MediaType contentType = body.contentType();
+            if (contentType != null && "multipart".equals(contentType.type())
+                    && "byteranges".equals(contentType.subtype())) {
+                String boundary = contentType.parameter("boundary");
+                if (boundary == null) {
+                    throw new IOException("Missing boundary in multipart response from " + call.request().url());
+                }
+                readParts(body.source(), boundary, parts);
+            } else {
+                long[] part = parseContentRange(response.header("Content-Range"));
+                parts.put(part[0], body.bytes());
+            }
+            future.complete(slice(parts));
+        } catch (IOException ioe) {
+            future.completeExceptionally(ioe);
+        }
+    }
+
+    /**
+     * Reads the parts of a <code>multipart/byteranges</code> body, keyed by part start.
+     */
+    static void readParts(BufferedSource source, String boundary, Map<Long, byte[]> parts) throws IOException {
+        String delimiter = "--" + boundary;
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            line = line.trim();
+            if (line.equals(delimiter + "--")) {
+                return;
+            }
+            if (!line.equals(delimiter)) {
+                // preamble or line break closing the previous part
+                continue;
+            }
+            long[] part = null;
+            while ((line = source.readUtf8Line()) != null && !line.isEmpty()) {
+                int separator = line.indexOf(':');
+                if (separator > 0 && line.substring(0, separator).trim().equalsIgnoreCase("Content-Range")) {
+                    part = parseContentRange(line.substring(separator + 1).trim());
+                }
+            }
+            if (part == null) {
+                throw new IOException("Missing Content-Range in multipart response part");
+            }
+            parts.put(part[0], source.readByteArray(part[1] - part[0] + 1));
+        }
+        throw new IOException("Truncated multipart response, missing the closing delimiter");
+    }
+
+    static long[] parseContentRange(String contentRange) throws IOException {
+        Matcher matcher = contentRange != null ? CONTENT_RANGE.matcher(contentRange.trim()) : null;
+        if (matcher == null || !matcher.matches()) {
+            throw new IOException("Invalid Content-Range: " + contentRange);
+        }
+        return new long[]{Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))};
+    }
+
+    /**
+     * Extracts the requested ranges from the returned parts, which may be merged by the server.  As with single range
+     * requests, a range running past the end of the resource is returned truncated, the server having clipped it.
+     */
+    private Map<Long, byte[]> slice(NavigableMap<Long, byte[]> parts) throws IOException {
+        Map<Long, byte[]> values = new HashMap<>(ranges.size());
+        for (long[] range : ranges) {
+            Map.Entry<Long, byte[]> part = parts.floorEntry(range[0]);
+            long partEnd = part != null ? part.getKey() + part.getValue().length : -1;
+            if (partEnd <= range[0]) {
+                throw new IOException("The response does not contain the range " + range[0] + "-" + range[1]);
+            }
+            int length = (int) (Math.min(range[1] + 1, partEnd) - range[0]);
+            byte[] bytes = part.getValue();
+            if (part.getKey() != range[0] || bytes.length != length) {
+                bytes = new byte[length];
+                System.arraycopy(part.getValue(), (int) (range[0] - part.getKey()), bytes, 0, length);
+            }
+            values.put(range[0], bytes);
+        }
+        return values;
+    }
+
+    /**
+     * Enqueues the call, completing the returned future with the bytes of the requested ranges.
+     *
+     * @param call the call to be executed
+     * @return the future completing with the bytes of each range, keyed by range start
+     */
+    public CompletableFuture<Map<Long, byte[]>> enqueue(Call call) {
+        future.whenComplete((bytes, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(this);
+        return future;
+    }
+
+    public CompletableFuture<Map<Long, byte[]>> getFuture() {
+        return future;
+    }
+}
@@ -25,15 +25,25 @@ import java.net.URL;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 /**
  * RangeReader implementation to asynchronously read multiple ranges from an HTTP endpoint.
  *
+ * When multipart reads are enabled, with the <code>it.geosolutions.cog.http.multipart</code> system property or
+ * {@link #setMultipart(boolean)}, the ranges of a read are packed into requests asking for several ranges at once,
+ * answered with <code>multipart/byteranges</code> responses, saving a round trip per range on high latency links.
+ * Servers ignoring multiple ranges are detected and read with one request per range from then on.  Multipart
+ * requests are scheduled, retried and hedged like the single range ones, but they are not shared with the
+ * concurrent reads of the same ranges through {@link InFlightRanges}, which tracks single ranges: concurrent reads
+ * of overlapping areas may download the same bytes twice.
+ *
  * @author joshfix
  * Created on 2019-08-21
  */
@@ -44,8 +54,22 @@ public class HttpRangeReader extends AbstractRangeReader {
 
     private final static int MAX_RETRIES;
 
+    public static final String MULTIPART_KEY = "it.geosolutions.cog.http.multipart";
+    public static final String MULTIPART_MAX_RANGES_KEY = "it.geosolutions.cog.http.multipart.maxranges";
+
+    public static final boolean DEFAULT_MULTIPART = Boolean.getBoolean(MULTIPART_KEY);
+    /** Keeps the Range header of a multipart request within the header size limits of common servers */
+    public static final int DEFAULT_MULTIPART_MAX_RANGES = Integer.getInteger(MULTIPART_MAX_RANGES_KEY, 32);
+
+    /** The servers, identified by URI authority, which answered a multipart request with the whole resource */
+    private static final Set<String> MULTIPART_UNSUPPORTED = ConcurrentHashMap.newKeySet();
+
+    private boolean multipart = DEFAULT_MULTIPART;
+    private int multipartMaxRanges = DEFAULT_MULTIPART_MAX_RANGES;
+
     static {
-        String maxRetries = System.getProperty("it.geosolutions.cog.http.maxretries", "5");
+        String maxRetries = System.getProperty("it.geosolutions.cog.http.maxretries",
+                String.valueOf(RetryPolicy.DEFAULT.getMaxRetries()));
         MAX_RETRIES = Integer.parseInt(maxRetries);
     }
 
@@ -69,12 +93,13 @@ public class HttpRangeReader extends AbstractRangeReader {
             credentials = Credentials.basic(uri.getUser(), uri.getPassword());
         }
         client = HttpClientFactory.getClient();
+        retryPolicy = retryPolicy.withMaxRetries(MAX_RETRIES);
     }
 
     @Override
     public byte[] readHeader() {
         LOGGER.fine("reading header");
-        byte[] currentHeader  = HEADERS_CACHE.get(uri.toString());
+        byte[] currentHeader  = getCachedHeader();
 
         if (currentHeader != null) {
             return currentHeader;
@@ -89,6 +114,8 @@ public class HttpRangeReader extends AbstractRangeReader {
 
             // get the header bytes
             byte[] headerBytes = response.body().bytes();
+            setVersion(response.header("ETag", response.header("Last-Modified")));
+            headerBytes = completeHeader(headerBytes);
             data.put(0L, headerBytes);
             HEADERS_CACHE.put(uri.toString(), headerBytes);
             return headerBytes;
@@ -97,6 +124,33 @@ public class HttpRangeReader extends AbstractRangeReader {
         }
     }
 
+    /**
+     * Revalidates with a conditional HEAD request, using <code>If-None-Match</code> when the cached version is an
+     * ETag and <code>If-Modified-Since</code> otherwise.
+     */
+    @Override
+    protected String revalidate(String version) {
+        boolean etag = version.startsWith("\"") || version.startsWith("W/");
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(uri.toString())
+                .head()
+                .header(etag ? "If-None-Match" : "If-Modified-Since", version);
+        if (credentials != null) {
+            requestBuilder.header("Authorization", credentials);
+        }
+        try (Response response = client.newCall(requestBuilder.build()).execute()) {
+            if (response.code() == 304) {
+                return version;
+            }
+            if (!response.isSuccessful()) {
+                throw new IOException("Code: " + response.code() + ". Reason: " + response.message());
+            }
+            return response.header(etag ? "ETag" : "Last-Modified");
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to revalidate " + uri, e);
+        }
+    }
+
     @Override
     public byte[] fetchHeader() {
         LOGGER.fine("Fetching header");
@@ -131,44 +185,58 @@ public class HttpRangeReader extends AbstractRangeReader {
         }
     }
 
-    @Override
-    public Map<Long, byte[]> read(Collection<long[]> ranges) {
-        return read(ranges.toArray(new long[][]{}));
-    }
-
     @Override
     public Map<Long, byte[]> read(long[]... ranges) {
         ranges = reconcileRanges(ranges);
         if (ranges.length == 0) {
-            return data;
+            return new HashMap<>();
         }
 
         Instant start = Instant.now();
-        List<AsyncHttpCallback> callbacks = new ArrayList<>(ranges.length);
+        long deadline = retryPolicy.deadline();
+        Map<Long, CompletableFuture<byte[]>> downloads = new HashMap<>(ranges.length);
         Map<Long, byte[]> values = new HashMap<>();
-        int missingRanges[] = new int[ranges.length];
-        int missing = 0;
+        List<long[]> missing = new ArrayList<>(ranges.length);
 
         for (int i = 0; i < ranges.length; i++) {
-            byte[] dataRange = data.get(ranges[i][0]);
+            byte[] dataRange = getAvailable(ranges[i]);
             // check for available data
             if (dataRange == null) {
-                Call call = client.newCall(buildRequest(ranges[i], null));
-                AsyncHttpCallback callback = new AsyncHttpCallback().initRange(ranges[i]);
-                call.enqueue(callback);
-                callbacks.add(callback);
-                // Mark the range as missing
-                missingRanges[missing++] = i;
+                statistics.cacheMiss(RangeReadStatistics.TIER_RANGES);
+                missing.add(ranges[i]);
             } else {
+                statistics.cacheHit(RangeReadStatistics.TIER_RANGES);
                 values.put(ranges[i][0], dataRange);
             }
         }
 
-        awaitCompletion(values, callbacks);
+        List<CompletableFuture<Map<Long, byte[]>>> batches = new ArrayList<>();
+        if (missing.size() > 1 && isMultipartEnabled()) {
+            int batchSize = Math.max(1, multipartMaxRanges);
+            for (int i = 0; i < missing.size(); i += batchSize) {
+                List<long[]> batch = missing.subList(i, Math.min(missing.size(), i + batchSize));
+                CompletableFuture<Map<Long, byte[]>> batchDownload = fetchMultipart(batch, deadline);
+                batches.add(batchDownload);
+                for (long[] range : batch) {
+                    downloads.put(range[0], batchDownload.thenApply(bytes -> bytes.get(range[0])));
+                }
+            }
+        } else {
+            for (long[] range : missing) {
+                downloads.put(range[0], fetch(range, deadline, this::readAsync));
+            }
+        }
+        statistics.readCompleted(batches.isEmpty() ? downloads.size() : batches.size());
+
+        try {
+            awaitCompletion(values, downloads, deadline);
+        } finally {
+            // the batches are not cancelled along with the ranges they serve
+            batches.forEach(batch -> batch.cancel(true));
+        }
         Instant end = Instant.now();
         LOGGER.fine("Time to read all ranges: " + Duration.between(start, end));
-        for (int k = 0; k < missing; k++) {
-            long range = ranges[missingRanges[k]][0];
+        for (Long range : downloads.keySet()) {
             data.put(range, values.get(range));
         }
         return values;
@@ -176,52 +244,114 @@ public class HttpRangeReader extends AbstractRangeReader {
     }
 
     /**
-     * Blocks until all ranges have been read and written to the ByteBuffer
+     * Issues a single asynchronous request for the provided range.
      *
-     * @param data
-     * @param callbacks
+     * @param range the start/end byte locations to be read
+     * @return a future completing with the bytes of the range
      */
-    protected void awaitCompletion(Map<Long, byte[]> data, List<AsyncHttpCallback> callbacks) {
-        boolean stillWaiting = true;
-        List<Long> completed = new ArrayList<>(callbacks.size());
-        int attempts = 0;
-        while (stillWaiting) {
-            boolean allDone = true;
-            for (AsyncHttpCallback callback : callbacks) {
-                AsyncHttpCallback.Status status = callback.getStatus();
-                if (status == AsyncHttpCallback.Status.DONE) {
-                    if (!completed.contains(callback.getStartPosition())) {
-                        try {
-                            data.put(callback.getStartPosition(), callback.getBytes());
-                            completed.add(callback.getStartPosition());
-                        } catch (Exception e) {
-                            LOGGER.severe("An error occurred while writing the contents of the HTTP response "
-                                    + "to the final ByteBuffer.  " + e.getMessage());
-                        }
-                    }
-                } else if (status == AsyncHttpCallback.Status.FAILED) {
-                    // Re-enqueue
-                    if (attempts < MAX_RETRIES) {
-                        long[] range = new long[]{callback.getStartPosition(), callback.getEndPosition()};
-                        callback.resetStatus();
-                        Call call = client.newCall(buildRequest(range, "*/*"));
-                        call.enqueue(callback);
-                        allDone = false;
-                        attempts++;
-                    }
-                } else {
-                    allDone = false;
+    protected CompletableFuture<byte[]> readAsync(long[] range) {
+        Call call = client.newCall(buildRequest(range, null));
+        return new AsyncHttpCallback().initRange(range).enqueue(call);
+    }
+
+    /**
+     * Fetches the provided ranges with a single multipart request, retried according to the {@link RetryPolicy} of
+     * this reader and hedged according to its {@link HedgingPolicy}.  Falls back to one request per range if the
+     * server doesn't support multiple ranges.
+     *
+     * @param ranges the start/end byte locations to be read
+     * @param deadline the deadline of the whole read, in {@link System#nanoTime()} units
+     * @return a future completing with the bytes of each range, keyed by range start
+     */
+    protected CompletableFuture<Map<Long, byte[]>> fetchMultipart(List<long[]> ranges, long deadline) {
+        String host = uri.getHost();
+        long requested = System.nanoTime();
+        long length = ranges.stream().mapToLong(range -> range[1] - range[0] + 1).sum();
+        CompletableFuture<Map<Long, byte[]>> multipartDownload = retryPolicy.execute(
+                () -> scheduler.submit(host, this, () -> hedgingPolicy.execute(host, length,
+                        () -> readMultipartAsync(ranges), hedge -> scheduler.submit(host, this, hedge))), deadline,
+                ranges.size() + " ranges of " + uri);
+        CompletableFuture<Map<Long, byte[]>> result = new CompletableFuture<>();
+        result.whenComplete((values, error) -> multipartDownload.cancel(true));
+        multipartDownload.whenComplete((values, error) -> {
+            if (error != null) {
+                result.completeExceptionally(RetryPolicy.unwrap(error));
+            } else if (values != null) {
+                long latency = System.nanoTime() - requested;
+                values.values().forEach(bytes -> statistics.rangeFetched(host, bytes.length, latency));
+                result.complete(values);
+            } else {
+                LOGGER.fine(uri.getAuthority() + " does not support multiple ranges, reading them one by one");
+                MULTIPART_UNSUPPORTED.add(uri.getAuthority());
+                Map<Long, CompletableFuture<byte[]>> downloads = new HashMap<>(ranges.size());
+                for (long[] range : ranges) {
+                    downloads.put(range[0], fetch(range, deadline, this::readAsync));
                 }
+                result.whenComplete((v, e) -> downloads.values().forEach(download -> download.cancel(true)));
+                CompletableFuture.allOf(downloads.values().toArray(new CompletableFuture[0]))
+                        .whenComplete((v, e) -> {
+                            if (e != null) {
+                                result.completeExceptionally(RetryPolicy.unwrap(e));
+                                return;
+                            }
+                            Map<Long, byte[]> fetched = new HashMap<>(ranges.size());
+                            downloads.forEach((start, download) -> fetched.put(start, download.join()));
+                            result.complete(fetched);
+                        });
             }
-            stillWaiting = !allDone;
+        });
+        return result;
+    }
+
+    /**
+     * Issues a single asynchronous request for all the provided ranges.
+     *
+     * @param ranges the start/end byte locations to be read
+     * @return a future completing with the bytes of each range, keyed by range start, or with null if the server
+     * doesn't support multiple ranges
+     */
+    protected CompletableFuture<Map<Long, byte[]>> readMultipartAsync(List<long[]> ranges) {
+        StringBuilder byteRanges = new StringBuilder();
+        for (long[] range : ranges) {
+            if (byteRanges.length() > 0) {
+                byteRanges.append(',');
+            }
+            byteRanges.append(range[0]).append('-').append(range[1]);
         }
+        Call call = client.newCall(buildRequest(byteRanges.toString(), null));
+        return new AsyncMultipartHttpCallback(ranges).enqueue(call);
+    }
+
+    /**
+     * Returns true if the ranges of a read are packed into multipart requests.
+     */
+    public boolean isMultipartEnabled() {
+        return multipart && !MULTIPART_UNSUPPORTED.contains(uri.getAuthority());
+    }
+
+    /**
+     * Enables reading several ranges with a single request, if the server supports it.
+     */
+    public void setMultipart(boolean multipart) {
+        this.multipart = multipart;
+    }
+
+    /**
+     * Sets the maximum number of ranges asked in a single multipart request.
+     */
+    public void setMultipartMaxRanges(int multipartMaxRanges) {
+        this.multipartMaxRanges = multipartMaxRanges;
     }
 
     protected Request buildRequest(long[] range, String accept) {
-        LOGGER.fine("Building request for range " + range[0] + '-' + range[1] + " to " + uri.toString());
+        return buildRequest(range[0] + "-" + range[1], accept);
+    }
+
+    private Request buildRequest(String byteRanges, String accept) {
+        LOGGER.fine("Building request for range " + byteRanges + " to " + uri.toString());
         Request.Builder requestBuilder = new Request.Builder()
                 .url(uri.toString())
-                .header("range", "bytes=" + range[0] + "-" + range[1]);
+                .header("range", "bytes=" + byteRanges);
         if (accept != null && !accept.isEmpty()) {
             requestBuilder.header("Accept", accept);
         }
@@ -0,0 +1,174 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.cog;
+
+import it.geosolutions.imageioimpl.plugins.cog.HttpRangeReader;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Testing multipart range reads against a local server.
+ */
+public class HttpRangeReaderMultipartTest {
+
+    private static final String BOUNDARY = "3d6b6a416f9b5";
+
+    private final byte[] content = new byte[4096];
+    private MockWebServer server;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        server = new MockWebServer();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.shutdown();
+    }
+
+    @Test
+    public void multipartRead() throws Exception {
+        server.setDispatcher(new RangeDispatcher(true));
+        server.start();
+        HttpRangeReader reader = new HttpRangeReader(server.url("/multipart.tif").toString(), 16);
+        reader.setMultipart(true);
+
+        Map<Long, byte[]> values = reader.read(new long[]{100, 199}, new long[]{1000, 1049}, new long[]{2000, 2000});
+        assertRange(values, 100, 199);
+        assertRange(values, 1000, 1049);
+        assertRange(values, 2000, 2000);
+        Assert.assertEquals(1, server.getRequestCount());
+        Assert.assertEquals("bytes=100-199,1000-1049,2000-2000", server.takeRequest().getHeader("Range"));
+    }
+
+    @Test
+    public void multipartReadInBatches() throws Exception {
+        server.setDispatcher(new RangeDispatcher(true));
+        server.start();
+        HttpRangeReader reader = new HttpRangeReader(server.url("/batches.tif").toString(), 16);
+        reader.setMultipart(true);
+        reader.setMultipartMaxRanges(2);
+
+        Map<Long, byte[]> values = reader.read(new long[]{100, 199}, new long[]{1000, 1049}, new long[]{2000, 2099});
+        assertRange(values, 100, 199);
+        assertRange(values, 1000, 1049);
+        assertRange(values, 2000, 2099);
+        Assert.assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void multipartReadPastTheEnd() throws Exception {
+        server.setDispatcher(new RangeDispatcher(true));
+        server.start();
+        HttpRangeReader reader = new HttpRangeReader(server.url("/tail.tif").toString(), 16);
+        reader.setMultipart(true);
+
+        // the server clips the last range to the end of the content
+        Map<Long, byte[]> values = reader.read(new long[]{100, 199}, new long[]{4000, 4199});
+        assertRange(values, 100, 199);
+        assertRange(values, 4000, content.length - 1);
+        Assert.assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void fallbackWhenUnsupported() throws Exception {
+        server.setDispatcher(new RangeDispatcher(false));
+        server.start();
+        HttpRangeReader reader = new HttpRangeReader(server.url("/single.tif").toString(), 16);
+        reader.setMultipart(true);
+
+        Map<Long, byte[]> values = reader.read(new long[]{100, 199}, new long[]{1000, 1049});
+        assertRange(values, 100, 199);
+        assertRange(values, 1000, 1049);
+        // the multipart request, then one per range
+        Assert.assertEquals(3, server.getRequestCount());
+        Assert.assertFalse(reader.isMultipartEnabled());
+
+        values = reader.read(new long[]{3000, 3099}, new long[]{4000, 4095});
+        assertRange(values, 3000, 3099);
+        assertRange(values, 4000, 4095);
+        Assert.assertEquals(5, server.getRequestCount());
+    }
+
+    private void assertRange(Map<Long, byte[]> values, int start, int end) {
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, start, end + 1), values.get((long) start));
+    }
+
+    /**
+     * Serves the test content, answering requests for several ranges with a multipart response, or with the whole
+     * content if multipart is not supported.
+     */
+    private class RangeDispatcher extends Dispatcher {
+
+        private final boolean multipart;
+
+        RangeDispatcher(boolean multipart) {
+            this.multipart = multipart;
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            String[] ranges = request.getHeader("Range").substring("bytes=".length()).split(",");
+            if (ranges.length == 1) {
+                int[] range = parse(ranges[0]);
+                return new MockResponse().setResponseCode(206)
+                        .setHeader("Content-Type", "image/tiff")
+                        .setHeader("Content-Range", contentRange(range))
+                        .setBody(new Buffer().write(content, range[0], range[1] - range[0] + 1));
+            }
+            if (!multipart) {
+                return new MockResponse().setResponseCode(200)
+                        .setHeader("Content-Type", "image/tiff")
+                        .setBody(new Buffer().write(content));
+            }
+            Buffer body = new Buffer();
+            for (String spec : ranges) {
+                int[] range = parse(spec);
+                body.writeUtf8("\r\n--" + BOUNDARY + "\r\n")
+                        .writeUtf8("Content-Type: image/tiff\r\n")
+                        .writeUtf8("Content-Range: " + contentRange(range) + "\r\n\r\n")
+                        .write(content, range[0], range[1] - range[0] + 1);
+            }
+            body.writeUtf8("\r\n--" + BOUNDARY + "--\r\n");
+            return new MockResponse().setResponseCode(206)
+                    .setHeader("Content-Type", "multipart/byteranges; boundary=" + BOUNDARY)
+                    .setBody(body);
+        }
+
+        private int[] parse(String spec) {
+            String[] bounds = spec.trim().split("-");
+            return new int[]{Integer.parseInt(bounds[0]), Math.min(Integer.parseInt(bounds[1]), content.length - 1)};
+        }
+
+        private String contentRange(int[] range) {
+            return "bytes " + range[0] + "-" + range[1] + "/" + content.length;
+        }
+    }
+}
@@ -19,17 +19,24 @@ package it.geosolutions.imageioimpl.plugins.cog;
 import it.geosolutions.imageio.core.BasicAuthURI;
 import software.amazon.awssdk.core.ResponseBytes;
 import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.time.Duration;
 import java.time.Instant;
-import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Logger;
 
 import static software.amazon.awssdk.core.async.AsyncResponseTransformer.toBytes;
@@ -104,15 +111,10 @@ public class S3RangeReader extends AbstractRangeReader {
         }
     }
 
-    @Override
-    public Map<Long, byte[]> read(Collection<long[]> ranges) {
-        return read(ranges.toArray(new long[][]{}));
-    }
-
     @Override
     public byte[] readHeader() {
         LOGGER.fine("reading header");
-        byte[] currentHeader  = HEADERS_CACHE.get(uri.toString());
+        byte[] currentHeader  = getCachedHeader();
 
         if (currentHeader != null) {
             return currentHeader;
@@ -123,6 +125,9 @@ public class S3RangeReader extends AbstractRangeReader {
 
             // get the header bytes
             byte[] headerBytes = responseBytes.asByteArray();
+            GetObjectResponse response = responseBytes.response();
+            setVersion(getVersion(response.eTag(), response.lastModified()));
+            headerBytes = completeHeader(headerBytes);
             data.put(0L, headerBytes);
             HEADERS_CACHE.put(uri.toString(), headerBytes);
             return headerBytes;
@@ -132,6 +137,30 @@ public class S3RangeReader extends AbstractRangeReader {
         }
     }
 
+    /**
+     * Revalidates with a HEAD object request, comparing the ETag, or the last modification time if missing.
+     */
+    @Override
+    protected String revalidate(String version) {
+        HeadObjectRequest request = HeadObjectRequest.builder()
+                .bucket(configProps.getBucket())
+                .key(configProps.getKey())
+                .build();
+        try {
+            HeadObjectResponse response = client.headObject(request).get();
+            return getVersion(response.eTag(), response.lastModified());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while revalidating " + uri, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to revalidate " + uri, e.getCause());
+        }
+    }
+
+    private static String getVersion(String eTag, Instant lastModified) {
+        return eTag != null ? eTag : lastModified != null ? lastModified.toString() : null;
+    }
+
     private GetObjectRequest buildRequest() {
         return GetObjectRequest.builder()
                 .bucket(configProps.getBucket())
@@ -140,75 +169,55 @@ public class S3RangeReader extends AbstractRangeReader {
                 .build();
     }
 
-    @Override
-    public Map<Long, byte[]> read(long[]... ranges) {
-        ranges = reconcileRanges(ranges);
-
-        Instant start = Instant.now();
-        Map<Long, CompletableFuture<ResponseBytes<GetObjectResponse>>> downloads = new HashMap<>(ranges.length);
-
-        Map<Long, byte[]> values = new HashMap<>();
-        int missingRanges[] = new int[ranges.length];
-        int missing = 0;
-        for (int i = 0; i < ranges.length; i++) {
-            byte[] dataRange = data.get(ranges[i]);
-            // Check for available data.
-            if (dataRange == null) {
-                GetObjectRequest request = GetObjectRequest.builder()
-                        .bucket(configProps.getBucket())
-                        .key(configProps.getKey())
-                        .range("bytes=" + ranges[i][0] + "-" + ranges[i][1])
-                        .build();
-                CompletableFuture<ResponseBytes<GetObjectResponse>> futureGet =
-                        client.getObject(request, AsyncResponseTransformer.toBytes());
-                downloads.put(ranges[i][0], futureGet);
-                // Mark the range as missing
-                missingRanges[missing++] = i;
-            } else {
-                values.put(ranges[i][0], dataRange);
+    /**
+     * Issues a single asynchronous request for the provided range.
+     *
+     * @param range the start/end byte locations to be read
+     * @return a future completing with the bytes of the range
+     */
+    protected CompletableFuture<byte[]> readAsync(long[] range) {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(configProps.getBucket())
+                .key(configProps.getKey())
+                .range("bytes=" + range[0] + "-" + range[1])
+                .build();
+        CompletableFuture<ResponseBytes<GetObjectResponse>> futureGet =
+                client.getObject(request, AsyncResponseTransformer.toBytes());
+        CompletableFuture<byte[]> bytes = futureGet.handle((response, error) -> {
+            if (error != null) {
+                throw new CompletionException(translate(RetryPolicy.unwrap(error)));
             }
-        }
-
-        awaitCompletion(values, downloads);
-        Instant end = Instant.now();
-        LOGGER.fine("Time to read all ranges: " + Duration.between(start, end));
-        for (int k = 0; k < missing; k++) {
-            long range = ranges[missingRanges[k]][0];
-            data.put(range, values.get(range));
-        }
-        return values;
+            return response.asByteArray();
+        });
+        // handle does not propagate cancellation upstream, do it explicitly
+        bytes.whenComplete((value, error) -> {
+            if (bytes.isCancelled()) {
+                futureGet.cancel(true);
+            }
+        });
+        return bytes;
     }
 
     /**
-     * Blocks until all ranges have been read and written to the ByteBuffer
-     *
-     * @param data
-     * @param downloads
+     * Translates the SDK failures into the exceptions the {@link RetryPolicy} knows about: service errors
+     * carry their HTTP status code, timeouts and client side I/O errors become plain I/O errors, anything
+     * else (e.g., missing credentials) is not retried.
      */
-    protected void awaitCompletion(Map<Long, byte[]> data, Map<Long, CompletableFuture<ResponseBytes<GetObjectResponse>>> downloads) {
-        boolean stillWaiting = true;
-        List<Long> completed = new ArrayList<>(downloads.size());
-        while (stillWaiting) {
-            boolean allDone = true;
-            for (Map.Entry<Long, CompletableFuture<ResponseBytes<GetObjectResponse>>> entry : downloads.entrySet()) {
-                long key = entry.getKey();
-                CompletableFuture<ResponseBytes<GetObjectResponse>> future = entry.getValue();
-                if (future.isDone()) {
-                    if (!completed.contains(key)) {
-                        try {
-                            data.put(key, future.get().asByteArray());
-                            completed.add(key);
-                        } catch (Exception e) {
-                            LOGGER.warning("Unable to write data from S3 to the destination ByteBuffer. "
-                                    + e.getMessage());
-                        }
-                    }
-                } else {
-                    allDone = false;
+    static Throwable translate(Throwable error) {
+        if (error instanceof SdkServiceException) {
+            return new HttpStatusException(((SdkServiceException) error).statusCode(), error.getMessage(), error);
+        }
+        if (error instanceof ApiCallTimeoutException || error instanceof ApiCallAttemptTimeoutException) {
+            return new IOException(error.getMessage(), error);
+        }
+        if (error instanceof SdkClientException) {
+            for (Throwable cause = error.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    return new IOException(error.getMessage(), error);
                 }
             }
-            stillWaiting = !allDone;
         }
+        return error;
     }
 
     @Override
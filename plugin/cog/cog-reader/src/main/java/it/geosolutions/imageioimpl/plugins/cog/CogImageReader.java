@@ -26,13 +26,20 @@ import javax.media.jai.PlanarImage;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 /**
  * ImageReader implementation extending from TIFFImageReader.  If this class encounters an ImageInputStream that does
  * not implement `CogImageInputStream`, it will simply pass the request on to TIFFImageReader.  Otherwise, it will
  * prefetch all requested tiles using the CogImageInputStream and cache them in the input stream object for
- * `TIFFImageReader` to utilize.
+ * `TIFFImageReader` to utilize.  Once the image is read, the neighbouring tiles and the tiles of the parent overview
+ * can be read ahead into the tile cache, as configured in the CogImageReadParam.
  *
  * @author joshfix
  * Created on 2019-08-22
@@ -51,19 +58,90 @@ public class CogImageReader extends TIFFImageReader {
         if (!(stream instanceof CogImageInputStream)) {
             return super.read(imageIndex, param);
         }
+        initStream(param);
 
-        // the input stream needs to have either been initialized with a RangeReader implementation or the RangeReader
-        // implementation class needs to have been provided in a CogImageReadParam
-        if (!((CogImageInputStream)stream).isInitialized() && param instanceof CogImageReadParam) {
-            ((CogImageInputStream) stream).init((CogImageReadParam) param);
+        Rectangle srcRegion = new Rectangle(0, 0, 0, 0);
+        Rectangle tiles = new Rectangle(0, 0, 0, 0);
+        CogTileInfo cogTileInfo = planRead(imageIndex, param, srcRegion, tiles);
+        readTileRanges(cogTileInfo, param);
+
+        // At this point, the CogImageInputStream has fetched and cached all of the bytes from the requested tiles.
+        // Now we proceed with the legacy TIFFImageReader code.
+        BufferedImage image = super.read(imageIndex, param);
+        if (param instanceof CogImageReadParam) {
+            readAhead(imageIndex, (CogImageReadParam) param, srcRegion, tiles);
         }
+        return image;
+    }
 
-        if (!((CogImageInputStream)stream).isInitialized()) {
-            throw new IOException("The CogImageInputStream has not been initialized.  Either pass a RangeReader"
-                    + " implementation to the CogImageInputStream via the constructor or init method, or declare"
-                    + " a valid RangeReader implementation class in the CogImageReadParam.");
+    /**
+     * Reads the image asynchronously, decoding it on the common fork join pool.
+     *
+     * @see #readAsync(int, ImageReadParam, Executor)
+     */
+    public CompletableFuture<BufferedImage> readAsync(int imageIndex, ImageReadParam param) {
+        return readAsync(imageIndex, param, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads the image without blocking the calling thread while the tiles are fetched, so that many concurrent reads
+     * don't need as many threads.  The tiles are located on the calling thread, which only waits on the network if
+     * the header is not cached yet, their ranges are fetched asynchronously and the image is decoded on the provided
+     * executor once they are all available.  The reader must not be used for other reads until the returned future
+     * completes.
+     *
+     * @param imageIndex the index of the image to be read
+     * @param param the parameters of the read
+     * @param executor the executor decoding the image
+     * @return a future completing with the image
+     */
+    public CompletableFuture<BufferedImage> readAsync(int imageIndex, ImageReadParam param, Executor executor) {
+        if (!(stream instanceof CogImageInputStream)) {
+            return CompletableFuture.supplyAsync(() -> decode(imageIndex, param), executor);
+        }
+        Rectangle srcRegion = new Rectangle(0, 0, 0, 0);
+        Rectangle tiles = new Rectangle(0, 0, 0, 0);
+        CompletableFuture<Void> fetched;
+        try {
+            initStream(param);
+            CogTileInfo cogTileInfo = planRead(imageIndex, param, srcRegion, tiles);
+            CogImageReadParam rangeParam = getRangeParam(cogTileInfo, param);
+            fetched = ((CogImageInputStream) stream).readRangesAsync(cogTileInfo,
+                    rangeParam != null ? rangeParam : new CogImageReadParam());
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<BufferedImage> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return fetched.thenApplyAsync(value -> {
+            BufferedImage image = decode(imageIndex, param);
+            if (param instanceof CogImageReadParam) {
+                readAhead(imageIndex, (CogImageReadParam) param, srcRegion, tiles);
+            }
+            return image;
+        }, executor);
+    }
+
+    /**
+     * Decodes the image with the TIFFImageReader code, wrapping failures for completion stages.
+     */
+    private BufferedImage decode(int imageIndex, ImageReadParam param) {
+        try {
+            return super.read(imageIndex, param);
+        } catch (IOException e) {
+            throw new CompletionException(e);
         }
+    }
 
+    /**
+     * Locates the tiles intersecting the source region of the read.
+     *
+     * @param srcRegion receives the source region of the read
+     * @param tiles receives the bounds of the tiles intersecting the source region, as tile indexes
+     * @return the byte ranges of the tiles
+     */
+    private CogTileInfo planRead(int imageIndex, ImageReadParam param, Rectangle srcRegion, Rectangle tiles)
+            throws IOException {
         Rectangle sourceRegion = param.getSourceRegion();
         if (sourceRegion != null) {
             LOGGER.fine("Reading pixels at offset (" + sourceRegion.getX() + ", "
@@ -76,7 +154,6 @@ public class CogImageReader extends TIFFImageReader {
         this.theImage = getDestination(param, getImageTypes(imageIndex), width, height, noData);
 
         // This could probably be made more efficient...
-        Rectangle srcRegion = new Rectangle(0, 0, 0, 0);
         Rectangle destRegion = new Rectangle(0, 0, 0, 0);
 
         computeRegions(imageReadParam, width, height, theImage, srcRegion, destRegion);
@@ -88,13 +165,100 @@ public class CogImageReader extends TIFFImageReader {
         int minTileY = PlanarImage.YToTileY(srcRegion.y, 0, tileOrStripHeight);
         int maxTileX = PlanarImage.XToTileX(srcRegion.x + srcRegion.width - 1, 0, tileOrStripWidth);
         int maxTileY = PlanarImage.YToTileY(srcRegion.y + srcRegion.height - 1, 0, tileOrStripHeight);
+        tiles.setBounds(minTileX, minTileY, maxTileX - minTileX + 1, maxTileY - minTileY + 1);
 
         LOGGER.fine("Reading tiles (" + minTileX + "," + minTileY + ") - (" + maxTileX + "," + maxTileY + ")");
 
-        CogTileInfo cogTileInfoHeader = ((CogImageInputStream)stream).getHeader();
-        CogTileInfo cogTileInfo = new CogTileInfo(cogTileInfoHeader.getHeaderLength());
+        CogTileInfo cogTileInfo = new CogTileInfo(((CogImageInputStream) stream).getHeader().getHeaderLength());
+        addTileRanges(cogTileInfo, minTileX, minTileY, maxTileX, maxTileY);
+        return cogTileInfo;
+    }
+
+    /**
+     * Reads several regions of the same image, as tile seeding jobs do.  The ranges of the union of the tiles
+     * intersecting the regions are planned and fetched at once, so that adjacent regions share the range requests,
+     * and each region is then decoded from the fetched bytes.
+     * <p>
+     * The source region of the provided parameters is ignored, the other settings apply to each region.  When a
+     * destination image is set, all the regions are decoded into it.
+     *
+     * @param imageIndex the index of the image to be read
+     * @param regions the source regions to be read
+     * @param param the parameters of the reads, may be null
+     * @return the images of the regions, in the same order, null for the regions not intersecting the image
+     */
+    public List<BufferedImage> readRegions(int imageIndex, List<Rectangle> regions, CogImageReadParam param)
+            throws IOException {
+        if (param == null) {
+            param = new CogImageReadParam();
+        }
+        List<BufferedImage> images = new ArrayList<>(regions.size());
+        Rectangle originalRegion = param.getSourceRegion();
+        try {
+            if (stream instanceof CogImageInputStream) {
+                initStream(param);
+                param.setSourceRegion(null);
+                prepareRead(imageIndex, param);
+                tilesAcross = (width + tileOrStripWidth - 1) / tileOrStripWidth;
+                tilesDown = (height + tileOrStripHeight - 1) / tileOrStripHeight;
+
+                Rectangle bounds = new Rectangle(0, 0, width, height);
+                CogTileInfo cogTileInfo =
+                        new CogTileInfo(((CogImageInputStream) stream).getHeader().getHeaderLength());
+                for (Rectangle region : regions) {
+                    Rectangle tiled = region.intersection(bounds);
+                    if (!tiled.isEmpty()) {
+                        addTileRanges(cogTileInfo,
+                                PlanarImage.XToTileX(tiled.x, 0, tileOrStripWidth),
+                                PlanarImage.YToTileY(tiled.y, 0, tileOrStripHeight),
+                                PlanarImage.XToTileX(tiled.x + tiled.width - 1, 0, tileOrStripWidth),
+                                PlanarImage.YToTileY(tiled.y + tiled.height - 1, 0, tileOrStripHeight));
+                    }
+                }
+                LOGGER.fine("Reading " + (cogTileInfo.getTileRanges().size() - 1) + " tile(s) for "
+                        + regions.size() + " region(s)");
+                readTileRanges(cogTileInfo, param);
+            }
+
+            // decode each region from the fetched tiles
+            Rectangle bounds = new Rectangle(0, 0, getWidth(imageIndex), getHeight(imageIndex));
+            for (Rectangle region : regions) {
+                if (!region.intersects(bounds)) {
+                    images.add(null);
+                    continue;
+                }
+                param.setSourceRegion(region);
+                images.add(super.read(imageIndex, param));
+            }
+        } finally {
+            param.setSourceRegion(originalRegion);
+        }
+        return images;
+    }
+
+    /**
+     * Initializes the stream with the RangeReader declared in the read parameters, unless already initialized.
+     */
+    private void initStream(ImageReadParam param) throws IOException {
+        // the input stream needs to have either been initialized with a RangeReader implementation or the RangeReader
+        // implementation class needs to have been provided in a CogImageReadParam
+        if (!((CogImageInputStream)stream).isInitialized() && param instanceof CogImageReadParam) {
+            ((CogImageInputStream) stream).init((CogImageReadParam) param);
+        }
+
+        if (!((CogImageInputStream)stream).isInitialized()) {
+            throw new IOException("The CogImageInputStream has not been initialized.  Either pass a RangeReader"
+                    + " implementation to the CogImageInputStream via the constructor or init method, or declare"
+                    + " a valid RangeReader implementation class in the CogImageReadParam.");
+        }
+    }
 
-        // loops through each requested tile and complies information about each tile offset and byte length
+    /**
+     * Loops through the tiles in the provided bounds, and compiles information about each tile offset and byte
+     * length.
+     */
+    private void addTileRanges(CogTileInfo cogTileInfo, int minTileX, int minTileY, int maxTileX, int maxTileY)
+            throws IOException {
         if (planarConfiguration == BaselineTIFFTagSet.PLANAR_CONFIGURATION_PLANAR) {
             for (int band = 0; band < sourceBands.length; band++) {
                 int tileBase = sourceBands[band] * tilesAcross * tilesDown;
@@ -117,13 +281,173 @@ public class CogImageReader extends TIFFImageReader {
                 }
             }
         }
-        cogTileInfoHeader.setHeaderLength(cogTileInfo.getHeaderLength());
-        // read the ranges and cache them in the image input stream delegate
-        ((CogImageInputStream) stream).readRanges(cogTileInfo);
+    }
 
-        // At this point, the CogImageInputStream has fetched and cached all of the bytes from the requested tiles.
-        // Now we proceed with the legacy TIFFImageReader code.
-        return super.read(imageIndex, param);
+    /**
+     * Reads the ranges of the tiles and caches them in the image input stream delegate.
+     */
+    private void readTileRanges(CogTileInfo cogTileInfo, ImageReadParam param) {
+        CogImageReadParam rangeParam = getRangeParam(cogTileInfo, param);
+        if (rangeParam != null) {
+            ((CogImageInputStream) stream).readRanges(cogTileInfo, rangeParam);
+        } else {
+            ((CogImageInputStream) stream).readRanges(cogTileInfo);
+        }
+    }
+
+    /**
+     * Updates the header length from the tiles to be read, and returns the parameters composing the range requests,
+     * issuing fewer requests when the scheduler is congested.
+     *
+     * @return the parameters composing the range requests, or null for the stream defaults
+     */
+    private CogImageReadParam getRangeParam(CogTileInfo cogTileInfo, ImageReadParam param) {
+        ((CogImageInputStream) stream).getHeader().setHeaderLength(cogTileInfo.getHeaderLength());
+        CogImageReadParam rangeParam = param instanceof CogImageReadParam ? (CogImageReadParam) param : null;
+        RangeReadScheduler scheduler = RangeReadScheduler.getDefault();
+        if (scheduler.isCongested()) {
+            LOGGER.fine("Range requests are queueing up, issuing fewer, larger requests");
+            rangeParam = getCongestedRangeParam(rangeParam != null ? rangeParam : new CogImageReadParam(), scheduler);
+        }
+        return rangeParam;
+    }
+
+    /**
+     * Returns a copy of the provided parameters merging the ranges of a read into at most as many requests as the
+     * scheduler runs concurrently for a single host, so that a congested scheduler is not flooded with requests.
+     */
+    private static CogImageReadParam getCongestedRangeParam(CogImageReadParam param, RangeReadScheduler scheduler) {
+        CogImageReadParam congested = new CogImageReadParam(param.getRangeReaderClass(), param.getHeaderLength());
+        int maxRequests = param.getMaxRangeRequests();
+        congested.setMaxRangeRequests(maxRequests > 0 ? Math.min(maxRequests, scheduler.getMaxPerHost())
+                : scheduler.getMaxPerHost());
+        congested.setRangeMaxGap(param.getRangeMaxGap());
+        // no point in splitting long ranges to run them in parallel
+        congested.setRangeMaxLength(0);
+        congested.setPipelined(param.isPipelined());
+        return congested;
+    }
+
+    /**
+     * Fetches into the tile cache, in the background, the rings of tiles surrounding the read ones and the tiles of
+     * the parent overview covering the read region, closest first, within the read-ahead byte budget.
+     */
+    private void readAhead(int imageIndex, CogImageReadParam param, Rectangle srcRegion, Rectangle tiles) {
+        int minTileX = tiles.x;
+        int minTileY = tiles.y;
+        int maxTileX = tiles.x + tiles.width - 1;
+        int maxTileY = tiles.y + tiles.height - 1;
+        int ring = param.getReadAheadRing();
+        long budget = param.getReadAheadBudget();
+        if ((ring <= 0 && !param.isReadAheadOverview()) || budget <= 0) {
+            return;
+        }
+        if (RangeReadScheduler.getDefault().isCongested()) {
+            LOGGER.fine("Range requests are queueing up, skipping read-ahead");
+            return;
+        }
+
+        List<long[]> ranges = new ArrayList<>();
+        try {
+            for (int distance = 1; distance <= ring && budget > 0; distance++) {
+                for (int tileY = minTileY - distance; tileY <= maxTileY + distance && budget > 0; tileY++) {
+                    for (int tileX = minTileX - distance; tileX <= maxTileX + distance && budget > 0; tileX++) {
+                        boolean onRing = tileY == minTileY - distance || tileY == maxTileY + distance
+                                || tileX == minTileX - distance || tileX == maxTileX + distance;
+                        if (onRing && tileX >= 0 && tileY >= 0 && tileX < tilesAcross && tileY < tilesDown) {
+                            budget = addReadAheadTile(ranges, tileX, tileY, tilesAcross, tilesDown, budget);
+                        }
+                    }
+                }
+            }
+
+            // seeking to the overview and back is not possible on forward only streams
+            if (param.isReadAheadOverview() && budget > 0 && !seekForwardOnly) {
+                int fullWidth = width;
+                int fullHeight = height;
+                if (seekToParentOverview(imageIndex, fullWidth)) {
+                    double scaleX = (double) width / fullWidth;
+                    double scaleY = (double) height / fullHeight;
+                    int across = (width + tileOrStripWidth - 1) / tileOrStripWidth;
+                    int down = (height + tileOrStripHeight - 1) / tileOrStripHeight;
+                    int minX = (int) (srcRegion.x * scaleX) / tileOrStripWidth;
+                    int minY = (int) (srcRegion.y * scaleY) / tileOrStripHeight;
+                    int maxX = Math.min(across - 1,
+                            (int) ((srcRegion.x + srcRegion.width - 1) * scaleX) / tileOrStripWidth);
+                    int maxY = Math.min(down - 1,
+                            (int) ((srcRegion.y + srcRegion.height - 1) * scaleY) / tileOrStripHeight);
+                    for (int tileY = minY; tileY <= maxY && budget > 0; tileY++) {
+                        for (int tileX = minX; tileX <= maxX && budget > 0; tileX++) {
+                            budget = addReadAheadTile(ranges, tileX, tileY, across, down, budget);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.fine("Unable to locate the tiles to read ahead: " + e.getMessage());
+        }
+
+        if (!ranges.isEmpty()) {
+            LOGGER.fine("Reading ahead " + ranges.size() + " tile range(s)");
+            ((CogImageInputStream) stream).prefetchRanges(ranges);
+        }
+    }
+
+    /**
+     * Adds the ranges of a tile of the current image, for all the source bands of planar images, if they fit within
+     * the budget.
+     *
+     * @return the remaining budget, or -1 if the tile does not fit
+     */
+    private long addReadAheadTile(List<long[]> ranges, int tileX, int tileY, int across, int down, long budget)
+            throws IOException {
+        boolean planar = planarConfiguration == BaselineTIFFTagSet.PLANAR_CONFIGURATION_PLANAR;
+        int[] bands = planar ? sourceBands : new int[]{0};
+        List<long[]> tileRanges = new ArrayList<>();
+        for (int band : bands) {
+            int tileIndex = (planar ? band * across * down : 0) + tileY * across + tileX;
+            long byteLength = getTileOrStripByteCount(tileIndex);
+            // nothing to read for the empty tiles of sparse COGs
+            if (byteLength <= 0) {
+                continue;
+            }
+            if (byteLength > budget) {
+                return -1;
+            }
+            budget -= byteLength;
+            long offset = getTileOrStripOffset(tileIndex);
+            tileRanges.add(new long[]{offset, offset + byteLength - 1});
+        }
+        ranges.addAll(tileRanges);
+        return budget;
+    }
+
+    /**
+     * Positions the reader on the parent overview, the first following image with a lower resolution, skipping the
+     * mask of the image if any.
+     *
+     * @return true if the parent overview has been found
+     */
+    private boolean seekToParentOverview(int imageIndex, int fullWidth) throws IOException {
+        for (int i = imageIndex + 1; i <= imageIndex + 2; i++) {
+            try {
+                if (getWidth(i) < fullWidth) {
+                    return true;
+                }
+            } catch (IndexOutOfBoundsException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Shares the parsed COG metadata among all the readers of the same COG, as identified by the URI and version of
+     * the stream content.
+     */
+    @Override
+    protected String getPagesInfoCacheKey() {
+        return stream instanceof CogImageInputStream ? ((CogImageInputStream) stream).getContentKey() : null;
     }
 
 }
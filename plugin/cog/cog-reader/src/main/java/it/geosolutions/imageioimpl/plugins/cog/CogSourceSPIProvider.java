@@ -99,7 +99,8 @@ public class CogSourceSPIProvider extends SourceSPIProvider {
 
     /**
      * Instantiate a new RangeReader based on the specified className implementation,
-     * on top of the given URI, using the specified headerLength
+     * on top of the given URI, using the specified headerLength. File URIs are always
+     * read through a {@link FileRangeReader}, since no remote reader can access them.
      *
      * @param className the complete className of the required RangeReader implementation
      * @param uri the source URI
@@ -108,6 +109,9 @@ public class CogSourceSPIProvider extends SourceSPIProvider {
      */
     public static RangeReader createRangeReaderInstance(String className, BasicAuthURI uri, int headerLength) {
         RangeReader rangeReader = null;
+        if ("file".equalsIgnoreCase(uri.getUri().getScheme())) {
+            className = FileRangeReader.class.getName();
+        }
         if (className != null) {
             try {
                 final Class<?> clazz = Class.forName(className);
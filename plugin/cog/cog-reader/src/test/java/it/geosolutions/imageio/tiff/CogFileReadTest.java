@@ -0,0 +1,136 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.tiff;
+
+import it.geosolutions.imageio.plugins.cog.CogImageReadParam;
+import it.geosolutions.imageioimpl.plugins.cog.CogImageReader;
+import it.geosolutions.imageioimpl.plugins.cog.CogImageReaderSpi;
+import it.geosolutions.imageioimpl.plugins.cog.DefaultCogImageInputStream;
+import it.geosolutions.imageioimpl.plugins.cog.FileRangeReader;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReader;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
+import org.junit.Test;
+
+import javax.imageio.stream.FileImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Reads a local COG through the {@link FileRangeReader}, checking the result against the plain TIFF reader.
+ */
+public class CogFileReadTest {
+
+    @Test
+    public void readLocalFile() throws Exception {
+        File file = getTestFile("sampleRGBA_LZW.tif");
+        BufferedImage expected = readWithTiffReader(file);
+
+        CogImageReader reader = new CogImageReader(new CogImageReaderSpi());
+        reader.setInput(new DefaultCogImageInputStream(file.toURI()));
+        CogImageReadParam param = new CogImageReadParam();
+        param.setRangeReaderClass(FileRangeReader.class);
+        param.setSourceRegion(new Rectangle(0, 0, 8, 8));
+        BufferedImage image = reader.read(0, param);
+        reader.dispose();
+
+        assertEquals(8, image.getWidth());
+        assertEquals(8, image.getHeight());
+        Raster actualRaster = image.getData();
+        Raster expectedRaster = expected.getData(new Rectangle(0, 0, 8, 8));
+        int bands = expectedRaster.getNumBands();
+        assertArrayEquals(expectedRaster.getPixels(0, 0, 8, 8, new int[64 * bands]),
+                actualRaster.getPixels(0, 0, 8, 8, new int[64 * bands]));
+    }
+
+    @Test
+    public void readRegions() throws Exception {
+        File file = getTestFile("sampleRGBA_LZW.tif");
+        BufferedImage expected = readWithTiffReader(file);
+
+        CogImageReader reader = new CogImageReader(new CogImageReaderSpi());
+        reader.setInput(new DefaultCogImageInputStream(file.toURI()));
+        CogImageReadParam param = new CogImageReadParam();
+        param.setRangeReaderClass(FileRangeReader.class);
+        List<Rectangle> regions = Arrays.asList(new Rectangle(0, 0, 8, 8), new Rectangle(8, 8, 8, 8),
+                new Rectangle(4, 0, 8, 16), new Rectangle(100, 100, 8, 8));
+        List<BufferedImage> images = reader.readRegions(0, regions, param);
+        reader.dispose();
+
+        assertEquals(regions.size(), images.size());
+        // outside of the image
+        assertNull(images.get(3));
+        for (int i = 0; i < 3; i++) {
+            Rectangle region = regions.get(i);
+            BufferedImage image = images.get(i);
+            assertEquals(region.width, image.getWidth());
+            assertEquals(region.height, image.getHeight());
+            Raster expectedRaster = expected.getData(region);
+            int samples = region.width * region.height * expectedRaster.getNumBands();
+            assertArrayEquals(expectedRaster.getPixels(region.x, region.y, region.width, region.height,
+                    new int[samples]), image.getData().getPixels(0, 0, region.width, region.height, new int[samples]));
+        }
+        // the source region of the parameters is left untouched
+        assertNull(param.getSourceRegion());
+    }
+
+    @Test
+    public void readAsync() throws Exception {
+        File file = getTestFile("sampleRGBA_LZW.tif");
+        BufferedImage expected = readWithTiffReader(file);
+
+        CogImageReader reader = new CogImageReader(new CogImageReaderSpi());
+        reader.setInput(new DefaultCogImageInputStream(file.toURI()));
+        CogImageReadParam param = new CogImageReadParam();
+        param.setRangeReaderClass(FileRangeReader.class);
+        param.setSourceRegion(new Rectangle(4, 4, 8, 8));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            BufferedImage image = reader.readAsync(0, param, executor).get();
+            int bands = expected.getRaster().getNumBands();
+            assertArrayEquals(expected.getData(param.getSourceRegion()).getPixels(4, 4, 8, 8, new int[64 * bands]),
+                    image.getData().getPixels(0, 0, 8, 8, new int[64 * bands]));
+        } finally {
+            executor.shutdown();
+            reader.dispose();
+        }
+    }
+
+    private static BufferedImage readWithTiffReader(File file) throws Exception {
+        TIFFImageReader reader = new TIFFImageReader(new TIFFImageReaderSpi());
+        try (FileImageInputStream stream = new FileImageInputStream(file)) {
+            reader.setInput(stream);
+            return reader.read(0);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static File getTestFile(String name) throws URISyntaxException {
+        return new File(CogFileReadTest.class.getResource("test-data/" + name).toURI());
+    }
+}
@@ -55,6 +55,9 @@ public class CacheConfig {
     // time to live in seconds
     public static final String COG_CACHING_TIME_TO_LIVE = "IIO_COG_CACHING_TIMETOLIVE";
 
+    // size in bytes of the blocks the COG bytes are cached in
+    public static final String COG_CACHING_BLOCK_SIZE = "IIO_COG_CACHING_BLOCKSIZE";
+
     public static final int MEBIBYTE_IN_BYTES = 1048576;
 
     private static boolean useDiskCache;
@@ -66,6 +69,7 @@ public class CacheConfig {
     private static long timeToIdle;
     private static long timeToLive;
     private static String xmlConfigPath;
+    private static int blockSize;
 
     public CacheConfig() {
         useDiskCache = Boolean.getBoolean(getEnvironmentValue(COG_CACHING_USE_DISK, "false"));
@@ -79,6 +83,7 @@ public class CacheConfig {
         timeToIdle = Integer.parseInt(getEnvironmentValue(COG_CACHING_TIME_TO_IDLE, "0"));
         timeToLive = Integer.parseInt(getEnvironmentValue(COG_CACHING_TIME_TO_LIVE, "0"));
         xmlConfigPath = getEnvironmentValue(COG_CACHING_EH_CACHE_CONFIG, null);
+        blockSize = Integer.parseInt(getEnvironmentValue(COG_CACHING_BLOCK_SIZE, "65536"));
     }
 
     public static CacheConfig getDefaultConfig() {
@@ -156,4 +161,12 @@ public class CacheConfig {
     public void setXmlConfigPath(String xmlConfigPath) {
         this.xmlConfigPath = xmlConfigPath;
     }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
 }
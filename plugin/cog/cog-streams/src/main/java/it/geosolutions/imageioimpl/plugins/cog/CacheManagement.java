@@ -24,16 +24,21 @@ import org.ehcache.config.builders.CacheConfigurationBuilder;
 import org.ehcache.config.builders.CacheManagerBuilder;
 import org.ehcache.config.builders.ResourcePoolsBuilder;
 import org.ehcache.config.units.MemoryUnit;
+import org.ehcache.event.EventFiring;
+import org.ehcache.event.EventOrdering;
+import org.ehcache.event.EventType;
 import org.ehcache.expiry.Duration;
 import org.ehcache.expiry.Expirations;
 import org.ehcache.xml.XmlConfiguration;
 
 import java.net.URL;
+import java.util.EnumSet;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
- * Creates caches for tiles and headers, and provides methods to check keys and retrieve cached data.
+ * Creates caches for tiles, headers and blocks, and provides methods to check keys and retrieve cached data.
  *
  * @author joshfix
  * Created on 2019-09-19
@@ -44,6 +49,7 @@ public enum CacheManagement implements CogTileCacheProvider {
 
     public static final String TILE_CACHE = "tile_cache";
     public static final String HEADER_CACHE = "header_cache";
+    public static final String BLOCK_CACHE = "block_cache";
     private CacheManager manager;
     private CacheConfig config;
     private static Logger LOGGER;
@@ -51,6 +57,10 @@ public enum CacheManagement implements CogTileCacheProvider {
     CacheManagement() {
         config = CacheConfig.getDefaultConfig();
         manager = buildCache(false);
+        addEvictionListener(getBlockCache(),
+                key -> RangeReadStatistics.DEFAULT.cacheEviction(RangeReadStatistics.TIER_BLOCKS));
+        addEvictionListener(getTileCache(),
+                key -> RangeReadStatistics.DEFAULT.cacheEviction(RangeReadStatistics.TIER_TILES));
     }
 
     /**
@@ -79,6 +89,7 @@ public enum CacheManagement implements CogTileCacheProvider {
         if (removeCacheIfExists) {
             manager.removeCache(TILE_CACHE);
             manager.removeCache(HEADER_CACHE);
+            manager.removeCache(BLOCK_CACHE);
         }
 
         ResourcePoolsBuilder resourcePoolsBuilder = ResourcePoolsBuilder.heap(config.getHeapEntries());
@@ -93,6 +104,8 @@ public enum CacheManagement implements CogTileCacheProvider {
                 buildCacheConfiguration(TileCacheEntryKey.class, byte[].class, resourcePoolsBuilder));
         manager.createCache(HEADER_CACHE,
                 buildCacheConfiguration(String.class, byte[].class, resourcePoolsBuilder));
+        manager.createCache(BLOCK_CACHE,
+                buildCacheConfiguration(BlockCacheEntryKey.class, byte[].class, resourcePoolsBuilder));
 
         return manager;
     }
@@ -133,9 +146,25 @@ public enum CacheManagement implements CogTileCacheProvider {
         return manager.getCache(HEADER_CACHE, String.class, byte[].class);
     }
 
+    private Cache<BlockCacheEntryKey, byte[]> getBlockCache() {
+        return manager.getCache(BLOCK_CACHE, BlockCacheEntryKey.class, byte[].class);
+    }
+
     @Override
     public byte[] getTile(TileCacheEntryKey key) {
-        return getTileCache().get(key);
+        return count(getTileCache().get(key), RangeReadStatistics.TIER_TILES);
+    }
+
+    /**
+     * Reports a cache lookup to the range read statistics.
+     */
+    private static byte[] count(byte[] bytes, String tier) {
+        if (bytes != null) {
+            RangeReadStatistics.DEFAULT.cacheHit(tier);
+        } else {
+            RangeReadStatistics.DEFAULT.cacheMiss(tier);
+        }
+        return bytes;
     }
 
     @Override
@@ -163,6 +192,49 @@ public enum CacheManagement implements CogTileCacheProvider {
         return getHeaderCache().containsKey(key);
     }
 
+    /**
+     * Returns the cached bytes of a block.
+     *
+     * @param key The key used to identify the block
+     * @return The byte array containing the block data, null if not cached
+     */
+    public byte[] getBlock(BlockCacheEntryKey key) {
+        Cache<BlockCacheEntryKey, byte[]> blockCache = getBlockCache();
+        // an xml configuration might not declare the block cache
+        return blockCache != null ? count(blockCache.get(key), RangeReadStatistics.TIER_BLOCKS) : null;
+    }
+
+    /**
+     * Enters a new block into cache.
+     *
+     * @param key The key used to identify the block
+     * @param blockBytes The byte array containing the block data
+     */
+    public void cacheBlock(BlockCacheEntryKey key, byte[] blockBytes) {
+        Cache<BlockCacheEntryKey, byte[]> blockCache = getBlockCache();
+        if (blockCache != null) {
+            blockCache.put(key, blockBytes);
+        }
+    }
+
+    /**
+     * Registers a listener notified, asynchronously, with the key of each entry the block cache evicts to make room
+     * for new ones.
+     *
+     * @param listener The listener to be notified
+     */
+    public void addBlockEvictionListener(Consumer<BlockCacheEntryKey> listener) {
+        addEvictionListener(getBlockCache(), listener);
+    }
+
+    private static <K> void addEvictionListener(Cache<K, byte[]> cache, Consumer<? super K> listener) {
+        // an xml configuration might not declare the cache
+        if (cache != null) {
+            cache.getRuntimeConfiguration().registerCacheEventListener(event -> listener.accept(event.getKey()),
+                    EventOrdering.UNORDERED, EventFiring.ASYNCHRONOUS, EnumSet.of(EventType.EVICTED));
+        }
+    }
+
     public CacheConfig getCacheConfig() {
         return this.config;
     }
@@ -0,0 +1,528 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.cog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.logging.Logger;
+
+/**
+ * RangeReader decorator serving the requested ranges from a shared cache of fixed size blocks, keyed by URI, version
+ * of the resource (when known) and block index.  Only the blocks missing from the cache are fetched through the
+ * wrapped RangeReader, merging consecutive missing blocks into a single range request.  Since header, IFD and tile
+ * reads all go through the same blocks, readers of the same COG share the fetched bytes, whatever the alignment of
+ * their reads.
+ * <p>
+ * When read as buffers, ranges lying within a single block are served as views over the cached block, and ranges
+ * spanning several blocks are assembled into buffers recycled from a {@link ByteBufferPool}.
+ */
+public class CachingRangeReader implements RangeReader, Closeable {
+
+    protected final RangeReader delegate;
+    protected final String key;
+    protected final int blockSize;
+    protected int headerLength;
+    protected byte[] header;
+    /** The header read by the wrapped reader, possibly longer than the configured header length */
+    protected byte[] delegateHeader;
+    /** True if the header read by the wrapped reader is shorter than requested, holding the whole file */
+    protected boolean delegateHeaderTruncated;
+    protected ByteBufferPool bufferPool = ByteBufferPool.DEFAULT;
+
+    private final static Logger LOGGER = Logger.getLogger(CachingRangeReader.class.getName());
+
+    /** The outstanding read-ahead fetches, by the keys of the blocks they cover, see {@link #prefetch(Collection)} */
+    private static final Map<BlockCacheEntryKey, Set<CompletableFuture<Void>>> PREFETCHES = new ConcurrentHashMap<>();
+
+    static {
+        CacheManagement.DEFAULT.addBlockEvictionListener(CachingRangeReader::cancelPrefetches);
+    }
+
+    public CachingRangeReader(RangeReader delegate, String key) {
+        this(delegate, key, CacheManagement.DEFAULT.getCacheConfig().getBlockSize());
+    }
+
+    public CachingRangeReader(RangeReader delegate, String key, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        this.delegate = delegate;
+        this.key = key;
+        this.blockSize = blockSize;
+        this.headerLength = delegate.getHeaderLength();
+    }
+
+    @Override
+    public URL getURL() throws MalformedURLException {
+        return delegate.getURL();
+    }
+
+    @Override
+    public void setHeaderLength(int headerLength) {
+        this.headerLength = headerLength;
+        delegate.setHeaderLength(headerLength);
+    }
+
+    @Override
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    @Override
+    public Map<Long, byte[]> read(Collection<long[]> ranges) {
+        return read(ranges.toArray(new long[][]{}));
+    }
+
+    @Override
+    public Map<Long, byte[]> read(long[]... ranges) {
+        NavigableMap<Long, byte[]> blocks = getBlocks(ranges);
+        Map<Long, byte[]> values = new HashMap<>();
+        for (long[] range : ranges) {
+            values.put(range[0], copyFromBlocks(range[0], range[1], blocks));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<Long, RangeBuffer> readBuffers(Collection<long[]> ranges) {
+        long[][] rangesArray = ranges.toArray(new long[][]{});
+        NavigableMap<Long, byte[]> blocks = getBlocks(rangesArray);
+        Map<Long, RangeBuffer> values = new HashMap<>();
+        for (long[] range : rangesArray) {
+            values.put(range[0], bufferFromBlocks(range[0], range[1], blocks));
+        }
+        return values;
+    }
+
+    /**
+     * Serves the cached blocks right away, fetching the missing ones asynchronously through the wrapped RangeReader.
+     */
+    @Override
+    public Map<Long, CompletableFuture<byte[]>> readAsync(Collection<long[]> ranges) {
+        NavigableMap<Long, byte[]> blocks = new TreeMap<>();
+        TreeSet<Long> missing = new TreeSet<>();
+        collectBlocks(ranges, blocks, missing);
+        CompletableFuture<NavigableMap<Long, byte[]>> available = missing.isEmpty()
+                ? CompletableFuture.completedFuture(blocks)
+                : fetchBlocksAsync(missing).thenApply(fetched -> {
+                    blocks.putAll(fetched);
+                    return blocks;
+                });
+        Map<Long, CompletableFuture<byte[]>> values = new HashMap<>();
+        for (long[] range : ranges) {
+            values.put(range[0], available.thenApply(all -> copyFromBlocks(range[0], range[1], all)));
+        }
+        return values;
+    }
+
+    /**
+     * Sets the pool the buffers spanning several blocks are taken from.
+     */
+    public void setBufferPool(ByteBufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public byte[] readHeader() {
+        if (header == null) {
+            header = CogHeaderPlanner.completeHeader(read(new long[]{0, headerLength - 1}).get(0L),
+                    range -> read(range).get(range[0]));
+        }
+        return header;
+    }
+
+    @Override
+    public String getVersion() {
+        return delegate.getVersion();
+    }
+
+    @Override
+    public RetryPolicy getRetryPolicy() {
+        return delegate.getRetryPolicy();
+    }
+
+    /**
+     * Closes the wrapped RangeReader, if closeable.  The cached blocks are kept.
+     */
+    @Override
+    public void close() throws IOException {
+        if (delegate instanceof Closeable) {
+            ((Closeable) delegate).close();
+        }
+    }
+
+    @Override
+    public byte[] fetchHeader() {
+        int length = (header != null ? header.length : 0) + headerLength;
+        header = read(new long[]{0, length - 1}).get(0L);
+        return header;
+    }
+
+    /**
+     * Returns the blocks covering the provided ranges, keyed by block index, fetching the ones missing from cache.
+     */
+    protected NavigableMap<Long, byte[]> getBlocks(long[]... ranges) {
+        NavigableMap<Long, byte[]> blocks = new TreeMap<>();
+        TreeSet<Long> missing = new TreeSet<>();
+        collectBlocks(Arrays.asList(ranges), blocks, missing);
+        if (!missing.isEmpty()) {
+            fetchBlocks(missing, blocks);
+        }
+        return blocks;
+    }
+
+    /**
+     * Sorts the blocks covering the provided ranges into the cached ones and the missing ones.
+     */
+    private void collectBlocks(Collection<long[]> ranges, NavigableMap<Long, byte[]> blocks, TreeSet<Long> missing) {
+        // the wrapped reader records the version of the resource while reading its header, read it before building
+        // the keys of the blocks, or the blocks of any version would be looked up
+        readDelegateHeader();
+        for (long[] range : ranges) {
+            for (long block = range[0] / blockSize; block <= range[1] / blockSize; block++) {
+                if (blocks.containsKey(block) || missing.contains(block)) {
+                    continue;
+                }
+                byte[] bytes = getCachedBlock(block);
+                if (bytes != null) {
+                    blocks.put(block, bytes);
+                } else {
+                    missing.add(block);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fetches the missing blocks through the wrapped RangeReader, merging consecutive blocks in a single range, and
+     * caches them.
+     *
+     * @param missing the sorted indexes of the blocks to be fetched
+     * @param blocks the map receiving the fetched blocks
+     */
+    protected void fetchBlocks(TreeSet<Long> missing, NavigableMap<Long, byte[]> blocks) {
+        NavigableMap<Long, byte[]> sources = new TreeMap<>();
+        List<long[]> ranges = getSourceRanges(missing, sources);
+        if (!ranges.isEmpty()) {
+            for (Map.Entry<Long, byte[]> entry : delegate.read(ranges).entrySet()) {
+                if (entry.getValue() != null) {
+                    sources.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        cacheBlocks(missing, sources, blocks);
+    }
+
+    /**
+     * Asynchronously fetches into the block cache the blocks covering the provided ranges, skipping the ones already
+     * cached.  Used to read ahead tiles likely to be requested next: blocks are cached as their range request
+     * completes, and the fetch is cancelled as soon as the block cache evicts one of the blocks it covers, since the
+     * cache is then too small to hold the tiles read ahead until they're actually read.
+     *
+     * @param ranges the start/end byte locations to be fetched
+     * @return a future completing once the blocks have been cached
+     */
+    public CompletableFuture<Void> prefetch(Collection<long[]> ranges) {
+        TreeSet<Long> missing = new TreeSet<>();
+        collectBlocks(ranges, new TreeMap<>(), missing);
+        if (missing.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<NavigableMap<Long, byte[]>> fetched = fetchBlocksAsync(missing);
+        CompletableFuture<Void> prefetch =
+                fetched.thenAccept(blocks -> LOGGER.fine("Read ahead " + blocks.size() + " block(s) for " + key));
+        List<BlockCacheEntryKey> keys = new ArrayList<>(missing.size());
+        String blocksKey = getBlocksKey();
+        for (long block : missing) {
+            BlockCacheEntryKey blockKey = new BlockCacheEntryKey(blocksKey, block);
+            keys.add(blockKey);
+            PREFETCHES.compute(blockKey, (k, prefetches) -> {
+                Set<CompletableFuture<Void>> updated = prefetches != null ? prefetches : ConcurrentHashMap.newKeySet();
+                updated.add(prefetch);
+                return updated;
+            });
+        }
+        prefetch.whenComplete((value, error) -> {
+            for (BlockCacheEntryKey blockKey : keys) {
+                PREFETCHES.computeIfPresent(blockKey, (k, prefetches) -> {
+                    prefetches.remove(prefetch);
+                    return prefetches.isEmpty() ? null : prefetches;
+                });
+            }
+            if (prefetch.isCancelled()) {
+                fetched.cancel(true);
+            }
+        });
+        return prefetch;
+    }
+
+    /**
+     * Asynchronously fetches the missing blocks through the wrapped RangeReader, merging consecutive blocks in a
+     * single range, and caches them.  Cancelling the returned future cancels the range requests.
+     *
+     * @param missing the sorted indexes of the blocks to be fetched
+     * @return a future completing with the fetched blocks, keyed by block index
+     */
+    private CompletableFuture<NavigableMap<Long, byte[]>> fetchBlocksAsync(TreeSet<Long> missing) {
+        NavigableMap<Long, byte[]> sources = new TreeMap<>();
+        List<long[]> ranges = getSourceRanges(missing, sources);
+        Map<Long, CompletableFuture<byte[]>> futures = ranges.isEmpty() ? Collections.emptyMap()
+                : delegate.readAsync(ranges);
+        NavigableMap<Long, byte[]> blocks = new ConcurrentSkipListMap<>();
+        // each range covers its own run of consecutive blocks, cache them as soon as it's fetched
+        TreeSet<Long> inHeader = new TreeSet<>(missing);
+        List<CompletableFuture<Void>> cached = new ArrayList<>(ranges.size());
+        for (long[] range : ranges) {
+            NavigableSet<Long> run = missing.subSet(range[0] / blockSize, true, range[1] / blockSize, true);
+            inHeader.removeAll(run);
+            CompletableFuture<byte[]> future = futures.get(range[0]);
+            cached.add(future == null ? CompletableFuture.completedFuture(null) : future.thenAccept(bytes -> {
+                NavigableMap<Long, byte[]> rangeSources = new TreeMap<>(sources);
+                if (bytes != null) {
+                    rangeSources.put(range[0], bytes);
+                }
+                cacheBlocks(run, rangeSources, blocks);
+            }));
+        }
+        // the blocks read as part of the header
+        cacheBlocks(inHeader, sources, blocks);
+        CompletableFuture<NavigableMap<Long, byte[]>> fetched = CompletableFuture
+                .allOf(cached.toArray(new CompletableFuture[0]))
+                .thenApply(value -> new TreeMap<>(blocks));
+        // allOf does not propagate cancellation to the range requests, do it explicitly
+        fetched.whenComplete((value, error) -> {
+            if (fetched.isCancelled()) {
+                futures.values().forEach(future -> future.cancel(true));
+            }
+        });
+        return fetched;
+    }
+
+    /**
+     * Cancels all the outstanding read-ahead fetches.
+     */
+    public static void cancelPrefetches() {
+        PREFETCHES.values().forEach(prefetches -> prefetches.forEach(prefetch -> prefetch.cancel(true)));
+    }
+
+    /**
+     * Cancels the outstanding read-ahead fetches covering the provided block, evicted from the cache.
+     */
+    public static void cancelPrefetches(BlockCacheEntryKey evicted) {
+        Set<CompletableFuture<Void>> prefetches = PREFETCHES.get(evicted);
+        if (prefetches != null) {
+            prefetches.forEach(prefetch -> prefetch.cancel(true));
+        }
+    }
+
+    /**
+     * Returns the ranges to be read to fetch the missing blocks, merging consecutive blocks in a single range.  The
+     * bytes already read as part of the header are added to the sources instead of being read again.
+     */
+    private List<long[]> getSourceRanges(TreeSet<Long> missing, NavigableMap<Long, byte[]> sources) {
+        List<long[]> ranges = new ArrayList<>();
+        long first = -1;
+        long last = -1;
+        for (long block : missing) {
+            if (first >= 0 && block != last + 1) {
+                ranges.add(new long[]{first * blockSize, (last + 1) * blockSize - 1});
+                first = -1;
+            }
+            if (first < 0) {
+                first = block;
+            }
+            last = block;
+        }
+        ranges.add(new long[]{first * blockSize, (last + 1) * blockSize - 1});
+        LOGGER.fine("Fetching " + missing.size() + " block(s) in " + ranges.size() + " range request(s) for " + key);
+
+        // range readers skip the bytes already read as part of the header: make them available too
+        readDelegateHeader();
+        if (delegateHeaderTruncated) {
+            // the file is shorter than the header, ranges past it would not be satisfiable
+            sources.put(0L, delegateHeader);
+            ranges = new ArrayList<>();
+        } else if (delegateHeader != null && ranges.get(0)[0] < delegateHeader.length) {
+            // the header might extend past the configured header length to cover all the IFDs
+            sources.put(0L, delegateHeader);
+            ranges = trim(ranges, delegateHeader.length);
+        }
+        return ranges;
+    }
+
+    private void readDelegateHeader() {
+        if (delegateHeader == null) {
+            int requested = delegate.getHeaderLength();
+            delegateHeader = delegate.readHeader();
+            delegateHeaderTruncated = delegateHeader.length < requested;
+        }
+    }
+
+    /**
+     * Slices the missing blocks out of the fetched ranges and caches them.
+     *
+     * @param blocks the map receiving the fetched blocks, null if only caching them
+     */
+    private void cacheBlocks(Collection<Long> missing, NavigableMap<Long, byte[]> sources,
+            NavigableMap<Long, byte[]> blocks) {
+        for (long block : missing) {
+            byte[] bytes = copy(block * blockSize, (block + 1) * blockSize - 1, sources);
+            if (blocks != null) {
+                blocks.put(block, bytes);
+            }
+            // an empty block is past the end of the file, don't cache it
+            if (bytes.length > 0) {
+                cacheBlock(block, bytes);
+            }
+        }
+    }
+
+    /**
+     * Drops the ranges fully contained in the first length bytes, and trims the ones starting inside them.
+     */
+    private static List<long[]> trim(List<long[]> ranges, long length) {
+        List<long[]> trimmed = new ArrayList<>();
+        for (long[] range : ranges) {
+            if (range[1] < length) {
+                continue;
+            }
+            trimmed.add(range[0] < length ? new long[]{length, range[1]} : range);
+        }
+        return trimmed;
+    }
+
+    protected byte[] getCachedBlock(long block) {
+        return CacheManagement.DEFAULT.getBlock(new BlockCacheEntryKey(getBlocksKey(), block));
+    }
+
+    protected void cacheBlock(long block, byte[] bytes) {
+        CacheManagement.DEFAULT.cacheBlock(new BlockCacheEntryKey(getBlocksKey(), block), bytes);
+    }
+
+    /**
+     * Returns the key of the cached blocks, including the version of the resource when known, so that the blocks of
+     * a previous version are not served once the resource changed.
+     */
+    protected String getBlocksKey() {
+        String version = delegate.getVersion();
+        return version != null ? key + "#" + version : key;
+    }
+
+    /**
+     * Copies the bytes between start and end (inclusive) from the blocks.  The returned array is shorter than the
+     * requested range if the range goes past the end of the file.
+     */
+    private byte[] copyFromBlocks(long start, long end, NavigableMap<Long, byte[]> blocks) {
+        byte[] bytes = new byte[copyFromBlocks(start, end, blocks, null)];
+        copyFromBlocks(start, end, blocks, ByteBuffer.wrap(bytes));
+        return bytes;
+    }
+
+    /**
+     * Returns the bytes between start and end (inclusive) as a view over a single block, or as a pooled buffer if they
+     * span several blocks.  The returned buffer is shorter than the requested range if the range goes past the end
+     * of the file.
+     */
+    private RangeBuffer bufferFromBlocks(long start, long end, NavigableMap<Long, byte[]> blocks) {
+        byte[] block = blocks.get(start / blockSize);
+        int offset = (int) (start % blockSize);
+        if (block == null || offset >= block.length) {
+            return RangeBuffer.wrap(new byte[0]);
+        }
+        if (end - start < block.length - offset) {
+            return RangeBuffer.wrap(block, offset, (int) (end - start + 1));
+        }
+        RangeBuffer buffer = bufferPool.acquire(copyFromBlocks(start, end, blocks, null));
+        copyFromBlocks(start, end, blocks, buffer.getWritableBuffer());
+        return buffer;
+    }
+
+    /**
+     * Copies the bytes between start and end (inclusive) from the blocks into the target buffer, stopping at the end
+     * of the file.
+     *
+     * @param target the buffer receiving the bytes, null to only count them
+     * @return the number of bytes available
+     */
+    private int copyFromBlocks(long start, long end, NavigableMap<Long, byte[]> blocks, ByteBuffer target) {
+        int copied = 0;
+        long position = start;
+        while (position <= end) {
+            byte[] block = blocks.get(position / blockSize);
+            int offset = (int) (position % blockSize);
+            if (block == null || offset >= block.length) {
+                break;
+            }
+            int length = (int) Math.min(end - position + 1, block.length - offset);
+            if (target != null) {
+                target.put(block, offset, length);
+            }
+            copied += length;
+            position += length;
+        }
+        return copied;
+    }
+
+    /**
+     * Copies the bytes between start and end (inclusive) from ranges keyed by their start position, walking through
+     * adjacent or overlapping ranges.  The returned array is shorter than the requested range if some bytes are not
+     * available.
+     */
+    static byte[] copy(long start, long end, NavigableMap<Long, byte[]> sources) {
+        byte[] bytes = new byte[(int) (end - start + 1)];
+        int copied = 0;
+        long position = start;
+        while (position <= end) {
+            byte[] source = null;
+            long relativePosition = 0;
+            // the closest range might be shorter than a previous overlapping one (e.g. the header)
+            for (Map.Entry<Long, byte[]> entry : sources.headMap(position, true).descendingMap().entrySet()) {
+                if (position - entry.getKey() < entry.getValue().length) {
+                    source = entry.getValue();
+                    relativePosition = position - entry.getKey();
+                    break;
+                }
+            }
+            if (source == null) {
+                break;
+            }
+            int length = (int) Math.min(end - position + 1, source.length - relativePosition);
+            System.arraycopy(source, (int) relativePosition, bytes, copied, length);
+            copied += length;
+            position += length;
+        }
+        return copied == bytes.length ? bytes : Arrays.copyOf(bytes, copied);
+    }
+}
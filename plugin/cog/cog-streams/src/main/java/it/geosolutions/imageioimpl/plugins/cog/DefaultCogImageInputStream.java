@@ -18,14 +18,22 @@ package it.geosolutions.imageioimpl.plugins.cog;
 
 import it.geosolutions.imageio.core.BasicAuthURI;
 import it.geosolutions.imageio.plugins.cog.CogImageReadParam;
-import it.geosolutions.imageio.utilities.SoftValueHashMap;
 
 import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.net.URL;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 import static it.geosolutions.imageioimpl.plugins.cog.CogTileInfo.HEADER_TILE_INDEX;
@@ -33,7 +41,12 @@ import static it.geosolutions.imageioimpl.plugins.cog.CogTileInfo.HEADER_TILE_IN
 /**
  * ImageInputStream implementation for COG.  This class will request all requested ranges be read by
  * the provided RangeReader implementation and store the results in memory.  When TIFFImageReader requests tiles, the
- * byte data will be served from the `data` Map.
+ * byte data will be served from the `data` Map, sorted by range start so that the range holding the stream position
+ * is found with a floor lookup.  Ranges are held as {@link RangeBuffer}s, as returned by the RangeReader without
+ * copying them, and released as soon as a new read replaces them.
+ *
+ * When the `CogImageReadParam` enables pipelining, the ranges are fetched asynchronously and a read only waits for
+ * the range holding the requested bytes, so that tiles can be decoded while the following ranges are still in flight.
  *
  * NOTE: This is a special use case class and is intended for use ONLY with the CogImageReader.  Using this
  * ImageInputStream for other purposes will almost certainly result in errors/failures.
@@ -47,7 +60,11 @@ public class DefaultCogImageInputStream extends ImageInputStreamImpl implements
     protected URI uri;
     protected CogTileInfo header;
     protected RangeReader rangeReader;
-    protected Map <Long, byte[]> data;
+    protected NavigableMap<Long, RangeBuffer> data;
+    /** The ranges still being fetched when pipelining, keyed by range start */
+    protected NavigableMap<Long, CompletableFuture<byte[]>> pending = new TreeMap<>();
+    /** The deadline of the pending ranges, in {@link System#nanoTime()} units */
+    protected long pendingDeadline;
 
 
     private final static Logger LOGGER = Logger.getLogger(DefaultCogImageInputStream.class.getName());
@@ -120,8 +137,8 @@ public class DefaultCogImageInputStream extends ImageInputStreamImpl implements
 
     protected void initializeHeader(int headerLength) {
         header = new CogTileInfo(headerLength);
-        data = new SoftValueHashMap<>(0);
-        data.put(0L, rangeReader.readHeader());
+        data = new TreeMap<>();
+        data.put(0L, RangeBuffer.wrap(rangeReader.readHeader()));
         initialized = true;
     }
 
@@ -137,8 +154,31 @@ public class DefaultCogImageInputStream extends ImageInputStreamImpl implements
 
     @Override
     public void readRanges(CogTileInfo cogTileInfo) {
+        // no parameters, merge only the contiguous ranges
+        readRanges(cogTileInfo, null, CogImageReadParam.DEFAULT_PIPELINED);
+    }
+
+    @Override
+    public void readRanges(CogTileInfo cogTileInfo, CogImageReadParam param) {
+        readRanges(cogTileInfo, param, param.isPipelined());
+    }
+
+    @Override
+    public CompletableFuture<Void> readRangesAsync(CogTileInfo cogTileInfo, CogImageReadParam param) {
+        readRanges(cogTileInfo, param, true);
+        return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture[0]));
+    }
+
+    /**
+     * Reads the ranges for the requested tiles, either waiting for them or, when pipelined, returning as soon as the
+     * requests have been issued.  Without parameters, only the contiguous ranges are merged.
+     */
+    protected void readRanges(CogTileInfo cogTileInfo, CogImageReadParam param, boolean pipelined) {
         // read data with the RangeReader and set the byte order and pointer on the new input stream
-        ContiguousRangeComposer contiguousRangeComposer = new ContiguousRangeComposer(0, cogTileInfo.getHeaderLength() - 1);
+        ContiguousRangeComposer contiguousRangeComposer = param == null
+                ? new ContiguousRangeComposer(0, cogTileInfo.getHeaderLength() - 1)
+                : new ContiguousRangeComposer(0, cogTileInfo.getHeaderLength() - 1, param.getRangeMaxGap(),
+                        param.getRangeMaxLength(), param.getMaxRangeRequests());
 
         cogTileInfo.getTileRanges().forEach((tileIndex, tileRange) -> {
             if (tileIndex == HEADER_TILE_INDEX) {
@@ -147,54 +187,99 @@ public class DefaultCogImageInputStream extends ImageInputStreamImpl implements
             contiguousRangeComposer.addTileRange(tileRange.getStart(), tileRange.getEnd());
         });
         rangeReader.setHeaderLength(cogTileInfo.getHeaderLength());
+        // the ranges of a previous read have not been needed
+        cancelPending();
 
         // read all of the ranges asynchronously
         Set<long[]> ranges = contiguousRangeComposer.getRanges();
         LOGGER.fine("Submitting " + ranges.size() + " range request(s)");
+        reportPlan(cogTileInfo, ranges);
 
-        data = rangeReader.read(ranges);
+        NavigableMap<Long, RangeBuffer> fetched = new TreeMap<>();
+        if (pipelined) {
+            // don't wait for the ranges, reads will wait for the ones they need
+            pendingDeadline = rangeReader.getRetryPolicy().deadline();
+            pending.putAll(rangeReader.readAsync(ranges));
+        } else {
+            for (Map.Entry<Long, RangeBuffer> entry : rangeReader.readBuffers(ranges).entrySet()) {
+                if (entry.getValue() != null) {
+                    fetched.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        // keep the header bytes around, the range reader only returns the requested ranges
+        RangeBuffer headerBytes = data.remove(0L);
+        if (headerBytes != null && fetched.putIfAbsent(0L, headerBytes) != null) {
+            headerBytes.release();
+        }
+        releaseData();
+        data = fetched;
+    }
+
+    /**
+     * Reports to the range read statistics how many bytes the ranges read in excess of the requested tiles.
+     */
+    private static void reportPlan(CogTileInfo cogTileInfo, Set<long[]> ranges) {
+        long tileBytes = 0;
+        for (Map.Entry<Integer, TileRange> entry : cogTileInfo.getTileRanges().entrySet()) {
+            if (entry.getKey() != HEADER_TILE_INDEX) {
+                tileBytes += entry.getValue().getByteLength();
+            }
+        }
+        long rangeBytes = 0;
+        for (long[] range : ranges) {
+            rangeBytes += range[1] - range[0] + 1;
+        }
+        RangeReadStatistics.DEFAULT.readPlanned(tileBytes, rangeBytes);
     }
 
     public String getUrl() {
         return uri.toString();
     }
 
+    @Override
+    public String getContentKey() {
+        if (!initialized) {
+            return null;
+        }
+        String version = rangeReader.getVersion();
+        return version != null ? uri + "#" + version : uri.toString();
+    }
+
     @Override
     public int read() throws IOException {
+        Map.Entry<Long, RangeBuffer> entry = data.floorEntry(streamPos);
+        if (entry != null && streamPos < entry.getKey() + entry.getValue().length()) {
+            // fast path, avoiding the allocation of a single byte array
+            return entry.getValue().get((int) (streamPos++ - entry.getKey())) & 0xff;
+        }
         byte[] b = new byte[1];
         read(b, 0, 1);
-        return b[0];
+        return b[0] & 0xff;
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-        byte[] contiguousRange = null;
-        long rangeStart = -1L;
-
-        // find the byte array in the data map corresponding to the current request
-        for (Map.Entry<Long, byte[]> entry : data.entrySet()) {
-            long start = entry.getKey();
-            long end = entry.getKey() + entry.getValue().length;
-            if (streamPos >= start && streamPos + len <= end) {
-                contiguousRange = entry.getValue();
-                rangeStart = entry.getKey();
-                break;
-            }
+        // copy the bytes from the fetched ranges holding the requested bytes into the destination byte array.
+        // a read may span several adjacent ranges
+        int copied = copy(streamPos, b, off, len);
+        // when pipelining, wait for the ranges holding the missing bytes
+        while (copied < len && awaitPending(streamPos + copied)) {
+            copied += copy(streamPos + copied, b, off + copied, len - copied);
         }
 
         // this should never happen -- we should have read all bytes from all tiles in the request envelope
-        if (contiguousRange == null || rangeStart == -1L) {
+        if (copied < len) {
 
             // On some not optimized COG BigTiff, the TileOffset / TileBytes are inside the header
             // which might be way greater than 16K (even 700K). Let's fetch it
-            if (data.size() == 1 && streamPos + len >= data.get(0L).length) {
-                while (streamPos + len >= data.get(0L).length) {
-                    data.put(0L, rangeReader.fetchHeader());
+            if (data.size() == 1 && data.containsKey(0L) && streamPos + len >= data.get(0L).length()) {
+                while (streamPos + len >= data.get(0L).length()) {
+                    data.put(0L, RangeBuffer.wrap(rangeReader.fetchHeader()));
                 }
 
-                contiguousRange = data.get(0L);
-                header.setHeaderLength(contiguousRange.length);
-                rangeStart = 0;
+                header.setHeaderLength(data.get(0L).length());
+                copied = copy(streamPos, b, off, len);
             } else {
                 LOGGER.severe("The requested offset is not present in the available data.  Requested offset: " + off
                         + " - requested length: " + len
@@ -203,18 +288,95 @@ public class DefaultCogImageInputStream extends ImageInputStreamImpl implements
             }
         }
 
-        int relativeStreamPos = (int)(streamPos - rangeStart);
-
-        // copy the bytes from the fetched tile into the destination byte array
-        System.arraycopy(contiguousRange, relativeStreamPos, b, off, len);
         streamPos += len;
         return len;
     }
 
+    /**
+     * Copies the bytes starting at the provided position from the fetched ranges, walking through adjacent (or
+     * overlapping) ranges as needed.
+     *
+     * @return the number of bytes copied, less than len if the requested bytes are not all available
+     */
+    private int copy(long position, byte[] b, int off, int len) {
+        int copied = 0;
+        while (copied < len) {
+            Map.Entry<Long, RangeBuffer> entry = data.floorEntry(position);
+            if (entry == null) {
+                break;
+            }
+            RangeBuffer range = entry.getValue();
+            long relativePosition = position - entry.getKey();
+            if (relativePosition >= range.length()) {
+                // the header may extend past the start of the first tile ranges
+                range = data.get(0L);
+                relativePosition = position;
+                if (range == null || relativePosition >= range.length()) {
+                    break;
+                }
+            }
+            int length = (int) Math.min(len - copied, range.length() - relativePosition);
+            range.get((int) relativePosition, b, off + copied, length);
+            copied += length;
+            position += length;
+        }
+        return copied;
+    }
+
+    /**
+     * Waits for the pending range closest to the provided position, moving its bytes among the available data.
+     *
+     * @return true if a pending range has been made available, false if no pending range might hold the position
+     */
+    private boolean awaitPending(long position) throws IOException {
+        Map.Entry<Long, CompletableFuture<byte[]>> entry = pending.floorEntry(position);
+        if (entry == null) {
+            return false;
+        }
+        pending.remove(entry.getKey());
+        byte[] bytes;
+        try {
+            bytes = entry.getValue().get(Math.max(0, pendingDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            cancelPending();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for range starting at " + entry.getKey());
+        } catch (ExecutionException | TimeoutException | CancellationException e) {
+            cancelPending();
+            throw new IOException("Failed to read range starting at " + entry.getKey() + " from " + uri,
+                    e instanceof ExecutionException ? e.getCause() : e);
+        }
+        if (bytes != null) {
+            RangeBuffer previous = data.put(entry.getKey(), RangeBuffer.wrap(bytes));
+            if (previous != null) {
+                previous.release();
+            }
+        }
+        return true;
+    }
+
+    private void cancelPending() {
+        pending.values().forEach(future -> future.cancel(true));
+        pending.clear();
+    }
+
+    /**
+     * Releases the buffers holding the available data, returning the pooled ones to their pool.
+     */
+    private void releaseData() {
+        data.values().forEach(RangeBuffer::release);
+        data.clear();
+    }
+
     public void close() throws IOException {
         super.close();
+        cancelPending();
         if (data != null && !data.isEmpty()) {
-            data.clear();
+            releaseData();
+        }
+        // e.g., the channel of a file range reader
+        if (rangeReader instanceof Closeable) {
+            ((Closeable) rangeReader).close();
         }
     }
 }
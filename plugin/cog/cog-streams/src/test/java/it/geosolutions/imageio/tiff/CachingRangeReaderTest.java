@@ -0,0 +1,278 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.tiff;
+
+import it.geosolutions.imageio.plugins.cog.CogImageReadParam;
+import it.geosolutions.imageioimpl.plugins.cog.BlockCacheEntryKey;
+import it.geosolutions.imageioimpl.plugins.cog.CachingCogImageInputStream;
+import it.geosolutions.imageioimpl.plugins.cog.CachingRangeReader;
+import it.geosolutions.imageioimpl.plugins.cog.ByteBufferPool;
+import it.geosolutions.imageioimpl.plugins.cog.CogTileInfo;
+import it.geosolutions.imageioimpl.plugins.cog.RangeBuffer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static it.geosolutions.imageio.tiff.DefaultCogImageInputStreamTest.assertRead;
+import static it.geosolutions.imageio.tiff.DefaultCogImageInputStreamTest.content;
+
+/**
+ * Tests the block cache shared by the caching streams.
+ */
+public class CachingRangeReaderTest {
+
+    @Test
+    public void testReadsSpanningBlocks() {
+        URI uri = URI.create("http://test.url.com/blocks.tif");
+        byte[] content = content(10000);
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content, 256);
+        CachingRangeReader reader = new CachingRangeReader(delegate, uri.toString(), 1024);
+
+        // blocks 1 to 3, fetched with a single request
+        Map<Long, byte[]> values = reader.read(new long[]{1500, 3500});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1500, 3501), values.get(1500L));
+        Assert.assertEquals(1, delegate.requests.size());
+        Assert.assertArrayEquals(new long[]{1024, 4095}, delegate.requests.get(0));
+
+        // another reader of the same file shares the cached blocks, only the missing ones are fetched
+        InMemoryRangeReader otherDelegate = new InMemoryRangeReader(uri, content, 256);
+        CachingRangeReader otherReader = new CachingRangeReader(otherDelegate, uri.toString(), 1024);
+        values = otherReader.read(new long[]{2000, 2100}, new long[]{3000, 5000});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 2000, 2101), values.get(2000L));
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 3000, 5001), values.get(3000L));
+        Assert.assertEquals(1, otherDelegate.requests.size());
+        Assert.assertArrayEquals(new long[]{4096, 5119}, otherDelegate.requests.get(0));
+
+        // the last block is shorter than the others
+        values = reader.read(new long[]{9000, 10239});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 9000, 10000), values.get(9000L));
+    }
+
+    @Test
+    public void testBlocksKeyedByVersion() {
+        URI uri = URI.create("http://test.url.com/versions.tif");
+        byte[] content = content(10000);
+        new CachingRangeReader(delegate(uri, content, "\"abc\""), uri.toString(), 1024).read(new long[]{1500, 3500});
+
+        // the version is only known once the header is read, still the blocks of the same version are shared
+        InMemoryRangeReader sameVersion = delegate(uri, content, "\"abc\"");
+        Map<Long, byte[]> values = new CachingRangeReader(sameVersion, uri.toString(), 1024)
+                .read(new long[]{2000, 3000});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 2000, 3001), values.get(2000L));
+        Assert.assertEquals(0, sameVersion.requests.size());
+
+        // while the blocks of another version are fetched again
+        InMemoryRangeReader otherVersion = delegate(uri, content, "\"def\"");
+        new CachingRangeReader(otherVersion, uri.toString(), 1024).read(new long[]{2000, 3000});
+        Assert.assertEquals(1, otherVersion.requests.size());
+        Assert.assertArrayEquals(new long[]{1024, 3071}, otherVersion.requests.get(0));
+    }
+
+    private static InMemoryRangeReader delegate(URI uri, byte[] content, String version) {
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content, 256);
+        delegate.headerVersion = version;
+        return delegate;
+    }
+
+    @Test
+    public void testBuffersFromBlocks() {
+        URI uri = URI.create("http://test.url.com/buffers.tif");
+        byte[] content = content(10000);
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content, 256);
+        CachingRangeReader reader = new CachingRangeReader(delegate, uri.toString(), 1024);
+        ByteBufferPool pool = new ByteBufferPool(false, 1024 * 1024, 64 * 1024);
+        reader.setBufferPool(pool);
+
+        Map<Long, RangeBuffer> buffers = reader.readBuffers(Arrays.asList(new long[]{1100, 1199},
+                new long[]{1500, 3500}));
+        // a view over the cached block
+        RangeBuffer withinBlock = buffers.get(1100L);
+        Assert.assertFalse(withinBlock.isPooled());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1100, 1200), withinBlock.toByteArray());
+        // assembled from several blocks
+        RangeBuffer spanningBlocks = buffers.get(1500L);
+        Assert.assertTrue(spanningBlocks.isPooled());
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1500, 3501), spanningBlocks.toByteArray());
+
+        buffers.values().forEach(RangeBuffer::release);
+        Assert.assertEquals(4096, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testHeaderThroughBlocks() {
+        URI uri = URI.create("http://test.url.com/header.tif");
+        byte[] content = content(10000);
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content, 1000);
+        CachingRangeReader reader = new CachingRangeReader(delegate, uri.toString(), 1024);
+
+        Assert.assertArrayEquals(Arrays.copyOf(content, 1000), reader.readHeader());
+        Assert.assertArrayEquals(Arrays.copyOf(content, 2000), reader.fetchHeader());
+        Assert.assertEquals(2, delegate.requests.size());
+    }
+
+    @Test
+    public void testFileShorterThanHeader() {
+        URI uri = URI.create("http://test.url.com/small.tif");
+        byte[] content = content(3000);
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content, 4096);
+        CachingRangeReader reader = new CachingRangeReader(delegate, uri.toString(), 1024);
+
+        // the whole file comes with the header, nothing is requested past its end
+        Assert.assertArrayEquals(content, reader.readHeader());
+        Map<Long, byte[]> values = reader.read(new long[]{2500, 3499});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 2500, 3000), values.get(2500L));
+        Assert.assertEquals(0, delegate.requests.size());
+    }
+
+    @Test
+    public void testPrefetch() {
+        URI uri = URI.create("http://test.url.com/prefetch.tif");
+        byte[] content = content(10000);
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content, 256);
+        CachingRangeReader reader = new CachingRangeReader(delegate, uri.toString(), 1024);
+        reader.read(new long[]{1100, 1199});
+
+        // only the blocks missing from cache are read ahead
+        reader.prefetch(Arrays.asList(new long[]{1500, 3500}, new long[]{5000, 5100}, new long[]{8000, 8100})).join();
+        Assert.assertEquals(3, delegate.requests.size());
+        Assert.assertArrayEquals(new long[]{2048, 5119}, delegate.requests.get(1));
+        Assert.assertArrayEquals(new long[]{7168, 8191}, delegate.requests.get(2));
+
+        // and later reads are served from cache
+        Map<Long, byte[]> values = reader.read(new long[]{2000, 3000}, new long[]{8000, 8100});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 2000, 3001), values.get(2000L));
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 8000, 8101), values.get(8000L));
+        Assert.assertEquals(3, delegate.requests.size());
+    }
+
+    @Test
+    public void testReadAsync() {
+        URI uri = URI.create("http://test.url.com/async.tif");
+        byte[] content = content(10000);
+        Map<Long, CompletableFuture<byte[]>> pending = new HashMap<>();
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content, 256) {
+            @Override
+            public Map<Long, CompletableFuture<byte[]>> readAsync(Collection<long[]> ranges) {
+                ranges.forEach(range -> pending.put(range[0], new CompletableFuture<>()));
+                return pending;
+            }
+        };
+        CachingRangeReader reader = new CachingRangeReader(delegate, uri.toString(), 1024);
+        reader.read(new long[]{1100, 1199});
+
+        // cached blocks are served right away
+        Map<Long, CompletableFuture<byte[]>> values = reader.readAsync(Arrays.asList(new long[][]{{1100, 1199}}));
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1100, 1200), values.get(1100L).join());
+        Assert.assertTrue(pending.isEmpty());
+
+        // the missing ones once fetched
+        values = reader.readAsync(Arrays.asList(new long[][]{{1500, 3500}}));
+        Assert.assertFalse(values.get(1500L).isDone());
+        pending.get(2048L).complete(Arrays.copyOfRange(content, 2048, 4096));
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 1500, 3501), values.get(1500L).join());
+    }
+
+    @Test
+    public void testCancelPrefetches() {
+        URI uri = URI.create("http://test.url.com/cancel.tif");
+        Map<Long, CompletableFuture<byte[]>> pending = new HashMap<>();
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content(10000), 256) {
+            @Override
+            public Map<Long, CompletableFuture<byte[]>> readAsync(Collection<long[]> ranges) {
+                // requests that never complete
+                ranges.forEach(range -> pending.put(range[0], new CompletableFuture<>()));
+                return pending;
+            }
+        };
+        CachingRangeReader reader = new CachingRangeReader(delegate, uri.toString(), 1024);
+        CompletableFuture<Void> prefetch = reader.prefetch(Arrays.asList(new long[][]{{2000, 3000}}));
+        Assert.assertFalse(prefetch.isDone());
+
+        CachingRangeReader.cancelPrefetches();
+        Assert.assertTrue(prefetch.isCancelled());
+        Assert.assertTrue(pending.get(1024L).isCancelled());
+    }
+
+    @Test
+    public void testCancelPrefetchesOfEvictedBlocks() {
+        URI uri = URI.create("http://test.url.com/evicted.tif");
+        byte[] content = content(10000);
+        Map<Long, CompletableFuture<byte[]>> pending = new HashMap<>();
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content, 256) {
+            @Override
+            public Map<Long, CompletableFuture<byte[]>> readAsync(Collection<long[]> ranges) {
+                Map<Long, CompletableFuture<byte[]>> requests = new HashMap<>();
+                ranges.forEach(range -> requests.put(range[0], new CompletableFuture<>()));
+                pending.putAll(requests);
+                return requests;
+            }
+        };
+        CachingRangeReader reader = new CachingRangeReader(delegate, uri.toString(), 1024);
+        CompletableFuture<Void> first = reader.prefetch(Arrays.asList(new long[][]{{2000, 3000}, {5000, 5100}}));
+        CompletableFuture<Void> second = reader.prefetch(Arrays.asList(new long[][]{{8000, 8100}}));
+
+        // blocks are cached as their range gets fetched
+        pending.get(1024L).complete(Arrays.copyOfRange(content, 1024, 3072));
+        Assert.assertFalse(first.isDone());
+        Assert.assertEquals(0, delegate.requests.size());
+        Map<Long, byte[]> values = reader.read(new long[]{2000, 2100});
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, 2000, 2101), values.get(2000L));
+
+        // evicting one of them cancels the prefetch covering it only
+        CachingRangeReader.cancelPrefetches(new BlockCacheEntryKey(uri.toString(), 2));
+        Assert.assertTrue(first.isCancelled());
+        Assert.assertTrue(pending.get(4096L).isCancelled());
+        Assert.assertFalse(second.isDone());
+        // evicting a block of another file cancels nothing
+        CachingRangeReader.cancelPrefetches(new BlockCacheEntryKey("http://test.url.com/other.tif", 7));
+        Assert.assertFalse(second.isDone());
+        second.cancel(true);
+    }
+
+    @Test
+    public void testCachingStream() throws IOException {
+        URI uri = URI.create("http://test.url.com/stream.tif");
+        byte[] content = content(200000);
+        InMemoryRangeReader delegate = new InMemoryRangeReader(uri, content, 16384);
+        CachingCogImageInputStream stream = new CachingCogImageInputStream(uri, delegate);
+
+        CogTileInfo tileInfo = new CogTileInfo(16384);
+        tileInfo.addTileRange(0, 60000, 10000);
+        tileInfo.addTileRange(1, 120000, 50000);
+        stream.readRanges(tileInfo, new CogImageReadParam());
+
+        assertRead(stream, content, 100, 1000);
+        // spanning the first and second block
+        assertRead(stream, content, 60000, 10000);
+        // spanning the second and third block
+        assertRead(stream, content, 120000, 50000);
+
+        // a second stream on the same COG is fully served from cache
+        InMemoryRangeReader otherDelegate = new InMemoryRangeReader(uri, content, 16384);
+        CachingCogImageInputStream otherStream = new CachingCogImageInputStream(uri, otherDelegate);
+        otherStream.readRanges(tileInfo, new CogImageReadParam());
+        assertRead(otherStream, content, 120000, 50000);
+        Assert.assertTrue(otherDelegate.requests.isEmpty());
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.tiff;
+
+import it.geosolutions.imageio.plugins.cog.CogImageReadParam;
+import it.geosolutions.imageioimpl.plugins.cog.CogTileInfo;
+import it.geosolutions.imageioimpl.plugins.cog.DefaultCogImageInputStream;
+import it.geosolutions.imageioimpl.plugins.cog.RetryPolicy;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Tests reads served by the DefaultCogImageInputStream from the fetched ranges.
+ */
+public class DefaultCogImageInputStreamTest {
+
+    static final URI TEST_URI = URI.create("http://test.url.com/image.tif");
+
+    @Test
+    public void testReadWithinAndAcrossRanges() throws IOException {
+        byte[] content = content(4096);
+        DefaultCogImageInputStream stream = new DefaultCogImageInputStream(TEST_URI,
+                new InMemoryRangeReader(TEST_URI, content, 256));
+
+        // two tiles, read as two separate ranges since the gap merging is disabled
+        CogTileInfo tileInfo = new CogTileInfo(256);
+        tileInfo.addTileRange(0, 1000, 500);
+        tileInfo.addTileRange(1, 1500, 500);
+        CogImageReadParam param = new CogImageReadParam();
+        param.setRangeMaxGap(0);
+        param.setRangeMaxLength(500);
+        stream.readRanges(tileInfo, param);
+
+        // header
+        assertRead(stream, content, 10, 100);
+        // within a single range
+        assertRead(stream, content, 1100, 200);
+        // spanning two adjacent ranges
+        assertRead(stream, content, 1400, 200);
+
+        // single byte reads
+        stream.seek(1999);
+        Assert.assertEquals(content[1999] & 0xff, stream.read());
+        Assert.assertEquals(2000, stream.getStreamPosition());
+
+        // missing data
+        stream.seek(2500);
+        try {
+            stream.readFully(new byte[10]);
+            Assert.fail("Reading bytes outside of the fetched ranges should fail");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPipelinedReadsDeadline() {
+        byte[] content = content(4096);
+        InMemoryRangeReader rangeReader = new InMemoryRangeReader(TEST_URI, content, 256) {
+            @Override
+            public Map<Long, CompletableFuture<byte[]>> readAsync(Collection<long[]> ranges) {
+                // never completing
+                Map<Long, CompletableFuture<byte[]>> futures = new HashMap<>();
+                ranges.forEach(range -> futures.put(range[0], new CompletableFuture<>()));
+                return futures;
+            }
+
+            @Override
+            public RetryPolicy getRetryPolicy() {
+                return new RetryPolicy(0, 0, 0, 100);
+            }
+        };
+        DefaultCogImageInputStream stream = new DefaultCogImageInputStream(TEST_URI, rangeReader);
+        CogTileInfo tileInfo = new CogTileInfo(256);
+        tileInfo.addTileRange(0, 1000, 500);
+        CogImageReadParam param = new CogImageReadParam();
+        param.setRangeMaxGap(0);
+        param.setPipelined(true);
+        stream.readRanges(tileInfo, param);
+
+        // the read gives up after the timeout of the reader retry policy
+        long start = System.currentTimeMillis();
+        try {
+            assertRead(stream, content, 1000, 10);
+            Assert.fail("The read should have timed out");
+        } catch (IOException e) {
+            Assert.assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void testGapsMergedOnlyWithParams() throws IOException {
+        byte[] content = content(4096);
+        InMemoryRangeReader rangeReader = new InMemoryRangeReader(TEST_URI, content, 256);
+        DefaultCogImageInputStream stream = new DefaultCogImageInputStream(TEST_URI, rangeReader);
+        CogTileInfo tileInfo = new CogTileInfo(256);
+        tileInfo.addTileRange(0, 1000, 500);
+        tileInfo.addTileRange(1, 1600, 500);
+
+        // without parameters only contiguous ranges are merged, the header being read along
+        stream.readRanges(tileInfo);
+        Assert.assertEquals(3, rangeReader.requests.size());
+        assertRead(stream, content, 1100, 200);
+
+        // the default parameters merge the gaps between the header and the tiles
+        rangeReader.requests.clear();
+        stream.readRanges(tileInfo, new CogImageReadParam());
+        Assert.assertEquals(1, rangeReader.requests.size());
+        Assert.assertArrayEquals(new long[]{0, 2099}, rangeReader.requests.get(0));
+        assertRead(stream, content, 1400, 300);
+    }
+
+    @Test
+    public void testPipelinedReads() throws Exception {
+        byte[] content = content(4096);
+        Map<Long, CompletableFuture<byte[]>> futures = new ConcurrentHashMap<>();
+        InMemoryRangeReader rangeReader = new InMemoryRangeReader(TEST_URI, content, 256) {
+            @Override
+            public Map<Long, CompletableFuture<byte[]>> readAsync(Collection<long[]> ranges) {
+                // the header range is not fetched again
+                ranges.stream().filter(range -> range[0] >= getHeaderLength())
+                        .forEach(range -> futures.put(range[0], new CompletableFuture<>()));
+                return new HashMap<>(futures);
+            }
+        };
+        DefaultCogImageInputStream stream = new DefaultCogImageInputStream(TEST_URI, rangeReader);
+
+        CogTileInfo tileInfo = new CogTileInfo(256);
+        tileInfo.addTileRange(0, 1000, 500);
+        tileInfo.addTileRange(1, 2000, 500);
+        CogImageReadParam param = new CogImageReadParam();
+        param.setRangeMaxGap(0);
+        param.setPipelined(true);
+        stream.readRanges(tileInfo, param);
+        Assert.assertEquals(2, futures.size());
+
+        // the first tile can be read as soon as its range is available
+        futures.get(1000L).complete(Arrays.copyOfRange(content, 1000, 1500));
+        assertRead(stream, content, 1100, 200);
+
+        // reading the second tile waits for its range
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            futures.get(2000L).complete(Arrays.copyOfRange(content, 2000, 2500));
+        }).start();
+        assertRead(stream, content, 2000, 500);
+
+        // a failed range fails the read
+        stream.readRanges(tileInfo, param);
+        futures.get(1000L).completeExceptionally(new IOException("failure"));
+        try {
+            assertRead(stream, content, 1000, 10);
+            Assert.fail("The read should have failed");
+        } catch (IOException e) {
+            Assert.assertEquals("failure", e.getCause().getMessage());
+        }
+        // and cancels the other pending ones
+        Assert.assertTrue(futures.get(2000L).isCancelled());
+    }
+
+    @Test
+    public void testAsyncReadRanges() throws Exception {
+        byte[] content = content(4096);
+        Map<Long, CompletableFuture<byte[]>> futures = new ConcurrentHashMap<>();
+        InMemoryRangeReader rangeReader = new InMemoryRangeReader(TEST_URI, content, 256) {
+            @Override
+            public Map<Long, CompletableFuture<byte[]>> readAsync(Collection<long[]> ranges) {
+                ranges.stream().filter(range -> range[0] >= getHeaderLength())
+                        .forEach(range -> futures.put(range[0], new CompletableFuture<>()));
+                return new HashMap<>(futures);
+            }
+        };
+        DefaultCogImageInputStream stream = new DefaultCogImageInputStream(TEST_URI, rangeReader);
+
+        CogTileInfo tileInfo = new CogTileInfo(256);
+        tileInfo.addTileRange(0, 1000, 500);
+        tileInfo.addTileRange(1, 2000, 500);
+        CogImageReadParam param = new CogImageReadParam();
+        param.setRangeMaxGap(0);
+        // the requests are issued without waiting, even if the reads are not pipelined
+        CompletableFuture<Void> fetched = stream.readRangesAsync(tileInfo, param);
+        Assert.assertEquals(2, futures.size());
+        Assert.assertFalse(fetched.isDone());
+
+        futures.get(1000L).complete(Arrays.copyOfRange(content, 1000, 1500));
+        Assert.assertFalse(fetched.isDone());
+        futures.get(2000L).complete(Arrays.copyOfRange(content, 2000, 2500));
+        Assert.assertTrue(fetched.isDone());
+        assertRead(stream, content, 1000, 500);
+        assertRead(stream, content, 2000, 500);
+    }
+
+    @Test
+    public void testContentKey() {
+        InMemoryRangeReader rangeReader = new InMemoryRangeReader(TEST_URI, content(1024), 256);
+        DefaultCogImageInputStream stream = new DefaultCogImageInputStream(TEST_URI);
+        Assert.assertNull(stream.getContentKey());
+
+        stream.init(rangeReader);
+        Assert.assertEquals(TEST_URI.toString(), stream.getContentKey());
+
+        // a different version of the same resource gets a different key
+        rangeReader.version = "\"abc\"";
+        String key = stream.getContentKey();
+        rangeReader.version = "\"def\"";
+        Assert.assertNotEquals(key, stream.getContentKey());
+    }
+
+    static void assertRead(ImageInputStream stream, byte[] content, int position, int length)
+            throws IOException {
+        byte[] bytes = new byte[length];
+        stream.seek(position);
+        stream.readFully(bytes);
+        Assert.assertArrayEquals(Arrays.copyOfRange(content, position, position + length), bytes);
+        Assert.assertEquals(position + length, stream.getStreamPosition());
+    }
+
+    static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    https://github.com/geosolutions-it/imageio-ext
+ *    (C) 2019, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.tiff;
+
+import it.geosolutions.imageioimpl.plugins.cog.RangeReader;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A RangeReader serving ranges from a byte array, keeping track of the requested ranges.  Like a remote server, it
+ * truncates the ranges at the end of the content, and fails on ranges starting past it.
+ */
+class InMemoryRangeReader implements RangeReader {
+
+    private final URI uri;
+    private final byte[] content;
+    private int headerLength;
+    String version;
+    /** The version recorded while reading the header, as remote readers do, if not null */
+    String headerVersion;
+    final List<long[]> requests = new ArrayList<>();
+
+    InMemoryRangeReader(URI uri, byte[] content, int headerLength) {
+        this.uri = uri;
+        this.content = content;
+        this.headerLength = headerLength;
+    }
+
+    @Override
+    public URL getURL() throws MalformedURLException {
+        return uri.toURL();
+    }
+
+    @Override
+    public void setHeaderLength(int headerLength) {
+        this.headerLength = headerLength;
+    }
+
+    @Override
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    @Override
+    public synchronized Map<Long, byte[]> read(long[]... ranges) {
+        Map<Long, byte[]> values = new HashMap<>();
+        for (long[] range : ranges) {
+            requests.add(range);
+            if (range[0] >= content.length) {
+                throw new IllegalArgumentException("Range not satisfiable: " + range[0] + "-" + range[1]);
+            }
+            int end = (int) Math.min(range[1] + 1, content.length);
+            values.put(range[0], Arrays.copyOfRange(content, (int) range[0], end));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<Long, byte[]> read(Collection<long[]> ranges) {
+        return read(ranges.toArray(new long[][]{}));
+    }
+
+    @Override
+    public byte[] readHeader() {
+        if (headerVersion != null) {
+            version = headerVersion;
+        }
+        return Arrays.copyOf(content, Math.min(headerLength, content.length));
+    }
+
+    @Override
+    public byte[] fetchHeader() {
+        return readHeader();
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+}
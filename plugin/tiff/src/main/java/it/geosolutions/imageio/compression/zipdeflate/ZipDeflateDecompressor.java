@@ -48,6 +48,11 @@ public class ZipDeflateDecompressor implements Decompressor {
 
     }
 
+    @Override
+    public void setInput(byte[] srcData, int offset, int length) {
+        inflater.setInput(srcData, offset, length);
+    }
+
     @Override
     public void decompress(byte[] buffer, int offset, int maxUncompressedSize) throws DataFormatException {
         inflater.inflate(buffer, offset, maxUncompressedSize);
@@ -97,6 +97,7 @@ import java.awt.image.WritableRaster;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 import javax.imageio.IIOException;
 import javax.imageio.ImageReader;
@@ -451,6 +452,11 @@ public abstract class TIFFDecompressor {
      */
     protected TIFFColorConverter colorConverter;
 
+    // Scratch buffers reused across tiles and strips, released by dispose()
+    private byte[] compressedData;
+    private byte[] rawBuffer;
+    private byte[] scanlineBuffer;
+
     boolean isBilevel;
     boolean isContiguous;
     boolean isImageSimple;
@@ -2059,7 +2065,7 @@ public abstract class TIFFDecompressor {
         int bytesPerRow = (srcWidth*bitsPerPixel + 7)/8;
         int shortsPerRow = bytesPerRow/2;
 
-        byte[] b = new byte[bytesPerRow*srcHeight];
+        byte[] b = getRawBuffer(bytesPerRow*srcHeight);
         decodeRaw(b, 0, bitsPerPixel, bytesPerRow);
 
         int bOffset = 0;
@@ -2117,7 +2123,7 @@ public abstract class TIFFDecompressor {
         int intsPerRow = srcWidth*numBands;
         int bytesPerRow = intsPerRow*4;
 
-        byte[] b = new byte[bytesPerRow*srcHeight];
+        byte[] b = getRawBuffer(bytesPerRow*srcHeight);
         decodeRaw(b, 0, bitsPerPixel, bytesPerRow);
 
         int bOffset = 0;
@@ -2179,7 +2185,7 @@ public abstract class TIFFDecompressor {
         int floatsPerRow = srcWidth*numBands;
         int bytesPerRow = floatsPerRow*4;
 
-        byte[] b = new byte[bytesPerRow*srcHeight];
+        byte[] b = getRawBuffer(bytesPerRow*srcHeight);
         decodeRaw(b, 0, bitsPerPixel, bytesPerRow);
 
         int bOffset = 0;
@@ -2675,7 +2681,7 @@ public abstract class TIFFDecompressor {
                             // Decode into bytes and reformat into shorts.
                             int bpp = getBitsPerPixel(sm);
                             int bytesPerRow = (bpp*srcWidth + 7)/8;
-                            byte[] buf = new byte[bytesPerRow*srcHeight];
+                            byte[] buf = getRawBuffer(bytesPerRow*srcHeight);
                             decodeRaw(buf, 0, bpp, bytesPerRow);
                             reformatData(buf, bytesPerRow, srcHeight,
                                          shortData, null,
@@ -2699,7 +2705,7 @@ public abstract class TIFFDecompressor {
                             // Decode into bytes and reformat into ints.
                             int bpp = getBitsPerPixel(sm);
                             int bytesPerRow = (bpp*srcWidth + 7)/8;
-                            byte[] buf = new byte[bytesPerRow*srcHeight];
+                            byte[] buf = getRawBuffer(bytesPerRow*srcHeight);
                             decodeRaw(buf, 0, bpp, bytesPerRow);
                             reformatData(buf, bytesPerRow, srcHeight,
                                          null, intData,
@@ -2715,7 +2721,7 @@ public abstract class TIFFDecompressor {
                 // into the Raster.
                 int bpp = getBitsPerPixel(sm);
                 int bytesPerRow = (bpp*srcWidth + 7)/8;
-                byte[] buf = new byte[bytesPerRow*srcHeight];
+                byte[] buf = getRawBuffer(bytesPerRow*srcHeight);
                 decodeRaw(buf, 0, bpp, bytesPerRow);
                 reformatDiscontiguousData(buf, bytesPerRow,
                                           srcWidth, srcHeight,
@@ -3106,7 +3112,7 @@ public abstract class TIFFDecompressor {
         int doublesPerRow = srcWidth*numBands;
         int bytesPerRow = doublesPerRow*8;
 
-        byte[] b = new byte[bytesPerRow*srcHeight];
+        byte[] b = getRawBuffer(bytesPerRow*srcHeight);
         decodeRaw(b, 0, pixelBitStride, bytesPerRow);
 
         int bOffset = 0;
@@ -3149,6 +3155,60 @@ public abstract class TIFFDecompressor {
         }
     }
 
+    /**
+     * Reads the <code>byteCount</code> bytes of compressed data located
+     * at <code>offset</code> in the source stream. The returned array is
+     * owned by this decompressor and reused by the following calls, so it
+     * may be longer than <code>byteCount</code>: only its first
+     * <code>byteCount</code> bytes are meaningful.
+     *
+     * @return a buffer holding the compressed data at its start.
+     *
+     * @throws IOException if an error occurs reading from the source
+     * <code>ImageInputStream</code>.
+     */
+    protected byte[] readCompressedData() throws IOException {
+        if (compressedData == null || compressedData.length < byteCount) {
+            compressedData = new byte[byteCount];
+        }
+        stream.seek(offset);
+        stream.readFully(compressedData, 0, byteCount);
+        return compressedData;
+    }
+
+    /**
+     * Returns a scratch buffer, owned by this decompressor, that
+     * subclasses can use to decode rows that do not fit the scanline
+     * stride of the destination. The buffer may be longer than
+     * requested, its first <code>length</code> bytes are zeroed.
+     *
+     * @param length the number of bytes needed.
+     * @return a zeroed buffer of at least <code>length</code> bytes.
+     */
+    protected byte[] getScanlineBuffer(int length) {
+        scanlineBuffer = clear(scanlineBuffer, length);
+        return scanlineBuffer;
+    }
+
+    /**
+     * Returns the buffer receiving the output of
+     * <code>decodeRaw(byte[], ...)</code> before it is reformatted,
+     * distinct from the one returned by <code>getScanlineBuffer</code>
+     * since the latter can be used while decoding into the former.
+     */
+    private byte[] getRawBuffer(int length) {
+        rawBuffer = clear(rawBuffer, length);
+        return rawBuffer;
+    }
+
+    private static byte[] clear(byte[] buffer, int length) {
+        if (buffer == null || buffer.length < length) {
+            return new byte[length];
+        }
+        Arrays.fill(buffer, 0, length, (byte)0);
+        return buffer;
+    }
+
     /**
      * Disposes the decompressor, relasing the fields using the most memory
      */
@@ -3156,6 +3216,9 @@ public abstract class TIFFDecompressor {
         this.image = null;
         this.rawImage = null;
         this.colorMap = null;
+        this.compressedData = null;
+        this.rawBuffer = null;
+        this.scanlineBuffer = null;
     }
 
     public static int readIntegerFromBuffer(byte[] buf, int offset1, int offset2, int offset3, int offset4) {
@@ -77,6 +77,7 @@ import it.geosolutions.imageio.imageioimpl.EnhancedImageReadParam;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import javax.imageio.ImageReadParam;
 
@@ -118,6 +119,10 @@ public class TIFFImageReadParam extends EnhancedImageReadParam {
 
     TIFFColorConverter colorConverter = null;
 
+    boolean parallelDecoding = false;
+
+    ForkJoinPool decodingPool = null;
+
     /**
      * Constructs a <code>TIFFImageReadParam</code>.  Tags defined by
      * the <code>TIFFTagSet</code>s <code>BaselineTIFFTagSet</code>,
@@ -238,4 +243,63 @@ public class TIFFImageReadParam extends EnhancedImageReadParam {
     public TIFFColorConverter getColorConverter() {
         return this.colorConverter;
     }
+
+    /**
+     * Sets whether the strips or tiles of the image should be decoded
+     * concurrently, each decoding thread using its own
+     * <code>TIFFDecompressor</code>.  The decoded image is the same as
+     * the one obtained decoding the strips or tiles one after the
+     * other.  Parallel decoding is not performed if a
+     * <code>TIFFDecompressor</code> has been set, for old-style JPEG
+     * compression, and for images having less than 8 bits per pixel.
+     *
+     * @param parallelDecoding <code>true</code> to decode the strips
+     * or tiles concurrently.
+     *
+     * @see #isParallelDecoding
+     * @see #setDecodingPool(ForkJoinPool)
+     */
+    public void setParallelDecoding(boolean parallelDecoding) {
+        this.parallelDecoding = parallelDecoding;
+    }
+
+    /**
+     * Returns whether the strips or tiles of the image will be decoded
+     * concurrently.
+     *
+     * @return <code>true</code> if parallel decoding is enabled.
+     *
+     * @see #setParallelDecoding(boolean)
+     */
+    public boolean isParallelDecoding() {
+        return parallelDecoding;
+    }
+
+    /**
+     * Sets the <code>ForkJoinPool</code> decoding the strips or tiles
+     * when parallel decoding is enabled.  A value of <code>null</code>
+     * uses the common pool.
+     *
+     * @param decodingPool the pool decoding the strips or tiles, or
+     * <code>null</code> to use the common pool.
+     *
+     * @see #getDecodingPool
+     */
+    public void setDecodingPool(ForkJoinPool decodingPool) {
+        this.decodingPool = decodingPool;
+    }
+
+    /**
+     * Returns the <code>ForkJoinPool</code> decoding the strips or
+     * tiles when parallel decoding is enabled, or <code>null</code>
+     * if the common pool is used.
+     *
+     * @return the pool decoding the strips or tiles, or
+     * <code>null</code>.
+     *
+     * @see #setDecodingPool(ForkJoinPool)
+     */
+    public ForkJoinPool getDecodingPool() {
+        return decodingPool;
+    }
 }
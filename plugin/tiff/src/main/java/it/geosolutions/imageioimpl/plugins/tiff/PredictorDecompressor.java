@@ -48,6 +48,8 @@ public class PredictorDecompressor {
     private int[] sampleFormat;
     private int samplesPerPixel;
     private ByteOrder byteOrder;
+    /** scratch row used to reorder the bytes of the floating point predictor */
+    private byte[] row;
 
     public PredictorDecompressor(int predictor, int[] bitsPerSample,
                                  int[] sampleFormat, int samplesPerPixel,
@@ -59,6 +61,30 @@ public class PredictorDecompressor {
         this.byteOrder = byteOrder;
     }
 
+    /**
+     * Returns a validated predictor for the provided setup, reusing <code>current</code> when
+     * it has been created with the same parameters, so that it can be kept across tiles.
+     */
+    public static PredictorDecompressor getInstance(PredictorDecompressor current, int predictor,
+                                                    int[] bitsPerSample, int[] sampleFormat,
+                                                    int samplesPerPixel, ByteOrder byteOrder)
+            throws IIOException {
+        if (current != null && current.predictor == predictor
+                && current.samplesPerPixel == samplesPerPixel
+                && current.byteOrder == byteOrder
+                && Arrays.equals(current.bitsPerSample, bitsPerSample)
+                && Arrays.equals(current.sampleFormat, sampleFormat)) {
+            return current;
+        }
+        // copy the arrays, callers may update them in place
+        PredictorDecompressor result = new PredictorDecompressor(predictor,
+                bitsPerSample == null ? null : bitsPerSample.clone(),
+                sampleFormat == null ? null : sampleFormat.clone(),
+                samplesPerPixel, byteOrder);
+        result.validate();
+        return result;
+    }
+
     /**
      * Decompress the buffer content by applying the proper predictor algorithm
      */
@@ -151,7 +177,11 @@ public class PredictorDecompressor {
                 }
 
                 // Reorder the semi-BigEndian bytes.
-                byte[] tmp = Arrays.copyOfRange(buf, offset, offset + bytesPerRow);
+                if (row == null || row.length < bytesPerRow) {
+                    row = new byte[bytesPerRow];
+                }
+                byte[] tmp = row;
+                System.arraycopy(buf, offset, tmp, 0, bytesPerRow);
                 int samplesPerRow = srcWidth * samplesPerPixel;
                 if (byteOrder == ByteOrder.BIG_ENDIAN) {
                     for (int i = 0; i < samplesPerRow; i++) {
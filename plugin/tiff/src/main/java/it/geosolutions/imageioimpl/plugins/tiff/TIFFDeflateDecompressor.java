@@ -90,6 +90,7 @@ public class TIFFDeflateDecompressor extends TIFFDecompressor {
     private static final boolean DEBUG = false;
     int predictor;
     Decompressor deflateDecompressor;
+    PredictorDecompressor predictorDecompressor;
 
     public TIFFDeflateDecompressor(int predictor) throws IIOException {
         if (predictor != BaselineTIFFTagSet.PREDICTOR_NONE &&
@@ -111,16 +112,11 @@ public class TIFFDeflateDecompressor extends TIFFDecompressor {
                                        int bitsPerPixel,
                                        int scanlineStride) throws IOException {
 
-        PredictorDecompressor predictorDecompressor = new PredictorDecompressor(
+        predictorDecompressor = PredictorDecompressor.getInstance(predictorDecompressor,
                 predictor, bitsPerSample, sampleFormat, samplesPerPixel, stream.getByteOrder());
-        predictorDecompressor.validate();
 
-        // Seek to current tile data offset.
-        stream.seek(offset);
-
-        // Read the deflated data.
-        byte[] srcData = new byte[byteCount];
-        stream.readFully(srcData);
+        // Read the deflated data of the current tile.
+        byte[] srcData = readCompressedData();
 
         int bytesPerRow = (srcWidth*bitsPerPixel + 7)/8;
         byte[] buf;
@@ -129,11 +125,11 @@ public class TIFFDeflateDecompressor extends TIFFDecompressor {
             buf = b;
             bufOffset = dstOffset;
         } else {
-            buf = new byte[bytesPerRow*srcHeight];
+            buf = getScanlineBuffer(bytesPerRow*srcHeight);
             bufOffset = 0;
         }
 
-        deflateDecompressor.setInput(srcData);
+        deflateDecompressor.setInput(srcData, 0, byteCount);
         try {
             deflateDecompressor.decompress(buf, bufOffset, bytesPerRow*srcHeight);
         } catch (DataFormatException dfe) {
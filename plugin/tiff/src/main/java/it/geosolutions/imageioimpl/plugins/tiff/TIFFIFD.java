@@ -93,8 +93,11 @@ import javax.imageio.stream.ImageOutputStream;
 
 public class TIFFIFD extends TIFFDirectory {
 	
-	/** we do not allow lazy loading by default.**/
-    private static final boolean LAZY_LOADING = Boolean.getBoolean("it.geosolutions.imageio.tiff.lazy");
+	/**
+	 * System property enabling the lazy loading of the strip or tile offsets and byte counts, checked whenever
+	 * an IFD is parsed. We do not allow lazy loading by default.
+	 */
+    public static final String LAZY_LOADING_KEY = "it.geosolutions.imageio.tiff.lazy";
 	private long stripOrTileByteCountsPosition = -1;
     private long stripOrTileOffsetsPosition = -1;
     private long lastPosition = -1;
@@ -228,6 +231,7 @@ public class TIFFIFD extends TIFFDirectory {
     	removeTIFFFields();
 
         List tagSetList = getTagSetList();
+        final boolean lazyLoading = Boolean.getBoolean(LAZY_LOADING_KEY);
 
        
         final long numEntries;
@@ -294,7 +298,7 @@ public class TIFFIFD extends TIFFDirectory {
                 tag == BaselineTIFFTagSet.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH) {
                 this.stripOrTileByteCountsPosition =
                     stream.getStreamPosition();
-                if (LAZY_LOADING) {
+                if (lazyLoading) {
                 	type = type == TIFFTag.TIFF_LONG ? TIFFTag.TIFF_LAZY_LONG : TIFFTag.TIFF_LAZY_LONG8;
                 }
             } else if (tag == BaselineTIFFTagSet.TAG_STRIP_OFFSETS ||
@@ -302,7 +306,7 @@ public class TIFFIFD extends TIFFDirectory {
                        tag == BaselineTIFFTagSet.TAG_JPEG_INTERCHANGE_FORMAT) {
                 this.stripOrTileOffsetsPosition =
                     stream.getStreamPosition();
-                if (LAZY_LOADING) {
+                if (lazyLoading) {
                 	type = type == TIFFTag.TIFF_LONG ? TIFFTag.TIFF_LAZY_LONG : TIFFTag.TIFF_LAZY_LONG8;
                 }
             }
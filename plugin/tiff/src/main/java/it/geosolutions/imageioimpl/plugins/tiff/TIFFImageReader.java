@@ -76,6 +76,7 @@ package it.geosolutions.imageioimpl.plugins.tiff;
 import com.sun.media.imageioimpl.common.BogusColorSpace;
 import com.sun.media.imageioimpl.common.ImageUtil;
 import com.sun.media.imageioimpl.common.PackageUtil;
+import it.geosolutions.imageio.core.ExtCaches;
 import it.geosolutions.imageio.imageioimpl.EnhancedImageReadParam;
 import it.geosolutions.imageio.maskband.DatasetLayout;
 import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
@@ -84,7 +85,9 @@ import it.geosolutions.imageio.plugins.tiff.TIFFColorConverter;
 import it.geosolutions.imageio.plugins.tiff.TIFFDecompressor;
 import it.geosolutions.imageio.plugins.tiff.TIFFField;
 import it.geosolutions.imageio.plugins.tiff.TIFFImageReadParam;
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExt;
 import it.geosolutions.imageio.stream.input.FileImageInputStreamExtImpl;
+import it.geosolutions.imageio.stream.input.URIImageInputStream;
 import it.geosolutions.imageio.utilities.ImageIOUtilities;
 import it.geosolutions.imageioimpl.plugins.tiff.gdal.GDALMetadata;
 import it.geosolutions.imageioimpl.plugins.tiff.gdal.GDALMetadataParser;
@@ -95,6 +98,7 @@ import javax.imageio.*;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
 import javax.media.jai.RasterFactory;
 import java.awt.*;
 import java.awt.color.ColorSpace;
@@ -104,9 +108,20 @@ import java.awt.image.*;
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
+import java.net.URI;
 import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.IntStream;
@@ -320,6 +335,39 @@ public class TIFFImageReader extends ImageReader {
     
     private Map<Integer, PageInfo> pagesInfo = new HashMap<Integer, PageInfo>();
 
+    public static final String SHARED_PAGES_INFO_SIZE_KEY = "it.geosolutions.tiff.pagesinfo.cache.size";
+
+    /**
+     * Maximum number of sources whose parsed pages info are shared among readers, configurable through the
+     * {@link #SHARED_PAGES_INFO_SIZE_KEY} system property.
+     */
+    private static final int SHARED_PAGES_INFO_SIZE = Integer.getInteger(SHARED_PAGES_INFO_SIZE_KEY, 256);
+
+    /**
+     * Pages info shared among the readers of the same source, see {@link #getPagesInfoCacheKey()}. The least
+     * recently used sources are evicted first.
+     */
+    private static final Map<String, Map<Integer, PageInfo>> SHARED_PAGES_INFO = Collections.synchronizedMap(
+            new LinkedHashMap<String, Map<Integer, PageInfo>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Map<Integer, PageInfo>> eldest) {
+                    return size() > SHARED_PAGES_INFO_SIZE;
+                }
+            });
+
+    static {
+        ExtCaches.addListener(() -> SHARED_PAGES_INFO.clear());
+    }
+
+    /**
+     * System property enabling the sharing of the pages info of local files and URI streams among readers, see
+     * {@link #getPagesInfoCacheKey()}. Disabled by default.
+     */
+    public static final String SHARED_PAGES_INFO_LOCAL_KEY = "it.geosolutions.tiff.pagesinfo.cache.local";
+
+    /** The key of the current source in the shared pages info, if enabled and the source can be identified */
+    private String localPagesInfoKey;
+
     private boolean bigtiff = false;
         
     // The current ImageInputStream source.
@@ -430,6 +478,8 @@ public class TIFFImageReader extends ImageReader {
                     ("input not an ImageInputStream!"); 
             }
             this.stream = (ImageInputStream)input;
+            this.localPagesInfoKey = Boolean.getBoolean(SHARED_PAGES_INFO_LOCAL_KEY) ?
+                getLocalPagesInfoKey(stream) : null;
             // Check for external masks/overviews
             if (!ImageIOUtilities.isSkipExternalFilesLookup() && input instanceof FileImageInputStreamExtImpl) {
 
@@ -461,6 +511,7 @@ public class TIFFImageReader extends ImageReader {
             }
         } else {
             this.stream = null;
+            this.localPagesInfoKey = null;
         }
         // Creating the New DatasetLayout for handling Overviews and Masking
         layout = new TiffDatasetLayoutImpl();
@@ -816,17 +867,17 @@ public class TIFFImageReader extends ImageReader {
         	return;
         }
         // in case we have cache the info for this page
-        if(pagesInfo.containsKey(i)){
+        final PageInfo info = getPageInfo(i);
+        if(info != null){
             // initialize from cachedinfo only if needed
             // TODO Improve
             if(imageMetadata == null || !initialized) {// this means the curindex has changed
-                final PageInfo info = pagesInfo.get(i);
                 final TIFFImageMetadata metadata = info.imageMetadata.get();
                 if (metadata != null) {
                     initializeFromCachedInfo(info, metadata);
                     return;
                 }
-                pagesInfo.put(i,null);
+                pagesInfo.remove(i);
                     
             }
         }
@@ -835,6 +886,85 @@ public class TIFFImageReader extends ImageReader {
         initializeFromMetadata();
     }
 
+    /**
+     * Returns the info of the requested page, looking it up in the pages info shared by the readers of the same
+     * source if this reader hasn't parsed it yet.
+     */
+    private PageInfo getPageInfo(Integer index) {
+        PageInfo info = pagesInfo.get(index);
+        if (info == null) {
+            String key = getPagesInfoCacheKey();
+            if (key != null) {
+                Map<Integer, PageInfo> shared = SHARED_PAGES_INFO.get(key);
+                if (shared != null && (info = shared.get(index)) != null) {
+                    pagesInfo.put(index, info);
+                }
+            }
+        }
+        return info;
+    }
+
+    /**
+     * Returns a key identifying the content of the current source, or null if it can't be identified. When not
+     * null, the parsed IFDs of the source (including the tile offsets and byte counts) are shared among all the
+     * readers returning the same key, so that opening an already known source doesn't require parsing them again.
+     * The key must change whenever the content of the source does, e.g. by including its last modification time
+     * or ETag. Readers sharing pages info must not modify the metadata they hold.  Pages info holding lazily loaded
+     * offsets and byte counts are never shared, as they read from the stream of the reader that parsed them.
+     * <p>
+     * When the {@link #SHARED_PAGES_INFO_LOCAL_KEY} system property is set to true, local files are keyed by path,
+     * size and last modification time, and other URI streams by URI only, so their changes go unnoticed until the
+     * entry is evicted or {@link ExtCaches#clean()} is called. Returns null otherwise, subclasses can override to
+     * enable sharing for other sources.
+     */
+    protected String getPagesInfoCacheKey() {
+        return localPagesInfoKey;
+    }
+
+    /**
+     * Returns the key identifying the content of a stream reading a local file or a URI, or null if the stream
+     * exposes neither. The starting position of the stream is part of the key, as IFDs are looked up from there.
+     */
+    private static String getLocalPagesInfoKey(ImageInputStream stream) {
+        File file = null;
+        URI uri = null;
+        try {
+            if (stream instanceof FileImageInputStreamExt) {
+                file = ((FileImageInputStreamExt) stream).getFile();
+            } else if (stream instanceof URIImageInputStream) {
+                uri = ((URIImageInputStream) stream).getUri();
+                if (uri != null && "file".equalsIgnoreCase(uri.getScheme())) {
+                    file = new File(uri);
+                }
+            }
+            if (file != null) {
+                BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+                return file.getAbsolutePath() + ":" + attributes.size() + ":" +
+                    attributes.lastModifiedTime().toMillis() + "@" + stream.getStreamPosition();
+            } else if (uri != null) {
+                return uri + "@" + stream.getStreamPosition();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, "Unable to identify the content of " + (file != null ? file : uri), e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns whether the metadata holds lazily loaded fields (see {@link TIFFIFD#LAZY_LOADING_KEY}), which read
+     * their values from the stream of this reader and thus can't be shared with other readers.
+     */
+    private static boolean hasLazyData(TIFFImageMetadata imageMetadata) {
+        for (TIFFField field : imageMetadata.getRootIFD().getTIFFFields()) {
+            if (field.getData() instanceof TIFFLazyData) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void initializeFromCachedInfo(PageInfo pageInfo, TIFFImageMetadata imageMetadata) {
         this.bigtiff = pageInfo.bigtiff;
         this.bitsPerSample = pageInfo.bitsPerSample;
@@ -852,6 +982,8 @@ public class TIFFImageReader extends ImageReader {
         this.tileOrStripWidth = pageInfo.tileOrStripWidth;
         this.width = pageInfo.width;
         this.noData = pageInfo.noData;
+        this.offsets = pageInfo.offsets;
+        this.scales = pageInfo.scales;
         this.imageMetadata = imageMetadata;
     }
 
@@ -1321,8 +1453,7 @@ public class TIFFImageReader extends ImageReader {
         initialized = true;
         
         // cache the page info for later reuse
-        pagesInfo.put(
-                currIndex, 
+        final PageInfo pageInfo =
                 new PageInfo(
                         imageMetadata,
                         bigtiff, 
@@ -1342,7 +1473,12 @@ public class TIFFImageReader extends ImageReader {
                         extraSamples,
                         noData,
                         offsets,
-                        scales));
+                        scales);
+        pagesInfo.put(currIndex, pageInfo);
+        String key = getPagesInfoCacheKey();
+        if (key != null && !ignoreMetadata && !hasLazyData(imageMetadata)) {
+            SHARED_PAGES_INFO.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(currIndex, pageInfo);
+        }
 
     }
 
@@ -1557,6 +1693,19 @@ public class TIFFImageReader extends ImageReader {
 
     private TIFFDecompressor decompressor;
 
+    /** Whether {@link #decompressor} has been obtained from {@link #acquireDecompressor(String)} */
+    private boolean standardDecompressor;
+
+    /** The key {@link #decompressor} has been acquired with, if standard */
+    private String decompressorKey;
+
+    /**
+     * Idle standard decompressors keyed by {@link #getDecompressorKey()}, reused across reads and by the parallel
+     * decoding workers, so that their setup (e.g. looking up and creating a JPEG reader) is paid once per reader.
+     */
+    private final Map<String, Deque<TIFFDecompressor>> idleDecompressors =
+            new HashMap<String, Deque<TIFFDecompressor>>();
+
     // floor(num/den)
     private static int ifloor(int num, int den) {
         if (num < 0) {
@@ -1667,6 +1816,24 @@ public class TIFFImageReader extends ImageReader {
     }
 
     private void decodeTile(int ti, int tj, int band) throws IOException {
+        Rectangle dstRect = new Rectangle(dstMinX, dstMinY, dstWidth, dstHeight);
+        decodeTile(decompressor, ti, tj, band, dstRect, false);
+        dstMinX = dstRect.x;
+        dstMinY = dstRect.y;
+        dstWidth = dstRect.width;
+        dstHeight = dstRect.height;
+    }
+
+    /**
+     * Decodes a strip or tile with the provided decompressor.
+     *
+     * @param dstRect set to the destination region of the strip or tile, left untouched if the strip or tile does not
+     * intersect the image
+     * @param detached whether the compressed bytes should be copied out of the reader stream before decoding, so that
+     * other strips or tiles can be decoded concurrently
+     */
+    private void decodeTile(TIFFDecompressor decompressor, int ti, int tj, int band, Rectangle dstRect,
+                            boolean detached) throws IOException {
         if(DEBUG) {
             System.out.println("decodeTile("+ti+","+tj+","+band+")");
         }
@@ -1697,26 +1864,24 @@ public class TIFFImageReader extends ImageReader {
         // Determine dest region that can be derived from the
         // source region
         
-        dstMinX = iceil(srcMinX - sourceXOffset, srcXSubsampling);
+        int dstMinX = iceil(srcMinX - sourceXOffset, srcXSubsampling);
         int dstMaxX = ifloor(srcMinX + srcWidth - 1 - sourceXOffset,
                          srcXSubsampling);
         
-        dstMinY = iceil(srcMinY - sourceYOffset, srcYSubsampling);
+        int dstMinY = iceil(srcMinY - sourceYOffset, srcYSubsampling);
         int dstMaxY = ifloor(srcMinY + srcHeight - 1 - sourceYOffset,
                              srcYSubsampling);
         
-        dstWidth = dstMaxX - dstMinX + 1;
-        dstHeight = dstMaxY - dstMinY + 1;
+        int dstWidth = dstMaxX - dstMinX + 1;
+        int dstHeight = dstMaxY - dstMinY + 1;
         
         dstMinX += dstXOffset;
         dstMinY += dstYOffset;
         
         // Clip against image bounds
         
-        Rectangle dstRect = new Rectangle(dstMinX, dstMinY,
-                                          dstWidth, dstHeight);
-        dstRect =
-            dstRect.intersection(theImage.getRaster().getBounds());
+        dstRect.setBounds(new Rectangle(dstMinX, dstMinY,
+                                        dstWidth, dstHeight).intersection(theImage.getRaster().getBounds()));
         
         dstMinX = dstRect.x;
         dstMinY = dstRect.y;
@@ -1766,8 +1931,21 @@ public class TIFFImageReader extends ImageReader {
             tileIndex += band*tilesAcross*tilesDown;
         }
         
-        long offset = getTileOrStripOffset(tileIndex);
-        long byteCount = getTileOrStripByteCount(tileIndex);
+        // offsets and byte counts may be lazily read from the stream
+        long offset;
+        long byteCount;
+        long streamLength;
+        synchronized (stream) {
+            offset = getTileOrStripOffset(tileIndex);
+            byteCount = getTileOrStripByteCount(tileIndex);
+            streamLength = stream.length();
+        }
+
+        // sparse files (e.g. written by GDAL with SPARSE_OK) have no bytes for empty tiles or strips
+        if (byteCount == 0) {
+            fillEmptyTile(band, dstRect);
+            return;
+        }
 
         //
         // Attempt to handle truncated streams, i.e., where reading the
@@ -1776,7 +1954,6 @@ public class TIFFImageReader extends ImageReader {
         // from the stream starting at the indicated position in the hope
         // that the decompressor will handle it.
         //
-        long streamLength = stream.length();
         if(streamLength > 0 && offset + byteCount > streamLength) {
             processWarningOccurred("Attempting to process truncated stream.");
             if(Math.max(byteCount = streamLength - offset, 0) == 0) {
@@ -1785,15 +1962,246 @@ public class TIFFImageReader extends ImageReader {
             }
         }
 
-        decompressor.setStream(stream);
-        decompressor.setOffset(offset);
+        if (detached) {
+            decompressor.setStream(readTileOrStrip(offset, (int)byteCount));
+            decompressor.setOffset(0);
+        } else {
+            decompressor.setStream(stream);
+            decompressor.setOffset(offset);
+        }
         decompressor.setByteCount((int)byteCount);
-        ((TIFFDecompressor)decompressor).setNoData(noData);
+        decompressor.setNoData(noData);
         decompressor.beginDecoding();
 
+        if (detached) {
+            decompressor.decode();
+        } else {
+            stream.mark();
+            decompressor.decode();
+            stream.reset();
+        }
+    }
+
+    /**
+     * Reads the compressed bytes of a strip or tile, returning them as a stream with the byte order of the reader one.
+     */
+    private ImageInputStream readTileOrStrip(long offset, int byteCount) throws IOException {
+        byte[] bytes = new byte[byteCount];
+        synchronized (stream) {
+            stream.seek(offset);
+            stream.readFully(bytes);
+        }
+        return new ByteArrayImageInputStream(bytes, stream.getByteOrder());
+    }
+
+    /**
+     * Returns whether the strips or tiles of the current read can be decoded concurrently: the reader must be able to
+     * replicate the decompressor, the decompressor must need nothing but the bytes of a strip or tile, and no byte
+     * of the destination image may be shared by two of them.
+     */
+    private boolean canDecodeInParallel() {
+        return !(decompressor instanceof TIFFOldJPEGDecompressor) &&
+               !(decompressor instanceof TIFFCodecLibFaxDecompressor) &&
+               !(theImage.getSampleModel() instanceof MultiPixelPackedSampleModel);
+    }
+
+    /**
+     * Decodes the strips or tiles of the source region on the provided pool, each worker using its own decompressor.
+     * The calling thread decodes along with the pool workers, so that the read completes even if the pool has no
+     * worker available, e.g. when reading from a task of the same pool: workers not started yet by the time the
+     * calling thread runs out of strips or tiles are not waited for.  Progress is reported on the calling thread, as
+     * the strips or tiles get decoded, and abort requests are checked by the workers before decoding each of them.
+     *
+     * @return whether the read has been aborted
+     */
+    private boolean decodeTilesInParallel(ForkJoinPool pool, TIFFColorConverter colorConverter,
+                                          int minTileX, int minTileY, int maxTileX, int maxTileY)
+        throws IOException {
+        ParallelDecoding decoding = new ParallelDecoding(colorConverter, minTileX, minTileY, maxTileX, maxTileY);
+        int helperCount = Math.min(pool.getParallelism(), decoding.tileCount) - 1;
+
+        List<AtomicBoolean> claims = new ArrayList<AtomicBoolean>(helperCount);
+        List<ForkJoinTask<Void>> helpers = new ArrayList<ForkJoinTask<Void>>(helperCount);
+        List<ForkJoinTask<Void>> started = new ArrayList<ForkJoinTask<Void>>(helperCount);
         stream.mark();
-        decompressor.decode();
-        stream.reset();
+        try {
+            for (int w = 0; w < helperCount; w++) {
+                AtomicBoolean claim = new AtomicBoolean();
+                claims.add(claim);
+                helpers.add(pool.submit(() -> {
+                    if (!claim.compareAndSet(false, true)) {
+                        // claimed by the calling thread, which is not waiting for this worker
+                        return null;
+                    }
+                    try {
+                        decoding.decodeTiles(false);
+                        return null;
+                    } finally {
+                        decoding.decoded.add(decoding.helperDone);
+                    }
+                }));
+            }
+
+            try {
+                decoding.decodeTiles(true);
+            } finally {
+                for (int w = 0; w < helperCount; w++) {
+                    if (!claims.get(w).compareAndSet(false, true)) {
+                        started.add(helpers.get(w));
+                    }
+                }
+                while (decoding.helpersDone < started.size()) {
+                    decoding.report(decoding.decoded.take());
+                }
+            }
+
+            for (ForkJoinTask<Void> helper : started) {
+                helper.get();
+            }
+        } catch (InterruptedException e) {
+            decoding.stopped.set(true);
+            Thread.currentThread().interrupt();
+            throw new IIOException("Interrupted while decoding the image", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IIOException("Failed to decode the image", cause);
+        } finally {
+            stream.reset();
+        }
+
+        return decoding.aborted.get();
+    }
+
+    /**
+     * The state of a parallel decoding, shared by the calling thread and the pool workers.
+     */
+    private class ParallelDecoding {
+
+        final TIFFColorConverter colorConverter;
+        final int minTileX;
+        final int minTileY;
+        final int tilesX;
+        final int tileCount;
+        final boolean planar = planarConfiguration == BaselineTIFFTagSet.PLANAR_CONFIGURATION_PLANAR;
+        final String decompressorKey = getDecompressorKey();
+
+        final AtomicInteger nextTile = new AtomicInteger();
+        final AtomicBoolean aborted = new AtomicBoolean();
+        final AtomicBoolean stopped = new AtomicBoolean();
+        /** The regions decoded by the pool workers, to be reported by the calling thread */
+        final BlockingQueue<Rectangle> decoded = new LinkedBlockingQueue<Rectangle>();
+        /** Queued by a pool worker once done */
+        final Rectangle helperDone = new Rectangle();
+        /** The number of pool workers done, accessed by the calling thread only */
+        int helpersDone;
+
+        ParallelDecoding(TIFFColorConverter colorConverter, int minTileX, int minTileY, int maxTileX, int maxTileY) {
+            this.colorConverter = colorConverter;
+            this.minTileX = minTileX;
+            this.minTileY = minTileY;
+            this.tilesX = maxTileX - minTileX + 1;
+            this.tileCount = tilesX*(maxTileY - minTileY + 1);
+        }
+
+        /**
+         * Decodes strips or tiles until none is left, the read is aborted or another thread failed.
+         *
+         * @param callingThread whether running on the calling thread, which reports the progress as it goes
+         */
+        void decodeTiles(boolean callingThread) throws IOException {
+            TIFFDecompressor worker = null;
+            try {
+                worker = acquireDecompressor(decompressorKey);
+                setUpDecompressor(worker, colorConverter);
+                worker.setPlanar(planar);
+                int[] sb = new int[1];
+                int[] db = new int[1];
+                int tile;
+                while (!stopped.get() && (tile = nextTile.getAndIncrement()) < tileCount) {
+                    int ti = minTileX + tile%tilesX;
+                    int tj = minTileY + tile/tilesX;
+                    Rectangle dstRect = new Rectangle();
+                    for (int band = 0; band < (planar ? sourceBands.length : 1); band++) {
+                        if (abortRequested()) {
+                            aborted.set(true);
+                            stopped.set(true);
+                            return;
+                        }
+                        if (planar) {
+                            sb[0] = sourceBands[band];
+                            worker.setSourceBands(sb);
+                            db[0] = destinationBands[band];
+                            worker.setDestinationBands(db);
+                        }
+                        decodeTile(worker, ti, tj, planar ? sb[0] : -1, dstRect, true);
+                    }
+                    if (callingThread) {
+                        report(dstRect);
+                        Rectangle other;
+                        while ((other = decoded.poll()) != null) {
+                            report(other);
+                        }
+                    } else {
+                        decoded.add(dstRect);
+                    }
+                }
+            } catch (IOException | RuntimeException | Error e) {
+                stopped.set(true);
+                throw e;
+            } finally {
+                if (worker != null) {
+                    releaseDecompressor(decompressorKey, worker);
+                }
+            }
+        }
+
+        /**
+         * Reports the progress of a decoded region, or counts a pool worker done.  Called on the calling thread only.
+         */
+        void report(Rectangle dstRect) {
+            if (dstRect == helperDone) {
+                helpersDone++;
+            } else if (!dstRect.isEmpty()) {
+                reportProgress(dstRect);
+            }
+        }
+    }
+
+    /**
+     * Fills the destination region of an empty tile or strip with the nodata value, or with zeros if the image
+     * has no nodata value.
+     *
+     * @param band the source band being decoded for planar images, -1 to fill all the destination bands
+     * @param dstRect the destination region of the tile or strip
+     */
+    private void fillEmptyTile(int band, Rectangle dstRect) {
+        double value = noData != null ? noData : 0;
+        double[] row = new double[dstRect.width];
+        Arrays.fill(row, value);
+        WritableRaster raster = theImage.getRaster();
+        for (int i = 0; i < destinationBands.length; i++) {
+            if (band != -1 && sourceBands[i] != band) {
+                continue;
+            }
+            for (int y = dstRect.y; y < dstRect.y + dstRect.height; y++) {
+                raster.setSamples(dstRect.x, y, dstRect.width, 1, destinationBands[i], row);
+            }
+        }
+    }
+
+    private void reportProgress(Rectangle dstRect) {
+        dstMinX = dstRect.x;
+        dstMinY = dstRect.y;
+        dstWidth = dstRect.width;
+        dstHeight = dstRect.height;
+        reportProgress();
     }
 
     private void reportProgress() {
@@ -1806,6 +2214,267 @@ public class TIFFImageReader extends ImageReader {
                            destinationBands);
     }
 
+    /**
+     * Creates the standard decompressor for the compression of the current image.
+     */
+    private TIFFDecompressor createDecompressor() throws IIOException {
+        TIFFDecompressor decompressor = null;
+        if (compression ==
+            BaselineTIFFTagSet.COMPRESSION_NONE) {
+            // Get the fillOrder field.
+            TIFFField fillOrderField =
+                imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_FILL_ORDER);
+
+            // Set the decompressor based on the fill order.
+            if(fillOrderField != null && fillOrderField.getAsInt(0) == 2) {
+                decompressor = new TIFFLSBDecompressor();
+            } else {
+                decompressor = new TIFFNullDecompressor();
+            }
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_CCITT_T_6) {
+
+            // Try to create the codecLib decompressor.
+            if(PackageUtil.isCodecLibAvailable()) {
+                try {
+                    decompressor =
+                        new TIFFCodecLibFaxDecompressor(compression);
+                    if(DEBUG) {
+                        System.out.println
+                            ("Using codecLib T.6 decompressor");
+                    }
+                } catch (RuntimeException re) {
+                    if(DEBUG) {
+                        System.out.println(re);
+                    }
+                }
+            }
+
+            // Fall back to the Java decompressor.
+            if (decompressor == null) {
+                if(DEBUG) {
+                    System.out.println("Using Java T.6 decompressor");
+                }
+                decompressor = new TIFFFaxDecompressor();
+            }
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_CCITT_T_4) {
+
+            if(PackageUtil.isCodecLibAvailable()) {
+                // Try to create the codecLib decompressor.
+                try {
+                    decompressor =
+                        new TIFFCodecLibFaxDecompressor(compression);
+                    if(DEBUG) {
+                        System.out.println
+                            ("Using codecLib T.4 decompressor");
+                    }
+                } catch (RuntimeException re) {
+                    if(DEBUG) {
+                        System.out.println(re);
+                    }
+                }
+            }
+
+            // Fall back to the Java decompressor.
+            if (decompressor == null) {
+                if(DEBUG) {
+                    System.out.println("Using Java T.4 decompressor");
+                }
+                decompressor = new TIFFFaxDecompressor();
+            }
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_CCITT_RLE) {
+            decompressor = new TIFFFaxDecompressor();
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_PACKBITS) {
+            if(DEBUG) {
+                System.out.println("Using TIFFPackBitsDecompressor");
+            }
+            decompressor = new TIFFPackBitsDecompressor();
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_LZW) {
+            if(DEBUG) {
+                System.out.println("Using TIFFLZWDecompressor");
+            }
+            TIFFField predictorField =
+                imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
+            int predictor = ((predictorField == null) ?
+                             BaselineTIFFTagSet.PREDICTOR_NONE :
+                             predictorField.getAsInt(0));
+            decompressor = new TIFFLZWDecompressor(predictor);
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_JPEG) {
+            decompressor = new TIFFJPEGDecompressor();
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_ZLIB ||
+                   compression ==
+                   BaselineTIFFTagSet.COMPRESSION_DEFLATE) {
+            TIFFField predictorField =
+                imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
+            int predictor = ((predictorField == null) ?
+                             BaselineTIFFTagSet.PREDICTOR_NONE :
+                             predictorField.getAsInt(0));
+            decompressor = new TIFFDeflateDecompressor(predictor);
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
+            TIFFField JPEGProcField =
+                imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_JPEG_PROC);
+            if(JPEGProcField == null) {
+                processWarningOccurred
+                    ("JPEGProc field missing; assuming baseline sequential JPEG process.");
+            } else if(JPEGProcField.getAsInt(0) !=
+               BaselineTIFFTagSet.JPEG_PROC_BASELINE) {
+                throw new IIOException
+                    ("Old-style JPEG supported for baseline sequential JPEG process only!");
+            }
+            decompressor = new TIFFOldJPEGDecompressor();
+            //throw new IIOException("Old-style JPEG not supported!");
+        } else if (compression == PrivateTIFFTagSet.COMPRESSION_ZSTD) {
+            TIFFField predictorField =
+                    imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
+            int predictor = ((predictorField == null) ?
+                    BaselineTIFFTagSet.PREDICTOR_NONE :
+                    predictorField.getAsInt(0));
+            decompressor = new TIFFZSTDDecompressor(predictor);
+        }
+
+
+        else {
+            throw new IIOException
+                ("Unsupported compression type (tag number = "+
+                 compression+")!");
+        }
+
+        if (photometricInterpretation ==
+            BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_Y_CB_CR &&
+            compression != BaselineTIFFTagSet.COMPRESSION_JPEG &&
+            compression != BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
+            boolean convertYCbCrToRGB =
+                theImage.getColorModel().getColorSpace().getType() ==
+                ColorSpace.TYPE_RGB;
+            TIFFDecompressor wrappedDecompressor =
+                decompressor instanceof TIFFNullDecompressor ?
+                null : decompressor;
+            decompressor =
+                new TIFFYCbCrDecompressor(wrappedDecompressor,
+                                          convertYCbCrToRGB);
+        }
+        return decompressor;
+    }
+
+    /**
+     * Returns the key of the standard decompressors that can be reused for the current image, or <code>null</code>
+     * if they cannot be reused across images. Besides what drives {@link #createDecompressor()}, the key includes
+     * the sample layout, so that the state decompressors keep between tiles matches the image.
+     */
+    private String getDecompressorKey() {
+        if (compression == BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
+            // initialized once from the tables of the image it decodes
+            return null;
+        }
+        TIFFField fillOrderField =
+            imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_FILL_ORDER);
+        TIFFField predictorField =
+            imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
+        boolean convertYCbCrToRGB =
+            theImage.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_RGB;
+        return compression + ":" +
+            (fillOrderField == null ? 1 : fillOrderField.getAsInt(0)) + ":" +
+            (predictorField == null ? BaselineTIFFTagSet.PREDICTOR_NONE : predictorField.getAsInt(0)) + ":" +
+            photometricInterpretation + ":" + convertYCbCrToRGB + ":" + planarConfiguration + ":" +
+            samplesPerPixel + ":" + Arrays.toString(bitsPerSample) + ":" + Arrays.toString(sampleFormat);
+    }
+
+    /**
+     * Returns an idle decompressor for the provided key, or a new standard decompressor if none is available.
+     */
+    private TIFFDecompressor acquireDecompressor(String key) throws IIOException {
+        if (key != null) {
+            synchronized (idleDecompressors) {
+                Deque<TIFFDecompressor> idle = idleDecompressors.get(key);
+                if (idle != null && !idle.isEmpty()) {
+                    return idle.pop();
+                }
+            }
+        }
+        return createDecompressor();
+    }
+
+    /**
+     * Makes a decompressor obtained from {@link #acquireDecompressor(String)} available to the following reads,
+     * dropping its references to the data of the current one, or disposes it if it cannot be reused.
+     */
+    private void releaseDecompressor(String key, TIFFDecompressor decompressor) {
+        if (key == null) {
+            decompressor.dispose();
+            return;
+        }
+        decompressor.setImage(null);
+        decompressor.setStream(null);
+        synchronized (idleDecompressors) {
+            Deque<TIFFDecompressor> idle = idleDecompressors.get(key);
+            if (idle == null) {
+                idle = new ArrayDeque<TIFFDecompressor>();
+                idleDecompressors.put(key, idle);
+            }
+            idle.push(decompressor);
+        }
+    }
+
+    /**
+     * Releases the standard decompressor used by the previous read, if any.
+     */
+    private void releaseStandardDecompressor() {
+        if (this.decompressor != null && standardDecompressor) {
+            releaseDecompressor(decompressorKey, this.decompressor);
+        }
+        this.decompressor = null;
+        this.standardDecompressor = false;
+        this.decompressorKey = null;
+    }
+
+    private void disposeIdleDecompressors() {
+        synchronized (idleDecompressors) {
+            for (Deque<TIFFDecompressor> idle : idleDecompressors.values()) {
+                for (TIFFDecompressor decompressor : idle) {
+                    decompressor.dispose();
+                }
+            }
+            idleDecompressors.clear();
+        }
+    }
+
+    /**
+     * Configures a decompressor for decoding the tiles or strips of the current read.
+     */
+    private void setUpDecompressor(TIFFDecompressor decompressor, TIFFColorConverter colorConverter) {
+        decompressor.setReader(this);
+        decompressor.setMetadata(imageMetadata);
+        decompressor.setImage(theImage);
+
+        decompressor.setPhotometricInterpretation(photometricInterpretation);
+        decompressor.setCompression(compression);
+        decompressor.setSamplesPerPixel(samplesPerPixel);
+        decompressor.setBitsPerSample(bitsPerSample);
+        decompressor.setSampleFormat(sampleFormat);
+        decompressor.setExtraSamples(extraSamples);
+        decompressor.setColorMap(colorMap);
+
+        decompressor.setColorConverter(colorConverter);
+
+        decompressor.setSourceXOffset(sourceXOffset);
+        decompressor.setSourceYOffset(sourceYOffset);
+        decompressor.setSubsampleX(srcXSubsampling);
+        decompressor.setSubsampleY(srcYSubsampling);
+
+        decompressor.setDstXOffset(dstXOffset);
+        decompressor.setDstYOffset(dstYOffset);
+
+        decompressor.setSourceBands(sourceBands);
+        decompressor.setDestinationBands(destinationBands);
+    }
+
     public BufferedImage read(int imageIndex, ImageReadParam param)
         throws IOException {
         prepareRead(imageIndex, param);
@@ -1845,157 +2514,28 @@ public class TIFFImageReader extends ImageReader {
 
         // Attempt to get decompressor and color converted from the read param
         
+        releaseStandardDecompressor();
         TIFFColorConverter colorConverter = null;
+        ForkJoinPool decodingPool = null;
         if (imageReadParam instanceof TIFFImageReadParam) {
             TIFFImageReadParam tparam =
                 (TIFFImageReadParam)imageReadParam;
             this.decompressor = tparam.getTIFFDecompressor();
             colorConverter = tparam.getColorConverter();
+            if (tparam.isParallelDecoding()) {
+                decodingPool = tparam.getDecodingPool() != null ?
+                        tparam.getDecodingPool() : ForkJoinPool.commonPool();
+            }
         }
 
         // If we didn't find one, use a standard decompressor
         if (this.decompressor == null) {
-            if (compression ==
-                BaselineTIFFTagSet.COMPRESSION_NONE) {
-                // Get the fillOrder field.
-                TIFFField fillOrderField =
-                    imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_FILL_ORDER);
-
-                // Set the decompressor based on the fill order.
-                if(fillOrderField != null && fillOrderField.getAsInt(0) == 2) {
-                    this.decompressor = new TIFFLSBDecompressor();
-                } else {
-                    this.decompressor = new TIFFNullDecompressor();
-                }
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_CCITT_T_6) {
-
-                // Try to create the codecLib decompressor.
-                if(PackageUtil.isCodecLibAvailable()) {
-                    try {
-                        this.decompressor =
-                            new TIFFCodecLibFaxDecompressor(compression);
-                        if(DEBUG) {
-                            System.out.println
-                                ("Using codecLib T.6 decompressor");
-                        }
-                    } catch (RuntimeException re) {
-                        if(DEBUG) {
-                            System.out.println(re);
-                        }
-                    }
-                }
-
-                // Fall back to the Java decompressor.
-                if (this.decompressor == null) {
-                    if(DEBUG) {
-                        System.out.println("Using Java T.6 decompressor");
-                    }
-                    this.decompressor = new TIFFFaxDecompressor();
-                }
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_CCITT_T_4) {
-
-                if(PackageUtil.isCodecLibAvailable()) {
-                    // Try to create the codecLib decompressor.
-                    try {
-                        this.decompressor =
-                            new TIFFCodecLibFaxDecompressor(compression);
-                        if(DEBUG) {
-                            System.out.println
-                                ("Using codecLib T.4 decompressor");
-                        }
-                    } catch (RuntimeException re) {
-                        if(DEBUG) {
-                            System.out.println(re);
-                        }
-                    }
-                }
-
-                // Fall back to the Java decompressor.
-                if (this.decompressor == null) {
-                    if(DEBUG) {
-                        System.out.println("Using Java T.4 decompressor");
-                    }
-                    this.decompressor = new TIFFFaxDecompressor();
-                }
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_CCITT_RLE) {
-                this.decompressor = new TIFFFaxDecompressor();
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_PACKBITS) {
-                if(DEBUG) {
-                    System.out.println("Using TIFFPackBitsDecompressor");
-                }
-                this.decompressor = new TIFFPackBitsDecompressor();
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_LZW) {
-                if(DEBUG) {
-                    System.out.println("Using TIFFLZWDecompressor");
-                }
-                TIFFField predictorField =
-                    imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
-                int predictor = ((predictorField == null) ?
-                                 BaselineTIFFTagSet.PREDICTOR_NONE :
-                                 predictorField.getAsInt(0));
-                this.decompressor = new TIFFLZWDecompressor(predictor);
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_JPEG) {
-                this.decompressor = new TIFFJPEGDecompressor();
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_ZLIB ||
-                       compression ==
-                       BaselineTIFFTagSet.COMPRESSION_DEFLATE) {
-                TIFFField predictorField =
-                    imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
-                int predictor = ((predictorField == null) ?
-                                 BaselineTIFFTagSet.PREDICTOR_NONE :
-                                 predictorField.getAsInt(0));
-                this.decompressor = new TIFFDeflateDecompressor(predictor);
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
-                TIFFField JPEGProcField =
-                    imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_JPEG_PROC);
-                if(JPEGProcField == null) {
-                    processWarningOccurred
-                        ("JPEGProc field missing; assuming baseline sequential JPEG process.");
-                } else if(JPEGProcField.getAsInt(0) !=
-                   BaselineTIFFTagSet.JPEG_PROC_BASELINE) {
-                    throw new IIOException
-                        ("Old-style JPEG supported for baseline sequential JPEG process only!");
-                }
-                this.decompressor = new TIFFOldJPEGDecompressor();
-                //throw new IIOException("Old-style JPEG not supported!");
-            } else if (compression == PrivateTIFFTagSet.COMPRESSION_ZSTD) {
-                TIFFField predictorField =
-                        imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
-                int predictor = ((predictorField == null) ?
-                        BaselineTIFFTagSet.PREDICTOR_NONE :
-                        predictorField.getAsInt(0));
-                this.decompressor = new TIFFZSTDDecompressor(predictor);
-            }
-
-
-            else {
-                throw new IIOException
-                    ("Unsupported compression type (tag number = "+
-                     compression+")!");
-            }
-
-            if (photometricInterpretation ==
-                BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_Y_CB_CR &&
-                compression != BaselineTIFFTagSet.COMPRESSION_JPEG &&
-                compression != BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
-                boolean convertYCbCrToRGB =
-                    theImage.getColorModel().getColorSpace().getType() ==
-                    ColorSpace.TYPE_RGB;
-                TIFFDecompressor wrappedDecompressor =
-                    this.decompressor instanceof TIFFNullDecompressor ?
-                    null : this.decompressor;
-                this.decompressor =
-                    new TIFFYCbCrDecompressor(wrappedDecompressor,
-                                              convertYCbCrToRGB);
-            }
+            decompressorKey = getDecompressorKey();
+            this.decompressor = acquireDecompressor(decompressorKey);
+            standardDecompressor = true;
+        } else {
+            // a decompressor provided by the application cannot be replicated for concurrent decoding
+            decodingPool = null;
         }
 
         if(DEBUG) {
@@ -2018,30 +2558,7 @@ public class TIFFImageReader extends ImageReader {
             }
         }
         
-        decompressor.setReader(this);
-        decompressor.setMetadata(imageMetadata);
-        decompressor.setImage(theImage);
-
-        decompressor.setPhotometricInterpretation(photometricInterpretation);
-        decompressor.setCompression(compression);
-        decompressor.setSamplesPerPixel(samplesPerPixel);
-        decompressor.setBitsPerSample(bitsPerSample);
-        decompressor.setSampleFormat(sampleFormat);
-        decompressor.setExtraSamples(extraSamples);
-        decompressor.setColorMap(colorMap);
-
-        decompressor.setColorConverter(colorConverter);
-
-        decompressor.setSourceXOffset(sourceXOffset);
-        decompressor.setSourceYOffset(sourceYOffset);
-        decompressor.setSubsampleX(srcXSubsampling);
-        decompressor.setSubsampleY(srcYSubsampling);
-
-        decompressor.setDstXOffset(dstXOffset);
-        decompressor.setDstYOffset(dstYOffset);
-
-        decompressor.setSourceBands(sourceBands);
-        decompressor.setDestinationBands(destinationBands);
+        setUpDecompressor(decompressor, colorConverter);
 
         // Compute bounds on the tile indices for this source region.
         int minTileX =
@@ -2056,7 +2573,11 @@ public class TIFFImageReader extends ImageReader {
                                      0, tileOrStripHeight);
 
         boolean isAbortRequested = false;
-        if (planarConfiguration ==
+        int tileCount = (maxTileX - minTileX + 1)*(maxTileY - minTileY + 1);
+        if (decodingPool != null && tileCount > 1 && canDecodeInParallel()) {
+            isAbortRequested = decodeTilesInParallel(decodingPool, colorConverter,
+                                                     minTileX, minTileY, maxTileX, maxTileY);
+        } else if (planarConfiguration ==
             BaselineTIFFTagSet.PLANAR_CONFIGURATION_PLANAR) {
             
             decompressor.setPlanar(true);
@@ -2123,6 +2644,8 @@ public class TIFFImageReader extends ImageReader {
 
     public void reset() {
         super.reset();
+        releaseStandardDecompressor();
+        disposeIdleDecompressors();
         resetLocal();
     }
 
@@ -2226,6 +2749,7 @@ public class TIFFImageReader extends ImageReader {
         if (this.decompressor != null) {
             this.decompressor.dispose();
         }
+        disposeIdleDecompressors();
         this.layout = null;
         if (this.theImage != null) {
             this.theImage.flush();
@@ -2237,4 +2761,47 @@ public class TIFFImageReader extends ImageReader {
         this.stream = null;
     }
 
+    /**
+     * A stream over the compressed bytes of a strip or tile, already read in memory.
+     */
+    private static final class ByteArrayImageInputStream extends ImageInputStreamImpl {
+
+        private final byte[] data;
+
+        ByteArrayImageInputStream(byte[] data, ByteOrder byteOrder) {
+            this.data = data;
+            setByteOrder(byteOrder);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            return streamPos < data.length ? data[(int)streamPos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            if (off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            bitOffset = 0;
+            if (len == 0) {
+                return 0;
+            }
+            if (streamPos >= data.length) {
+                return -1;
+            }
+            int count = (int)Math.min(len, data.length - streamPos);
+            System.arraycopy(data, (int)streamPos, b, off, count);
+            streamPos += count;
+            return count;
+        }
+
+        @Override
+        public long length() {
+            return data.length;
+        }
+    }
 }
@@ -97,13 +97,23 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
 
     int predictor;
 
+    // The string table is kept flat: each string is stored as the code of
+    // its prefix plus a suffix byte, along with its first byte and length,
+    // so that no array is allocated while decoding.
+    private static final int TABLE_SIZE = 4096;
+
+    private final short[] prefix = new short[TABLE_SIZE];
+    private final byte[] suffix = new byte[TABLE_SIZE];
+    private final byte[] first = new byte[TABLE_SIZE];
+    private final int[] length = new int[TABLE_SIZE];
+
+    // State of the deprecated table methods, not used by decode()
     byte[] srcData;
     byte[] dstData;
 
     int srcIndex;
     int dstIndex;
 
-    byte stringTable[][];
     int tableIndex, bitsToGet = 9;
 
     int nextData = 0;
@@ -124,6 +134,12 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
         }
 
         this.predictor = predictor;
+
+        for (int i = 0; i < 256; i++) {
+            suffix[i] = (byte)i;
+            first[i] = (byte)i;
+            length[i] = 1;
+        }
     }
 
     public void decodeRaw(byte[] b,
@@ -153,10 +169,7 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
             }
         }
 
-        stream.seek(offset);
-
-        byte[] sdata = new byte[byteCount];
-        stream.readFully(sdata);
+        byte[] sdata = readCompressedData();
 
         int bytesPerRow = (srcWidth*bitsPerPixel + 7)/8;
         byte[] buf;
@@ -165,11 +178,11 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
             buf = b;
             bufOffset = dstOffset;
         } else {
-            buf = new byte[bytesPerRow*srcHeight];
+            buf = getScanlineBuffer(bytesPerRow*srcHeight);
             bufOffset = 0;
         }
 
-        int numBytesDecoded = decode(sdata, 0, buf, bufOffset);
+        int numBytesDecoded = decode(sdata, 0, byteCount, buf, bufOffset);
 
         if(bytesPerRow != scanlineStride) {
             if(DEBUG) {
@@ -187,51 +200,23 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
     public int decode(byte[] sdata, int srcOffset,
                       byte[] ddata, int dstOffset)
         throws IOException {
+        return decode(sdata, srcOffset, sdata.length - srcOffset, ddata, dstOffset);
+    }
+
+    /**
+     * Decodes <code>srcLength</code> bytes of <code>sdata</code> starting
+     * at <code>srcOffset</code>, ignoring whatever follows them.
+     */
+    public int decode(byte[] sdata, int srcOffset, int srcLength,
+                      byte[] dstData, int dstOffset)
+        throws IOException {
         if (sdata[0] == (byte)0x00 && sdata[1] == (byte)0x01) {
             throw new IIOException
                 ("TIFF 5.0-style LZW compression is not supported!");
         }
 
-        this.srcData = sdata;
-        this.dstData = ddata;
-
-        this.srcIndex = srcOffset;
-        this.dstIndex = dstOffset;
-
-	this.nextData = 0;
-	this.nextBits = 0;
-
-        initializeStringTable();
-
-	int code, oldCode = 0;
-	byte[] string;
-
-	while ((code = getNextCode()) != 257) {
-	    if (code == 256) {
-		initializeStringTable();
-		code = getNextCode();
-		if (code == 257) {
-		    break;
-		}
-
-		writeString(stringTable[code]);
-		oldCode = code;
-	    } else {
-		if (code < tableIndex) {
-		    string = stringTable[code];
-
-		    writeString(string);
-		    addStringToTable(stringTable[oldCode], string[0]); 
-		    oldCode = code;
-		} else {
-		    string = stringTable[oldCode];
-		    string = composeString(string, string[0]);
-		    writeString(string);
-		    addStringToTable(string);
-		    oldCode = code;
-		}
-	    }
-	}
+        int dstIndex = decodeCodes(sdata, srcOffset, srcOffset + srcLength,
+                                   dstData, dstOffset);
 
         if (predictor == BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING) {
             if(bitsPerSample[0]==8) {
@@ -315,85 +300,240 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
         return dstIndex - dstOffset;
     }
 
+    /**
+     * Decodes the LZW codes of <code>srcData</code> up to
+     * <code>srcEnd</code> or the EndOfInformation code, writing the strings
+     * into <code>dstData</code> until it is full.
+     *
+     * @return the index following the last byte written.
+     */
+    private int decodeCodes(byte[] srcData, int srcIndex, int srcEnd,
+                            byte[] dstData, int dstIndex)
+        throws IIOException {
+        final short[] prefix = this.prefix;
+        final byte[] suffix = this.suffix;
+        final byte[] first = this.first;
+        final int[] length = this.length;
+        final int dstEnd = dstData.length;
+
+        int nextData = 0;
+        int nextBits = 0;
+        int bitsToGet = 9;
+        int tableIndex = 258;
+        int oldCode = 0;
+        boolean clear = false;
+
+        while (true) {
+            // Get the next 9, 10, 11 or 12 bits. Running out of data is
+            // handled to make this robust to cases wherein the
+            // EndOfInformation code has been omitted from a strip.
+            // Examples of such cases have been observed in practice.
+            if (srcIndex >= srcEnd) {
+                break;
+            }
+            nextData = (nextData << 8) | (srcData[srcIndex++] & 0xff);
+            nextBits += 8;
+            if (nextBits < bitsToGet) {
+                if (srcIndex >= srcEnd) {
+                    break;
+                }
+                nextData = (nextData << 8) | (srcData[srcIndex++] & 0xff);
+                nextBits += 8;
+            }
+            int code =
+                (nextData >> (nextBits - bitsToGet)) & andTable[bitsToGet - 9];
+            nextBits -= bitsToGet;
+
+            if (code == 257) {
+                break;
+            } else if (code == 256) {
+                tableIndex = 258;
+                bitsToGet = 9;
+                clear = true;
+                continue;
+            }
+
+            int string = code;
+            if (clear) {
+                // first code after a clear, nothing to add to the table
+                checkCode(code, tableIndex);
+                clear = false;
+            } else {
+                checkCode(oldCode, tableIndex);
+                if (tableIndex < TABLE_SIZE) {
+                    if (code >= tableIndex) {
+                        // the code being defined: the previous string
+                        // followed by its own first byte
+                        string = tableIndex;
+                        suffix[tableIndex] = first[oldCode];
+                    } else {
+                        suffix[tableIndex] = first[code];
+                    }
+                    prefix[tableIndex] = (short)oldCode;
+                    first[tableIndex] = first[oldCode];
+                    length[tableIndex] = length[oldCode] + 1;
+                    tableIndex++;
+
+                    if (tableIndex == 511) {
+                        bitsToGet = 10;
+                    } else if (tableIndex == 1023) {
+                        bitsToGet = 11;
+                    } else if (tableIndex == 2047) {
+                        bitsToGet = 12;
+                    }
+                }
+            }
+            oldCode = code;
+
+            // Write out the string, truncated to the space left. Strings
+            // are linked from their last byte, so skip the ones that do not
+            // fit and fill the destination backwards.
+            int len = Math.min(length[string], dstEnd - dstIndex);
+            if (len > 0) {
+                int c = string;
+                for (int i = length[string]; i > len; i--) {
+                    c = prefix[c];
+                }
+                for (int i = dstIndex + len - 1; i > dstIndex; i--) {
+                    dstData[i] = suffix[c];
+                    c = prefix[c];
+                }
+                dstData[dstIndex] = first[string];
+                dstIndex += len;
+            }
+        }
+        return dstIndex;
+    }
+
+    /**
+     * Checks that <code>code</code> refers to a string of the table.
+     */
+    private static void checkCode(int code, int tableIndex)
+        throws IIOException {
+        if (code >= tableIndex || (code >= 256 && code < 258)) {
+            throw new IIOException("Invalid LZW code " + code +
+                                   " (table size: " + tableIndex + ")");
+        }
+    }
+
     /**
      * Initialize the string table.
+     *
+     * @deprecated the string table is internal to {@link #decode}.
      */
+    @Deprecated
     public void initializeStringTable() {
-	stringTable = new byte[4096][];
-	
-	for (int i = 0; i < 256; i++) {
-	    stringTable[i] = new byte[1];
-	    stringTable[i][0] = (byte)i;
-	}
-	
-	tableIndex = 258;
-	bitsToGet = 9;
+        tableIndex = 258;
+        bitsToGet = 9;
     }
 
     /**
      * Write out the string just uncompressed.
+     *
+     * @deprecated the string table is internal to {@link #decode}.
      */
+    @Deprecated
     public void writeString(byte string[]) {
         if(dstIndex < dstData.length) {
             int maxIndex = Math.min(string.length,
-				    dstData.length - dstIndex);
+                                    dstData.length - dstIndex);
 
             for (int i=0; i < maxIndex; i++) {
                 dstData[dstIndex++] = string[i];
             }
         }
     }
-    
+
     /**
      * Add a new string to the string table.
+     *
+     * @deprecated the string table is internal to {@link #decode}.
      */
+    @Deprecated
     public void addStringToTable(byte oldString[], byte newString) {
-	int length = oldString.length;
-	byte string[] = new byte[length + 1];
-	System.arraycopy(oldString, 0, string, 0, length);
-	string[length] = newString;
-	
-	// Add this new String to the table
-	stringTable[tableIndex++] = string;
-	
-	if (tableIndex == 511) {
-	    bitsToGet = 10;
-	} else if (tableIndex == 1023) {
-	    bitsToGet = 11;
-	} else if (tableIndex == 2047) {
-	    bitsToGet = 12;
-	} 
+        addStringToTable(composeString(oldString, newString));
     }
 
     /**
-     * Add a new string to the string table.
+     * Add a new string to the string table.  The string, but its last
+     * byte, must already be in the table.  Strings are dropped once the
+     * table is full.
+     *
+     * @deprecated the string table is internal to {@link #decode}.
      */
+    @Deprecated
     public void addStringToTable(byte string[]) {
-	// Add this new String to the table
-	stringTable[tableIndex++] = string;
-	
-	if (tableIndex == 511) {
-	    bitsToGet = 10;
-	} else if (tableIndex == 1023) {
-	    bitsToGet = 11;
-	} else if (tableIndex == 2047) {
-	    bitsToGet = 12;
-	} 
+        if (tableIndex >= TABLE_SIZE) {
+            return;
+        }
+        int last = string.length - 1;
+        int prefixCode = findString(string, last);
+        if (prefixCode < 0) {
+            throw new IllegalArgumentException(
+                "The prefix of the string is not in the table");
+        }
+        prefix[tableIndex] = (short)prefixCode;
+        suffix[tableIndex] = string[last];
+        first[tableIndex] = first[prefixCode];
+        length[tableIndex] = last + 1;
+        tableIndex++;
+
+        if (tableIndex == 511) {
+            bitsToGet = 10;
+        } else if (tableIndex == 1023) {
+            bitsToGet = 11;
+        } else if (tableIndex == 2047) {
+            bitsToGet = 12;
+        }
+    }
+
+    /**
+     * Returns the code of the first <code>len</code> bytes of
+     * <code>string</code>, or -1 if not in the table.
+     */
+    private int findString(byte[] string, int len) {
+        if (len == 1) {
+            return string[0] & 0xff;
+        }
+        for (int code = 258; code < tableIndex; code++) {
+            if (length[code] != len) {
+                continue;
+            }
+            int c = code;
+            int i = len - 1;
+            while (i > 0 && suffix[c] == string[i]) {
+                c = prefix[c];
+                i--;
+            }
+            if (i == 0 && first[code] == string[0]) {
+                return code;
+            }
+        }
+        return -1;
     }
 
     /**
      * Append <code>newString</code> to the end of <code>oldString</code>.
+     *
+     * @deprecated the string table is internal to {@link #decode}.
      */
+    @Deprecated
     public byte[] composeString(byte oldString[], byte newString) {
-	int length = oldString.length;
-	byte string[] = new byte[length + 1];
-	System.arraycopy(oldString, 0, string, 0, length);
-	string[length] = newString;
+        int length = oldString.length;
+        byte string[] = new byte[length + 1];
+        System.arraycopy(oldString, 0, string, 0, length);
+        string[length] = newString;
 
-	return string;
+        return string;
     }
 
-    // Returns the next 9, 10, 11 or 12 bits
+    /**
+     * Returns the next 9, 10, 11 or 12 bits of <code>srcData</code>, or
+     * the EndOfInformation code once out of data.
+     *
+     * @deprecated the codes are read by {@link #decode}.
+     */
+    @Deprecated
     public int getNextCode() {
         // Attempt to get the next code. The exception is caught to make
         // this robust to cases wherein the EndOfInformation code has been
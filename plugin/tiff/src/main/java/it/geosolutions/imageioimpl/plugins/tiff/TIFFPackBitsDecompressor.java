@@ -92,12 +92,23 @@ public class TIFFPackBitsDecompressor extends TIFFDecompressor {
     public int decode(byte[] srcData, int srcOffset,
                       byte[] dstData, int dstOffset)
         throws IOException {
+        return decode(srcData, srcOffset, srcData.length - srcOffset,
+                      dstData, dstOffset);
+    }
+
+    /**
+     * Decodes <code>srcLength</code> bytes of <code>srcData</code> starting
+     * at <code>srcOffset</code>, ignoring whatever follows them.
+     */
+    public int decode(byte[] srcData, int srcOffset, int srcLength,
+                      byte[] dstData, int dstOffset)
+        throws IOException {
 
 	int srcIndex = srcOffset;
         int dstIndex = dstOffset;
 
         int dstArraySize = dstData.length;
-        int srcArraySize = srcData.length;
+        int srcArraySize = srcOffset + srcLength;
         try {
             while (dstIndex < dstArraySize && srcIndex < srcArraySize) {
                 byte b = srcData[srcIndex++];
@@ -106,10 +117,16 @@ public class TIFFPackBitsDecompressor extends TIFFDecompressor {
                     // Literal run packet
                 
                     for (int i = 0; i < b + 1; i++) {
+                        if (srcIndex >= srcArraySize) {
+                            throw new ArrayIndexOutOfBoundsException(srcIndex);
+                        }
                         dstData[dstIndex++] = srcData[srcIndex++];
                     }
                 } else if (b <= -1 && b >= -127) {
                     // 2-byte encoded run packet
+                    if (srcIndex >= srcArraySize) {
+                        throw new ArrayIndexOutOfBoundsException(srcIndex);
+                    }
                     byte repeat = srcData[srcIndex++];
                     for (int i = 0; i < (-b + 1); i++) {
                         dstData[dstIndex++] = repeat;
@@ -133,10 +150,7 @@ public class TIFFPackBitsDecompressor extends TIFFDecompressor {
                           int dstOffset,
                           int bitsPerPixel,
                           int scanlineStride) throws IOException {
-        stream.seek(offset);
-            
-        byte[] srcData = new byte[byteCount];
-        stream.readFully(srcData);
+        byte[] srcData = readCompressedData();
 
         int bytesPerRow = (srcWidth*bitsPerPixel + 7)/8;
         byte[] buf;
@@ -145,11 +159,11 @@ public class TIFFPackBitsDecompressor extends TIFFDecompressor {
             buf = b;
             bufOffset = dstOffset;
         } else {
-            buf = new byte[bytesPerRow*srcHeight];
+            buf = getScanlineBuffer(bytesPerRow*srcHeight);
             bufOffset = 0;
         }
 
-        decode(srcData, 0, buf, bufOffset);
+        decode(srcData, 0, byteCount, buf, bufOffset);
 
         if(bytesPerRow != scanlineStride) {
             if(DEBUG) {
@@ -41,6 +41,7 @@ public class TIFFZSTDDecompressor extends TIFFDecompressor {
 
     private final int predictor;
     ZstdDecompressor zstdDecompressor = new ZstdDecompressor();
+    PredictorDecompressor predictorDecompressor;
 
     public TIFFZSTDDecompressor(int predictor) {
         this.predictor = predictor;
@@ -48,13 +49,10 @@ public class TIFFZSTDDecompressor extends TIFFDecompressor {
 
     @Override
     public void decodeRaw(byte[] b, int dstOffset, int bitsPerPixel, int scanlineStride) throws IOException {
-        PredictorDecompressor predictorDecompressor = new PredictorDecompressor(
+        predictorDecompressor = PredictorDecompressor.getInstance(predictorDecompressor,
                 predictor, bitsPerSample, sampleFormat, samplesPerPixel, stream.getByteOrder());
-        predictorDecompressor.validate();
 
-        stream.seek(offset);
-        byte[] srcData = new byte[byteCount];
-        stream.readFully(srcData);
+        byte[] srcData = readCompressedData();
 
         int bytesPerRow = (srcWidth*bitsPerPixel + 7)/8;
         byte[] buf;
@@ -63,7 +61,7 @@ public class TIFFZSTDDecompressor extends TIFFDecompressor {
             buf = b;
             bufOffset = dstOffset;
         } else {
-            buf = new byte[bytesPerRow*srcHeight];
+            buf = getScanlineBuffer(bytesPerRow*srcHeight);
             bufOffset = 0;
         }
 
@@ -28,10 +28,19 @@ import java.io.IOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageReadParam;
+import javax.imageio.IIOException;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.stream.FileImageInputStream;
@@ -46,16 +55,22 @@ import org.w3c.dom.NodeList;
 import com.sun.media.jai.operator.ImageReadDescriptor;
 
 import it.geosolutions.imageio.core.CoreCommonImageMetadata;
+import it.geosolutions.imageio.core.ExtCaches;
 import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
 import it.geosolutions.imageio.plugins.tiff.PrivateTIFFTagSet;
+import it.geosolutions.imageio.plugins.tiff.TIFFDecompressor;
+import it.geosolutions.imageio.plugins.tiff.TIFFImageReadParam;
 import it.geosolutions.imageio.plugins.turbojpeg.TurboJpegImageReader;
 import it.geosolutions.imageio.plugins.turbojpeg.TurboJpegUtilities;
 import it.geosolutions.imageio.stream.input.FileImageInputStreamExt;
 import it.geosolutions.imageio.stream.input.FileImageInputStreamExtImpl;
 import it.geosolutions.imageio.utilities.ImageIOUtilities;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFIFD;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReader;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFDeflateDecompressor;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFJPEGDecompressor;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFLZWDecompressor;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFStreamMetadata.MetadataNode;
 import it.geosolutions.resources.TestData;
 
@@ -686,6 +701,225 @@ public class TIFFReadTest extends Assert {
         assertImagesEqual(readTiff("test.tif"), readTiff("deflate32f_p2_bigendian.tif"));
     }
 
+    @Test
+    public void readParallelDecoding() throws IOException {
+        String[] filenames = {"test.tif", "deflate32_p2_bigendian.tif", "lzw32f_p2.tif", "zstd_rgba.tif",
+                "sampleRGBA_DEFLATE.tif", "emptyTiles.tif"};
+        for (String filename : filenames) {
+            final File file = TestData.file(this, filename);
+            TIFFImageReadParam param = new TIFFImageReadParam();
+            BufferedImage expected = readTiff(file, param);
+            param.setParallelDecoding(true);
+            assertImagesEqual(expected, readTiff(file, param));
+
+            // subsampling makes tiles or strips share no destination pixel boundaries
+            param = new TIFFImageReadParam();
+            param.setSourceSubsampling(3, 2, 1, 1);
+            expected = readTiff(file, param);
+            param.setParallelDecoding(true);
+            assertImagesEqual(expected, readTiff(file, param));
+        }
+    }
+
+    @Test
+    public void readReusingDecompressorBuffers() throws IOException {
+        // a single decompressor keeps its buffers and predictor across tiles, images and
+        // regions, switching between 32 and 16 bits samples
+        String[] filenames = {"deflate32_p2.tif", "deflatetest.tif", "deflate32_p2_bigendian.tif"};
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        TIFFImageReadParam param = new TIFFImageReadParam();
+        param.setTIFFDecompressor(new TIFFDeflateDecompressor(
+                BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING));
+        try {
+            for (String filename : filenames) {
+                final File file = TestData.file(this, filename);
+                FileImageInputStream inputStream = new FileImageInputStream(file);
+                try {
+                    reader.setInput(inputStream);
+                    param.setSourceRegion(null);
+                    assertImagesEqual(readTiff(file), reader.read(0, param));
+                    param.setSourceRegion(new Rectangle(5, 7, 97, 61));
+                    ImageReadParam regionParam = new ImageReadParam();
+                    regionParam.setSourceRegion(param.getSourceRegion());
+                    assertImagesEqual(readTiff(file, regionParam), reader.read(0, param));
+                } finally {
+                    inputStream.close();
+                }
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void readReusingStandardDecompressors() throws Exception {
+        final File lzw = TestData.file(this, "lzw32_p2.tif");
+        final File deflate = TestData.file(this, "deflatetest.tif");
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        Field f = TIFFImageReader.class.getDeclaredField("decompressor");
+        f.setAccessible(true);
+        ImageReadParam region = new ImageReadParam();
+        region.setSourceRegion(new Rectangle(5, 7, 97, 61));
+        try {
+            FileImageInputStream inputStream = new FileImageInputStream(lzw);
+            TIFFDecompressor lzwDecompressor;
+            try {
+                reader.setInput(inputStream);
+                assertImagesEqual(readTiff(lzw), reader.read(0));
+                lzwDecompressor = (TIFFDecompressor) f.get(reader);
+                assertImagesEqual(readTiff(lzw, region), reader.read(0, region));
+                assertSame(lzwDecompressor, f.get(reader));
+            } finally {
+                inputStream.close();
+            }
+
+            // a different compression gets its own decompressor
+            inputStream = new FileImageInputStream(deflate);
+            try {
+                reader.setInput(inputStream);
+                assertImagesEqual(readTiff(deflate), reader.read(0));
+                assertNotSame(lzwDecompressor, f.get(reader));
+            } finally {
+                inputStream.close();
+            }
+
+            inputStream = new FileImageInputStream(lzw);
+            try {
+                reader.setInput(inputStream);
+                assertImagesEqual(readTiff(lzw, region), reader.read(0, region));
+                assertSame(lzwDecompressor, f.get(reader));
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void sharePagesInfoOfLocalFiles() throws Exception {
+        final File source = TestData.file(this, "test.tif");
+        final File file = File.createTempFile("sharedPagesInfo", ".tif");
+        Files.copy(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        System.setProperty(TIFFImageReader.SHARED_PAGES_INFO_LOCAL_KEY, "true");
+        try {
+            IIOMetadata metadata = readImageMetadata(file);
+            assertSame(metadata, readImageMetadata(file));
+
+            // a modified file is parsed again
+            assertTrue(file.setLastModified(file.lastModified() + 2000));
+            IIOMetadata modified = readImageMetadata(file);
+            assertNotSame(metadata, modified);
+            assertSame(modified, readImageMetadata(file));
+
+            // as is any file once the caches are cleaned
+            ExtCaches.clean();
+            assertNotSame(modified, readImageMetadata(file));
+
+            // lazily loaded offsets read from the stream of the reader that parsed them, which gets closed
+            BufferedImage expected = readTiff(file);
+            System.setProperty(TIFFIFD.LAZY_LOADING_KEY, "true");
+            IIOMetadata lazy = readImageMetadata(file);
+            assertNotSame(lazy, readImageMetadata(file));
+            assertImagesEqual(expected, readImage(file));
+        } finally {
+            System.clearProperty(TIFFImageReader.SHARED_PAGES_INFO_LOCAL_KEY);
+            System.clearProperty(TIFFIFD.LAZY_LOADING_KEY);
+            ExtCaches.clean();
+            file.delete();
+        }
+        // sharing is disabled by default
+        assertNotSame(readImageMetadata(source), readImageMetadata(source));
+    }
+
+    private BufferedImage readImage(File file) throws Exception {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        FileImageInputStreamExt inputStream = new FileImageInputStreamExtImpl(file);
+        try {
+            reader.setInput(inputStream);
+            return reader.read(0);
+        } finally {
+            inputStream.close();
+            reader.dispose();
+        }
+    }
+
+    private IIOMetadata readImageMetadata(File file) throws Exception {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        FileImageInputStreamExt inputStream = new FileImageInputStreamExtImpl(file);
+        try {
+            reader.setInput(inputStream);
+            assertTrue(reader.getWidth(0) > 0);
+            Field f = TIFFImageReader.class.getDeclaredField("imageMetadata");
+            f.setAccessible(true);
+            return (IIOMetadata) f.get(reader);
+        } finally {
+            inputStream.close();
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void readParallelDecodingOnOwnPool() throws Exception {
+        // reading from a task of the decoding pool, the only worker of the pool is the reading thread
+        final File file = TestData.file(this, "emptyTiles.tif");
+        BufferedImage expected = readTiff(file, new TIFFImageReadParam());
+        final ForkJoinPool pool = new ForkJoinPool(1);
+        try {
+            Future<BufferedImage> image = pool.submit(() -> {
+                TIFFImageReadParam param = new TIFFImageReadParam();
+                param.setParallelDecoding(true);
+                param.setDecodingPool(pool);
+                return readTiff(file, param);
+            });
+            assertImagesEqual(expected, image.get(30, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void readParallelDecodingProgress() throws IOException {
+        final File file = TestData.file(this, "emptyTiles.tif");
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        final float[] lastProgress = {-1};
+        final Thread readingThread = Thread.currentThread();
+        reader.addIIOReadProgressListener(new IIOReadProgressListener() {
+            @Override
+            public void imageProgress(ImageReader source, float percentageDone) {
+                assertSame(readingThread, Thread.currentThread());
+                assertTrue(percentageDone >= lastProgress[0]);
+                lastProgress[0] = percentageDone;
+            }
+
+            public void sequenceStarted(ImageReader source, int minIndex) {}
+            public void sequenceComplete(ImageReader source) {}
+            public void imageStarted(ImageReader source, int imageIndex) {}
+            public void imageComplete(ImageReader source) {}
+            public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {}
+            public void thumbnailProgress(ImageReader source, float percentageDone) {}
+            public void thumbnailComplete(ImageReader source) {}
+            public void readAborted(ImageReader source) {}
+        });
+
+        FileImageInputStream inputStream = new FileImageInputStream(file);
+        try {
+            reader.setInput(inputStream);
+            TIFFImageReadParam param = new TIFFImageReadParam();
+            param.setParallelDecoding(true);
+            reader.read(0, param);
+            assertEquals(100f, lastProgress[0], 1e-3f);
+        } finally {
+            inputStream.close();
+            reader.dispose();
+        }
+    }
+
     @Test
     public void readLzwPredictor2On32BitsFloat() throws IOException {
         // This image has been created from test.tif using the command:
@@ -701,6 +935,77 @@ public class TIFFReadTest extends Assert {
         assertImagesEqual(readTiff("test.tif"), readTiff("lzw32f_p2_bigendian.tif"));
     }
 
+    @Test
+    public void readLzwInvalidCode() throws IOException {
+        // a clear code followed by a code not in the table
+        TIFFLZWDecompressor decompressor = new TIFFLZWDecompressor(BaselineTIFFTagSet.PREDICTOR_NONE);
+        try {
+            decompressor.decode(lzwStrip(256, 300, 257), 0, new byte[16], 0);
+            fail("The invalid code should have been reported");
+        } catch (IIOException e) {
+            assertTrue(e.getMessage().contains("300"));
+        }
+    }
+
+    @Test
+    public void readLzwFullTable() throws IOException {
+        // each literal following the first one adds a string to the table, until it's full
+        int literals = 4096 - 258 + 1;
+        int[] codes = new int[literals + 4];
+        byte[] expected = new byte[literals + 3];
+        codes[0] = 256;
+        for (int i = 0; i < literals; i++) {
+            codes[i + 1] = (i * 7) % 256;
+            expected[i] = (byte) codes[i + 1];
+        }
+        // the last string of the table, made of the last two literals
+        codes[literals + 1] = 4095;
+        expected[literals] = expected[literals - 2];
+        expected[literals + 1] = expected[literals - 1];
+        // the strings following are dropped, their codes keep 12 bits
+        codes[literals + 2] = 5;
+        expected[literals + 2] = 5;
+        codes[literals + 3] = 257;
+
+        TIFFLZWDecompressor decompressor = new TIFFLZWDecompressor(BaselineTIFFTagSet.PREDICTOR_NONE);
+        byte[] decoded = new byte[expected.length];
+        assertEquals(expected.length, decompressor.decode(lzwStrip(codes), 0, decoded, 0));
+        assertArrayEquals(expected, decoded);
+    }
+
+    /**
+     * Packs LZW codes into a strip, growing the code width along with the string table.
+     */
+    private static byte[] lzwStrip(int... codes) {
+        byte[] strip = new byte[codes.length * 2 + 1];
+        int length = 0;
+        int data = 0;
+        int bits = 0;
+        int tableIndex = 258;
+        boolean clear = true;
+        for (int code : codes) {
+            int width = tableIndex >= 2047 ? 12 : tableIndex >= 1023 ? 11 : tableIndex >= 511 ? 10 : 9;
+            data = (data << width) | code;
+            bits += width;
+            while (bits >= 8) {
+                strip[length++] = (byte) (data >> (bits - 8));
+                bits -= 8;
+            }
+            if (code == 256) {
+                tableIndex = 258;
+                clear = true;
+            } else if (clear) {
+                clear = false;
+            } else if (tableIndex < 4096) {
+                tableIndex++;
+            }
+        }
+        if (bits > 0) {
+            strip[length++] = (byte) (data << (8 - bits));
+        }
+        return Arrays.copyOf(strip, length);
+    }
+
     @Test
     public void readDeflateWithFloatingPointPredictor() throws IOException {
         // This image has been created from test.tif using the command:
@@ -765,6 +1070,22 @@ public class TIFFReadTest extends Assert {
         return readTiff(file);
     }
 
+    static BufferedImage readTiff(File file, ImageReadParam param) throws IOException {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+
+        FileImageInputStream inputStream = new FileImageInputStream(file);
+        try {
+            reader.setInput(inputStream);
+            BufferedImage image = reader.read(0, param);
+            image.flush();
+            return image;
+        } finally {
+            inputStream.close();
+            reader.dispose();
+        }
+    }
+
     static BufferedImage readTiff(File file) throws IOException {
 
         final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()